@@ -0,0 +1,33 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler enabled so that the allocation rate is reported next to the throughput
+ * and average time.  Accepts the same arguments as the standard jmh launcher, e.g. a benchmark regex or
+ * <code>-p queryShape=LARGE_IN</code>.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+
+    }
+
+    /**
+     * main method.
+     * @param args the jmh command line arguments
+     * @throws CommandLineOptionException if the arguments are invalid
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.benchmarks;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.ParseException;
+import com.github.vincentrussell.query.mongodb.sql.converter.QueryConverter;
+import com.google.common.io.ByteStreams;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the three stages of a conversion for each {@link QueryShape}: parsing and processing the sql
+ * ({@link QueryConverter.Builder#build()}), generating the query document
+ * ({@link QueryConverter#getQueryAsDocument()}) and rendering the mongo shell statement
+ * ({@link QueryConverter#write(OutputStream)}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryConverterBenchmark {
+
+    @Param({"SIMPLE_FIND", "LARGE_IN", "DEEP_AND_OR", "MULTI_JOIN", "GROUP_BY_HAVING", "NESTED_SUBQUERY"})
+    public QueryShape queryShape;
+
+    private QueryConverter queryConverter;
+    private final OutputStream outputStream = ByteStreams.nullOutputStream();
+
+    /**
+     * build the converter used by the {@link #getQueryAsDocument()} and {@link #write()} benchmarks.
+     * @throws ParseException if the sql can not be parsed
+     */
+    @Setup
+    public void setUp() throws ParseException {
+        queryConverter = newBuilder().build();
+    }
+
+    private QueryConverter.Builder newBuilder() {
+        return new QueryConverter.Builder().sqlString(queryShape.getSql());
+    }
+
+    /**
+     * parse and process the sql.
+     * @return the converter
+     * @throws ParseException if the sql can not be parsed
+     */
+    @Benchmark
+    public QueryConverter build() throws ParseException {
+        return newBuilder().build();
+    }
+
+    /**
+     * generate the query document from an already built converter.
+     * @return the query document
+     */
+    @Benchmark
+    public Document getQueryAsDocument() {
+        return queryConverter.getQueryAsDocument();
+    }
+
+    /**
+     * render the mongo shell statement from an already built converter.
+     * @throws IOException if the statement can not be written
+     */
+    @Benchmark
+    public void write() throws IOException {
+        queryConverter.write(outputStream);
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.benchmarks;
+
+/**
+ * Representative sql statements used by the benchmarks.
+ */
+public enum QueryShape {
+    SIMPLE_FIND("select borough, cuisine from Restaurants where borough = 'Manhattan' and grade > 5 "
+            + "order by cuisine asc limit 10"),
+    LARGE_IN(largeIn(10000)),
+    DEEP_AND_OR(deepAndOr(200)),
+    MULTI_JOIN("select r.cuisine as cuisine, r.borough as borough, n.name as name, g.score as score "
+            + "from Restaurants as r "
+            + "inner join Neighborhoods as n on r.borough = n.borough "
+            + "left join Grades as g on r.restaurant_id = g.restaurant_id and g.grade = 'A' "
+            + "inner join Addresses as a on r.restaurant_id = a.restaurant_id and a.zipcode = n.zipcode "
+            + "where r.cuisine = 'Italian' and g.score > 10 "
+            + "order by r.borough asc limit 20"),
+    GROUP_BY_HAVING("select borough, cuisine, count(*) as c, avg(score) as a, max(score) as m from Restaurants "
+            + "where grade <> 'Z' group by borough, cuisine having count(*) > 5 and avg(score) >= 10 "
+            + "order by count(*) desc limit 50"),
+    NESTED_SUBQUERY("select t.cuisine, max(t.total) as maxi from (select r.cuisine as cuisine, "
+            + "trest.totalrestaurats as total from Restaurants as r inner join (select cuisine, count(*) as "
+            + "totalrestaurats from Restaurants group by cuisine) as trest on r.cuisine = trest.cuisine "
+            + "order by trest.totalrestaurats desc, cuisine asc limit 15) as t group by t.cuisine");
+
+    private final String sql;
+
+    QueryShape(final String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * get the sql statement for this shape.
+     * @return the sql statement
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    private static String largeIn(final int size) {
+        StringBuilder stringBuilder = new StringBuilder("select * from Restaurants where restaurant_id IN (");
+        for (int i = 0; i < size; i++) {
+            stringBuilder.append(i == 0 ? "" : ", ").append('\'').append(i).append('\'');
+        }
+        return stringBuilder.append(')').toString();
+    }
+
+    private static String deepAndOr(final int terms) {
+        StringBuilder stringBuilder = new StringBuilder("select * from Restaurants where ");
+        for (int i = 0; i < terms; i++) {
+            stringBuilder.append(i == 0 ? "" : (i % 2 == 0 ? " and " : " or "))
+                    .append("(field").append(i).append(" = ").append(i)
+                    .append(" or (other").append(i).append(" > ").append(i)
+                    .append(" and other").append(i).append(" < ").append(i + terms).append("))");
+        }
+        return stringBuilder.toString();
+    }
+}
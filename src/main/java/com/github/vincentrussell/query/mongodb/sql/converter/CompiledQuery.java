@@ -0,0 +1,175 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.util.DocumentUtils;
+import com.github.vincentrussell.query.mongodb.sql.converter.util.ParameterPlaceholder;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Immutable, converted form of a sql statement.  Holds the same information as
+ * {@link QueryConverter#getQueryAsDocument()} (the {@link MongoDBQueryHolder} plus the aggregation steps) and can
+ * be shared freely between threads.  If the sql has bind parameters (<code>?</code> or <code>:name</code>) this is a
+ * template; call {@link #bind(Object...)} or {@link #bind(Map)} to get a query that can be run.
+ */
+public final class CompiledQuery {
+    private final Document queryDocument;
+    private final long weight;
+    private final Set<ParameterPlaceholder> parameters;
+    private final int prefetchBatches;
+
+    /**
+     * Default constructor.  The document is not copied, so it must not be shared with anything that could modify it.
+     * @param queryDocument the document in the format returned by {@link QueryConverter#getQueryAsDocument()}
+     * @param prefetchBatches the number of batches to fetch ahead when the query is run, or 0 to not prefetch
+     */
+    CompiledQuery(final Document queryDocument, final int prefetchBatches) {
+        notNull(queryDocument, "queryDocument is null");
+        this.queryDocument = queryDocument;
+        this.prefetchBatches = prefetchBatches;
+        this.weight = DocumentUtils.weigh(queryDocument);
+        this.parameters = DocumentUtils.getParameters(queryDocument);
+    }
+
+    /**
+     * Get the collection to run the query on.
+     * @return the collection to run the query on
+     */
+    public String getCollection() {
+        return queryDocument.getString("collection");
+    }
+
+    /**
+     * get this query with supporting data in a document format.  A new copy is returned on every call so it is
+     * safe to modify.
+     * @return the document object.
+     * @see QueryConverter#getQueryAsDocument()
+     */
+    public Document getQueryAsDocument() {
+        return DocumentUtils.deepCopy(queryDocument);
+    }
+
+    /**
+     * Build a mongo shell statement with the code to run this query.
+     * @param outputStream the {@link java.io.OutputStream} to write the data to
+     * @throws IOException when there is an issue writing to the {@link java.io.OutputStream}
+     */
+    public void write(final OutputStream outputStream) throws IOException {
+        QueryConverter.write(queryDocument, outputStream);
+    }
+
+    /**
+     * Returns if this query has parameters that need to be bound before it can be run.
+     * @return true if there are unbound parameters
+     */
+    public boolean hasParameters() {
+        return !parameters.isEmpty();
+    }
+
+    /**
+     * Fill in the positional parameters (<code>?</code>) of this query.  The values are used as they are, except
+     * for strings compared to columns mapped to a numeric, date or boolean {@link FieldType}, which are converted
+     * the same way as literals in the sql.
+     * @param values the values in the order the parameters appear in the sql
+     * @return the bound query
+     * @throws ParseException if a parameter has no value or the value can not be converted
+     */
+    public CompiledQuery bind(final Object... values) throws ParseException {
+        notNull(values, "values is null");
+        return new CompiledQuery(DocumentUtils.bindParameters(queryDocument, Arrays.asList(values), null),
+                prefetchBatches);
+    }
+
+    /**
+     * Fill in the named parameters (<code>:name</code>) of this query.  See {@link #bind(Object...)} for how the
+     * values are converted.
+     * @param values the values keyed by parameter name
+     * @return the bound query
+     * @throws ParseException if a parameter has no value or the value can not be converted
+     */
+    public CompiledQuery bind(final Map<String, ?> values) throws ParseException {
+        notNull(values, "values is null");
+        return new CompiledQuery(DocumentUtils.bindParameters(queryDocument, null, values), prefetchBatches);
+    }
+
+    /**
+     * Run this query.
+     * @param mongoDatabase the database to run the query against.
+     * @param <T>           variable based on the type of query run.
+     * @return see {@link QueryConverter#run(MongoDatabase)}
+     */
+    public <T> T run(final MongoDatabase mongoDatabase) {
+        isTrue(!hasParameters(), "query has unbound parameters, call bind first");
+        return QueryConverter.run(queryDocument, mongoDatabase, prefetchBatches);
+    }
+
+    /**
+     * Run this query with the reactive streams driver.
+     * @param mongoDatabase the database to run the query against.
+     * @param <T>           variable based on the type of query run.
+     * @return see {@link QueryConverter#runAsync(com.mongodb.reactivestreams.client.MongoDatabase)}
+     */
+    public <T> T runAsync(final com.mongodb.reactivestreams.client.MongoDatabase mongoDatabase) {
+        isTrue(!hasParameters(), "query has unbound parameters, call bind first");
+        return ReactiveQueryRunner.run(queryDocument, mongoDatabase);
+    }
+
+    /**
+     * Run a batch of update queries with one ordered bulk write per collection, instead of a round trip for
+     * every query.  The updates of a collection are applied in the order they are in the list.
+     * @param updates the update queries, with their parameters bound
+     * @param mongoDatabase the database to run the queries against.
+     * @return the matched and modified counts of all the queries together
+     */
+    public static UpdateResult runUpdates(final List<CompiledQuery> updates, final MongoDatabase mongoDatabase) {
+        notNull(updates, "updates is null");
+        notNull(mongoDatabase, "mongoDatabase is null");
+        Map<String, List<WriteModel<Document>>> writesByCollection = new LinkedHashMap<>();
+        for (CompiledQuery update : updates) {
+            isTrue(!update.hasParameters(), "query has unbound parameters, call bind first");
+            Document queryDocument = update.queryDocument;
+            isTrue(SQLCommandType.UPDATE.name().equals(queryDocument.get("commandType")),
+                    "only update queries can be run as a batch");
+            List<WriteModel<Document>> writes = writesByCollection.get(update.getCollection());
+            if (writes == null) {
+                writes = new ArrayList<>();
+                writesByCollection.put(update.getCollection(), writes);
+            }
+            Document query = (Document) queryDocument.get("query");
+            writes.add(List.class.isInstance(queryDocument.get("update"))
+                    ? new UpdateManyModel<Document>(query, queryDocument.getList("update", Document.class))
+                    : new UpdateManyModel<Document>(query, (Document) queryDocument.get("update")));
+        }
+        long matchedCount = 0;
+        long modifiedCount = 0;
+        for (Map.Entry<String, List<WriteModel<Document>>> entry : writesByCollection.entrySet()) {
+            BulkWriteResult result = mongoDatabase.getCollection(entry.getKey()).bulkWrite(entry.getValue());
+            matchedCount += result.getMatchedCount();
+            modifiedCount += result.getModifiedCount();
+        }
+        return UpdateResult.acknowledged(matchedCount, modifiedCount, null);
+    }
+
+    /**
+     * The number of values held by this query.
+     * @return the weight of this query
+     */
+    long getWeight() {
+        return weight;
+    }
+}
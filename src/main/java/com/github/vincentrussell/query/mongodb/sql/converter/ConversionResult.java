@@ -0,0 +1,63 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+/**
+ * The outcome of converting one statement of a batch, see
+ * {@link QueryConverter.Builder#convertAll(java.util.List, java.util.concurrent.Executor)}.  Holds either the
+ * {@link CompiledQuery} or the {@link ParseException} that stopped the statement from being converted.
+ */
+public final class ConversionResult {
+    private final String sql;
+    private final CompiledQuery compiledQuery;
+    private final ParseException parseException;
+
+    private ConversionResult(final String sql, final CompiledQuery compiledQuery,
+                             final ParseException parseException) {
+        this.sql = sql;
+        this.compiledQuery = compiledQuery;
+        this.parseException = parseException;
+    }
+
+    static ConversionResult success(final String sql, final CompiledQuery compiledQuery) {
+        return new ConversionResult(sql, compiledQuery, null);
+    }
+
+    static ConversionResult failure(final String sql, final ParseException parseException) {
+        return new ConversionResult(sql, null, parseException);
+    }
+
+    /**
+     * get the sql string that was converted.
+     * @return the sql string
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns if the statement was converted.
+     * @return true if there is a {@link CompiledQuery}
+     */
+    public boolean isSuccess() {
+        return parseException == null;
+    }
+
+    /**
+     * get the {@link CompiledQuery} for the statement.
+     * @return the {@link CompiledQuery}
+     * @throws ParseException the exception that stopped the statement from being converted
+     */
+    public CompiledQuery getCompiledQuery() throws ParseException {
+        if (parseException != null) {
+            throw parseException;
+        }
+        return compiledQuery;
+    }
+
+    /**
+     * get the exception that stopped the statement from being converted.
+     * @return the {@link ParseException} or null if the statement was converted
+     */
+    public ParseException getParseException() {
+        return parseException;
+    }
+}
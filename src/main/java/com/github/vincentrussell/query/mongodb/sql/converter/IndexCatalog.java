@@ -0,0 +1,180 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * The indexes that exist on each collection, used by
+ * {@link QueryConverter.Builder#indexCatalog(IndexCatalog)} to order the predicates of a query so that they line up
+ * with an index, and to limit the base documents before a left join on a unique key.  The indexes can either be
+ * listed up front with {@link Builder#addIndex(String, Document)} or read from a database with
+ * <code>listIndexes</code> the first time a collection is converted.
+ */
+public final class IndexCatalog {
+    private final MongoDatabase mongoDatabase;
+    private final ConcurrentMap<String, List<Document>> indexes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<Document>> uniqueIndexes = new ConcurrentHashMap<>();
+
+    private IndexCatalog(final MongoDatabase mongoDatabase, final Map<String, List<Document>> indexes,
+                         final Map<String, List<Document>> uniqueIndexes) {
+        this.mongoDatabase = mongoDatabase;
+        for (Map.Entry<String, List<Document>> entry : indexes.entrySet()) {
+            this.indexes.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        for (Map.Entry<String, List<Document>> entry : uniqueIndexes.entrySet()) {
+            this.uniqueIndexes.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+    }
+
+    /**
+     * Create a catalog that reads the indexes of each collection from the database the first time they are needed
+     * and caches them.  Call {@link #invalidate(String)} or {@link #invalidateAll()} after the indexes change.
+     * @param mongoDatabase the database to read the indexes from
+     * @return the catalog
+     */
+    public static IndexCatalog fromDatabase(final MongoDatabase mongoDatabase) {
+        notNull(mongoDatabase);
+        return new IndexCatalog(mongoDatabase, Collections.<String, List<Document>>emptyMap(),
+                Collections.<String, List<Document>>emptyMap());
+    }
+
+    /**
+     * get the key documents (for example <code>{"a": 1, "b": -1}</code>) of the indexes on a collection.
+     * @param collection the collection name
+     * @return the index keys, or an empty list if the collection has no known indexes
+     */
+    public List<Document> getIndexes(final String collection) {
+        List<Document> collectionIndexes = indexes.get(collection);
+        if (collectionIndexes == null && mongoDatabase != null) {
+            collectionIndexes = readIndexes(collection);
+        }
+        return collectionIndexes != null ? collectionIndexes : Collections.<Document>emptyList();
+    }
+
+    /**
+     * Returns if a field can't have the same value in two documents of a collection, because it is the
+     * <code>_id</code> or has a unique index of its own that is neither sparse nor partial.
+     * @param collection the collection name
+     * @param field the field
+     * @return true if the field is unique
+     */
+    public boolean isUnique(final String collection, final String field) {
+        if ("_id".equals(field)) {
+            return true;
+        }
+        List<Document> collectionUniqueIndexes = uniqueIndexes.get(collection);
+        if (collectionUniqueIndexes == null && mongoDatabase != null) {
+            readIndexes(collection);
+            collectionUniqueIndexes = uniqueIndexes.get(collection);
+        }
+        if (collectionUniqueIndexes != null) {
+            for (Document keys : collectionUniqueIndexes) {
+                if (keys.size() == 1 && keys.containsKey(field)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private List<Document> readIndexes(final String collection) {
+        List<Document> keys = new ArrayList<>();
+        List<Document> uniqueKeys = new ArrayList<>();
+        for (Document index : mongoDatabase.getCollection(collection).listIndexes()
+                .into(new ArrayList<Document>())) {
+            keys.add((Document) index.get("key"));
+            if (Boolean.TRUE.equals(index.get("unique")) && !Boolean.TRUE.equals(index.get("sparse"))
+                    && !index.containsKey("partialFilterExpression")) {
+                uniqueKeys.add((Document) index.get("key"));
+            }
+        }
+        uniqueIndexes.putIfAbsent(collection, Collections.unmodifiableList(uniqueKeys));
+        List<Document> collectionIndexes = Collections.unmodifiableList(keys);
+        indexes.putIfAbsent(collection, collectionIndexes);
+        return collectionIndexes;
+    }
+
+    /**
+     * Forget the indexes read for a collection so they are read from the database again.
+     * @param collection the collection name
+     */
+    public void invalidate(final String collection) {
+        if (mongoDatabase != null) {
+            indexes.remove(collection);
+            uniqueIndexes.remove(collection);
+        }
+    }
+
+    /**
+     * Forget the indexes read for every collection so they are read from the database again.
+     */
+    public void invalidateAll() {
+        if (mongoDatabase != null) {
+            indexes.clear();
+            uniqueIndexes.clear();
+        }
+    }
+
+    /**
+     * Builder for an {@link IndexCatalog} with a fixed set of indexes.
+     */
+    public static class Builder {
+        private final Map<String, List<Document>> indexes = new HashMap<>();
+        private final Map<String, List<Document>> uniqueIndexes = new HashMap<>();
+
+        /**
+         * add an index.
+         * @param collection the collection the index is on
+         * @param keys the index keys in order, for example <code>{"a": 1, "b": -1}</code>
+         * @return the builder
+         */
+        public Builder addIndex(final String collection, final Document keys) {
+            notNull(collection);
+            notNull(keys);
+            add(indexes, collection, keys);
+            return this;
+        }
+
+        /**
+         * add a unique index.
+         * @param collection the collection the index is on
+         * @param keys the index keys in order, for example <code>{"a": 1}</code>
+         * @return the builder
+         */
+        public Builder addUniqueIndex(final String collection, final Document keys) {
+            notNull(collection);
+            notNull(keys);
+            add(indexes, collection, keys);
+            add(uniqueIndexes, collection, keys);
+            return this;
+        }
+
+        private static void add(final Map<String, List<Document>> indexesByCollection, final String collection,
+                                final Document keys) {
+            List<Document> collectionIndexes = indexesByCollection.get(collection);
+            if (collectionIndexes == null) {
+                collectionIndexes = new ArrayList<>();
+                indexesByCollection.put(collection, collectionIndexes);
+            }
+            collectionIndexes.add(new Document(keys));
+        }
+
+        /**
+         * build the {@link IndexCatalog}.
+         * @return the {@link IndexCatalog}
+         */
+        public IndexCatalog build() {
+            return new IndexCatalog(null, indexes, uniqueIndexes);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+/**
+ * The form of <code>$lookup</code> used for joins whose on clause is a single equality between two columns, like
+ * <code>t1.x = t2.y</code>.  Other joins always use <code>let</code> and <code>pipeline</code>.  Note that with
+ * <code>localField</code> and <code>foreignField</code> array fields and missing fields are matched the same way as
+ * in a regular query, instead of the way <code>$expr</code> compares them.
+ */
+public enum LookupStyle {
+    /**
+     * always use <code>let</code> and a <code>pipeline</code> with an <code>$expr</code> match.
+     */
+    PIPELINE,
+    /**
+     * use <code>localField</code> and <code>foreignField</code>, so that the index on the foreign field can be
+     * used, when nothing else has to be matched in the joined collection.
+     */
+    LOCAL_FOREIGN_FIELD,
+    /**
+     * use <code>localField</code> and <code>foreignField</code> together with a <code>pipeline</code> for the rest of
+     * the conditions on the joined collection.  Needs MongoDB 5.0 or later.
+     */
+    LOCAL_FOREIGN_FIELD_WITH_PIPELINE
+}
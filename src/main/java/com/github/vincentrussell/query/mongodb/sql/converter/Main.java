@@ -6,8 +6,12 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCompressor;
 import com.mongodb.MongoCredential;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
+import com.mongodb.client.result.UpdateResult;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -31,7 +35,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -57,12 +63,17 @@ public final class Main {
     private static final String DEFAULT_MONGO_PORT = "27017";
     public static final String D_AGGREGATION_ALLOW_DISK_USE = "aggregationAllowDiskUse";
     public static final String D_AGGREGATION_BATCH_SIZE = "aggregationBatchSize";
+    private static final List<String> CONNECTION_OPTIONS = Arrays.asList("pool", "st", "ct", "rp", "z");
 
     private Main() {
 
     }
 
-    private static Options buildOptions() {
+    /**
+     * build the command line options.
+     * @return the {@link Options}
+     */
+    static Options buildOptions() {
         Options options = new Options();
 
 
@@ -73,7 +84,7 @@ public final class Main {
                 .longOpt("sourceFile")
                 .hasArg(true)
                 .required(false)
-                .desc("the source file.")
+                .desc("the source file.  It can hold several statements separated by ;")
                 .build());
 
         sourceOptionGroup.addOption(Option.builder("i")
@@ -140,6 +151,13 @@ public final class Main {
                 .desc("batch size for query results")
                 .build());
 
+        options.addOption(Option.builder("f")
+                .longOpt("format")
+                .hasArg(true)
+                .required(false)
+                .desc("stream query results in one of the following formats: ndjson, json or bson")
+                .build());
+
         options.addOption(Option.builder("l")
                 .longOpt("loopMode")
                 .hasArg(false)
@@ -147,6 +165,60 @@ public final class Main {
                 .desc("interactive loopMode mode")
                 .build());
 
+        options.addOption(Option.builder("par")
+                .longOpt("parallel")
+                .hasArg(true)
+                .required(false)
+                .desc("export the results of a find query without sort, skip or limit to the destination file "
+                        + "with this many cursors, each reading a range of _id values")
+                .build());
+
+        options.addOption(Option.builder("c")
+                .longOpt("concurrency")
+                .hasArg(true)
+                .required(false)
+                .desc("the number of select statements of a script that can run at the same time.  A statement "
+                        + "that writes waits for the ones before it and the ones after it wait for the write.  "
+                        + "Defaults to 1")
+                .build());
+
+        options.addOption(Option.builder("pool")
+                .longOpt("poolSize")
+                .hasArg(true)
+                .required(false)
+                .desc("the maximum number of connections to each host.  Defaults to 100")
+                .build());
+
+        options.addOption(Option.builder("st")
+                .longOpt("socketTimeout")
+                .hasArg(true)
+                .required(false)
+                .desc("the socket read timeout in milliseconds.  Defaults to no timeout")
+                .build());
+
+        options.addOption(Option.builder("ct")
+                .longOpt("connectTimeout")
+                .hasArg(true)
+                .required(false)
+                .desc("the connect timeout in milliseconds.  Defaults to 10000")
+                .build());
+
+        options.addOption(Option.builder("rp")
+                .longOpt("readPreference")
+                .hasArg(true)
+                .required(false)
+                .desc("the read preference: primary, primaryPreferred, secondary, secondaryPreferred or nearest.  "
+                        + "Defaults to primary")
+                .build());
+
+        options.addOption(Option.builder("z")
+                .longOpt("compressors")
+                .hasArg(true)
+                .required(false)
+                .desc("comma separated list of the compressors to offer the server, in order of preference: "
+                        + "zstd, snappy or zlib")
+                .build());
+
         options.addOptionGroup(sourceOptionGroup);
 
         return options;
@@ -167,7 +239,8 @@ public final class Main {
         CommandLineParser parser = new DefaultParser();
         HelpFormatter help = new HelpFormatter();
         help.setOptionComparator(new OptionComparator(
-                Arrays.asList("s", "sql", "i", "l", "d", "h", "db", "a", "u", "p", "b")));
+                Arrays.asList("s", "sql", "i", "l", "d", "h", "db", "a", "u", "p", "b", "f", "par", "c", "pool", "st",
+                        "ct", "rp", "z")));
 
         CommandLine cmd = null;
         try {
@@ -178,37 +251,48 @@ public final class Main {
 
             verifyArguments(cmd);
 
-            while (true) {
-                try (InputStream inputStream = getInputStream(cmd);
-                     OutputStream outputStream = getOutputStream(cmd)) {
-
-                    QueryConverter queryConverter = getQueryConverter(inputStream);
-
-                    if (hosts != null) {
-                        try {
-                            runQueryInMongo(cmd, hosts, outputStream, queryConverter);
-                        } catch (ParseException | IOException e) {
-                            if (loopMode) {
-                                e.printStackTrace(System.err);
-                                continue;
-                            } else {
-                                throw e;
+            //one client, and so one connection pool, for every query of the process, including loop mode
+            final MongoClient mongoClient = hosts != null ? getMongoClient(cmd) : null;
+            try {
+                while (true) {
+                    try (InputStream inputStream = getInputStream(cmd);
+                         OutputStream outputStream = getOutputStream(cmd)) {
+
+                        SqlScriptReader scriptReader = getScriptReader(inputStream);
+
+                        if (mongoClient != null) {
+                            try {
+                                runScriptInMongo(cmd, mongoClient, outputStream, scriptReader);
+                            } catch (ParseException | IOException e) {
+                                if (loopMode) {
+                                    e.printStackTrace(System.err);
+                                    continue;
+                                } else {
+                                    throw e;
+                                }
+                            }
+                        } else {
+                            for (QueryConverter queryConverter = scriptReader.next(); queryConverter != null;
+                                 queryConverter = scriptReader.next()) {
+                                IOUtils.write("\n\n******Mongo Query:*********\n\n", outputStream);
+                                queryConverter.write(outputStream);
+                                IOUtils.write("\n\n", outputStream);
                             }
                         }
-                    } else {
-                        IOUtils.write("\n\n******Mongo Query:*********\n\n", outputStream);
-                        queryConverter.write(outputStream);
-                        IOUtils.write("\n\n", outputStream);
-                    }
 
-                }
+                    }
 
-                if (loopMode) {
-                    if (shouldContinue()) {
-                        continue;
+                    if (loopMode) {
+                        if (shouldContinue()) {
+                            continue;
+                        }
                     }
+                    break;
+                }
+            } finally {
+                if (mongoClient != null) {
+                    mongoClient.close();
                 }
-                break;
             }
         } catch (org.apache.commons.cli.ParseException e) {
             System.err.println(e.getMessage());
@@ -235,6 +319,9 @@ public final class Main {
         final String username = cmd.getOptionValue("u");
         final String password = cmd.getOptionValue("p");
         final String authdb = cmd.getOptionValue("a");
+        final String format = cmd.getOptionValue("f");
+        final String parallel = cmd.getOptionValue("par");
+        final String concurrency = cmd.getOptionValue("c");
 
         isTrue(interactiveMode || source != null || sql != null,
                 "Missing required option: s or i or sql");
@@ -242,38 +329,137 @@ public final class Main {
                 "provided option h, but missing db");
         isFalse(username != null && (password == null || authdb == null),
                 "provided option u, but missing p or a");
+        isFalse(format != null && hosts == null,
+                "provided option f, but missing h");
+        if (format != null) {
+            try {
+                ResultWriter.Format.fromName(format);
+            } catch (IllegalArgumentException e) {
+                throw new org.apache.commons.cli.ParseException("unknown format: " + format);
+            }
+        }
+        isFalse(parallel != null && (hosts == null || cmd.getOptionValue("d") == null),
+                "provided option parallel, but missing h or d");
+        verifyPositiveNumber("parallel", parallel);
+        isFalse(concurrency != null && hosts == null,
+                "provided option concurrency, but missing h");
+        verifyPositiveNumber("concurrency", concurrency);
+        verifyConnectionArguments(cmd);
     }
 
-    private static void runQueryInMongo(final CommandLine cmd, final String[] hosts, final OutputStream outputStream,
-                                        final QueryConverter queryConverter) throws ParseException, IOException {
+    private static void verifyConnectionArguments(final CommandLine cmd)
+            throws org.apache.commons.cli.ParseException {
+        final String[] hosts = cmd.getOptionValues("h");
+        final String readPreference = cmd.getOptionValue("rp");
+        final String compressors = cmd.getOptionValue("z");
+
+        for (Option option : cmd.getOptions()) {
+            isFalse(CONNECTION_OPTIONS.contains(option.getOpt()) && hosts == null,
+                    "provided option " + option.getLongOpt() + ", but missing h");
+        }
+        verifyPositiveNumber("poolSize", cmd.getOptionValue("pool"));
+        verifyPositiveNumber("socketTimeout", cmd.getOptionValue("st"));
+        verifyPositiveNumber("connectTimeout", cmd.getOptionValue("ct"));
+        try {
+            if (readPreference != null) {
+                ReadPreference.valueOf(readPreference);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new org.apache.commons.cli.ParseException("unknown read preference: " + readPreference);
+        }
+        try {
+            if (compressors != null) {
+                getCompressors(compressors);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new org.apache.commons.cli.ParseException(e.getMessage());
+        }
+    }
+
+    private static void verifyPositiveNumber(final String name, final String value)
+            throws org.apache.commons.cli.ParseException {
+        if (value != null) {
+            try {
+                isTrue(Integer.parseInt(value) > 0, name + " must be greater than 0");
+            } catch (NumberFormatException e) {
+                throw new org.apache.commons.cli.ParseException(name + " is not a number: " + value);
+            }
+        }
+    }
+
+    private static void runScriptInMongo(final CommandLine cmd, final MongoClient mongoClient,
+                                         final OutputStream outputStream, final SqlScriptReader scriptReader)
+            throws ParseException, IOException {
+        final int concurrency = Integer.parseInt(cmd.getOptionValue("c", "1"));
+
+        //the output of the statements that run at the same time is buffered, so look at where it ends up
+        final boolean toFile = FileOutputStream.class.isInstance(outputStream);
+        //the statements that run at the same time share the connection pool of the client
+        new ScriptRunner(concurrency, new ScriptRunner.StatementRunner() {
+            @Override
+            public void run(final QueryConverter queryConverter, final OutputStream statementOutputStream,
+                            final boolean concurrent) throws ParseException, IOException {
+                runQueryInMongo(cmd, mongoClient, statementOutputStream, queryConverter, toFile, !concurrent);
+            }
+        }, System.err).run(scriptReader, outputStream);
+    }
+
+    private static void runQueryInMongo(final CommandLine cmd, final MongoClient mongoClient,
+                                        final OutputStream outputStream, final QueryConverter queryConverter,
+                                        final boolean toFile, final boolean paged)
+            throws ParseException, IOException {
 
         final String db = cmd.getOptionValue("db");
-        final String username = cmd.getOptionValue("u");
-        final String password = cmd.getOptionValue("p");
-        final String authdb = cmd.getOptionValue("a");
         final int batchSize = Integer.parseInt(cmd.getOptionValue("b", "" + DEFAULT_RESULT_BATCH_SIZE));
-
-        MongoClient mongoClient = null;
-        try {
-            mongoClient = getMongoClient(hosts, authdb, username, password);
-            Object result = queryConverter.run(mongoClient.getDatabase(db));
-
-            if (Long.class.isInstance(result) || long.class.isInstance(result)) {
-                IOUtils.write("\n\n******Query Results:*********\n\n", outputStream);
-                IOUtils.write("" + result, outputStream);
-                IOUtils.write("\n\n", outputStream);
-            } else if (QueryResultIterator.class.isInstance(result)) {
-                processMongoResults(batchSize, outputStream, (QueryResultIterator) result);
+        final String format = cmd.getOptionValue("f");
+        final String parallel = cmd.getOptionValue("par");
+
+        if (parallel != null) {
+            Document queryDocument = queryConverter.getQueryAsDocument();
+            if (ParallelExport.isSupported(queryDocument)) {
+                ParallelExport.export(queryDocument, mongoClient.getDatabase(db), Integer.parseInt(parallel),
+                        format != null ? ResultWriter.Format.fromName(format) : ResultWriter.Format.JSON,
+                        outputStream);
+                return;
             }
+            System.err.println("only find queries without sort, skip or limit can be exported in parallel, "
+                    + "exporting with a single cursor");
+        }
+        Object result = queryConverter.run(mongoClient.getDatabase(db));
+
+        if (format != null) {
+            writeMongoResults(ResultWriter.Format.fromName(format), outputStream, result);
+        } else if (Long.class.isInstance(result) || long.class.isInstance(result)) {
+            IOUtils.write("\n\n******Query Results:*********\n\n", outputStream);
+            IOUtils.write("" + result, outputStream);
+            IOUtils.write("\n\n", outputStream);
+        } else if (QueryResultIterator.class.isInstance(result)) {
+            processMongoResults(batchSize, outputStream, (QueryResultIterator) result, toFile, paged);
+        } else if (UpdateResult.class.isInstance(result)) {
+            UpdateResult updateResult = (UpdateResult) result;
+            IOUtils.write("\n\n******Query Results:*********\n\n", outputStream);
+            IOUtils.write("matched: " + updateResult.getMatchedCount() + ", modified: "
+                    + updateResult.getModifiedCount(), outputStream);
+            IOUtils.write("\n\n", outputStream);
+        }
+    }
 
-        } finally {
-            if (mongoClient != null) {
-                mongoClient.close();
+    private static void writeMongoResults(final ResultWriter.Format format, final OutputStream outputStream,
+                                          final Object result) throws IOException {
+        if (Long.class.isInstance(result)) {
+            ResultWriter.writeCount((Long) result, format, outputStream);
+        } else if (QueryResultIterator.class.isInstance(result)) {
+            try (QueryResultIterator<?> iterator = (QueryResultIterator<?>) result) {
+                ResultWriter.write(iterator, format, outputStream);
             }
+        } else if (UpdateResult.class.isInstance(result)) {
+            UpdateResult updateResult = (UpdateResult) result;
+            ResultWriter.write(Collections.singletonList(new Document("matchedCount", updateResult.getMatchedCount())
+                    .append("modifiedCount", updateResult.getModifiedCount())).iterator(), format, outputStream);
         }
     }
 
-    private static QueryConverter getQueryConverter(final InputStream inputStream) throws ParseException {
+    private static SqlScriptReader getScriptReader(final InputStream inputStream) throws ParseException {
 
         QueryConverter.Builder builder = new QueryConverter.Builder().sqlInputStream(inputStream);
 
@@ -290,7 +476,7 @@ public final class Main {
             }
         }
 
-        return builder.build();
+        return builder.buildScript();
     }
 
     private static OutputStream getOutputStream(final CommandLine cmd) throws IOException {
@@ -330,10 +516,11 @@ public final class Main {
     }
 
     private static void processMongoResults(final int batchSize, final OutputStream outputStream,
-                                            final QueryResultIterator result) throws IOException {
+                                            final QueryResultIterator result, final boolean toFile,
+                                            final boolean paged) throws IOException {
         QueryResultIterator<Document> iterator = result;
 
-        if (FileOutputStream.class.isInstance(outputStream)) {
+        if (toFile) {
             IOUtils.write("[", outputStream);
             while (iterator.hasNext()) {
                 IOUtils.write(iterator.next().toJson(), outputStream);
@@ -353,7 +540,7 @@ public final class Main {
                 IOUtils.write(toJson(documents) + "\n\n", outputStream);
                 outputStream.flush();
 
-                if (listIterator.hasNext()) {
+                if (paged && listIterator.hasNext()) {
 
                     inputLoop:
                     while (true) {
@@ -416,8 +603,11 @@ public final class Main {
     }
 
     @SuppressWarnings("magicnumber")
-    private static MongoClient getMongoClient(final String[] hosts,
-                                              final String authdb, final String username, final String password) {
+    private static MongoClient getMongoClient(final CommandLine cmd) {
+        final String[] hosts = cmd.getOptionValues("h");
+        final String username = cmd.getOptionValue("u");
+        final String password = cmd.getOptionValue("p");
+        final String authdb = cmd.getOptionValue("a");
         final Pattern hostAndPort = Pattern.compile("^(.[^:]*){1}([:]){0,1}(\\d+){0,1}$");
         List<ServerAddress> serverAddresses = Lists.transform(Arrays.asList(hosts),
                 new Function<String, ServerAddress>() {
@@ -437,9 +627,64 @@ public final class Main {
                 });
         if (username != null && password != null) {
             return new MongoClient(serverAddresses,
-                    Arrays.asList(MongoCredential.createCredential(username, authdb, password.toCharArray())));
+                    MongoCredential.createCredential(username, authdb, password.toCharArray()),
+                    getMongoClientOptions(cmd));
         } else {
-            return new MongoClient(serverAddresses);
+            return new MongoClient(serverAddresses, getMongoClientOptions(cmd));
+        }
+    }
+
+    /**
+     * get the connection pool, timeout, read preference and compression settings of the client.
+     * @param cmd the {@link CommandLine}, already verified
+     * @return the {@link MongoClientOptions}
+     */
+    static MongoClientOptions getMongoClientOptions(final CommandLine cmd) {
+        MongoClientOptions.Builder builder = MongoClientOptions.builder();
+        if (cmd.hasOption("pool")) {
+            builder.connectionsPerHost(Integer.parseInt(cmd.getOptionValue("pool")));
+        }
+        if (cmd.hasOption("st")) {
+            builder.socketTimeout(Integer.parseInt(cmd.getOptionValue("st")));
+        }
+        if (cmd.hasOption("ct")) {
+            builder.connectTimeout(Integer.parseInt(cmd.getOptionValue("ct")));
+        }
+        if (cmd.hasOption("rp")) {
+            builder.readPreference(ReadPreference.valueOf(cmd.getOptionValue("rp")));
+        }
+        if (cmd.hasOption("z")) {
+            builder.compressorList(getCompressors(cmd.getOptionValue("z")));
+        }
+        return builder.build();
+    }
+
+    //the driver only loads the zstd and snappy libraries once it compresses a message, so check for them up front.
+    //the standalone jar includes both, but the plain jar needs them on the classpath
+    private static List<MongoCompressor> getCompressors(final String compressors) {
+        List<MongoCompressor> compressorList = new ArrayList<>();
+        for (String compressor : compressors.split(",")) {
+            String name = compressor.trim().toLowerCase();
+            if ("zstd".equals(name)) {
+                verifyOnClasspath("com.github.luben.zstd.Zstd", "zstd", "com.github.luben:zstd-jni");
+                compressorList.add(MongoCompressor.createZstdCompressor());
+            } else if ("snappy".equals(name)) {
+                verifyOnClasspath("org.xerial.snappy.Snappy", "snappy", "org.xerial.snappy:snappy-java");
+                compressorList.add(MongoCompressor.createSnappyCompressor());
+            } else if ("zlib".equals(name)) {
+                compressorList.add(MongoCompressor.createZlibCompressor());
+            } else {
+                throw new IllegalArgumentException("unknown compressor: " + compressor.trim());
+            }
+        }
+        return compressorList;
+    }
+
+    private static void verifyOnClasspath(final String className, final String compressor, final String artifact) {
+        try {
+            Class.forName(className, false, Main.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(compressor + " compression needs " + artifact + " on the classpath");
         }
     }
 
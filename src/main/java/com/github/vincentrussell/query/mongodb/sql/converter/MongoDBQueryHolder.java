@@ -26,6 +26,10 @@ public class MongoDBQueryHolder {
      */
     private List<Document> prevSteps;
     private boolean requiresMultistepAggregation = false;
+    private boolean sortBeforeJoin = false;
+    private boolean joinPreservesBaseDocuments = false;
+    private Object update;
+    private List<Document> documents;
 
     /**
      * Pojo to hold the MongoDB data.
@@ -272,4 +276,69 @@ public class MongoDBQueryHolder {
     public boolean isRequiresMultistepAggregation() {
         return requiresMultistepAggregation;
     }
+
+    /**
+     * Set if the sort should be done before the join steps, because an index can return the documents in order.
+     * @param sortBeforeJoin true if the sort should be done before the join steps
+     */
+    public void setSortBeforeJoin(final boolean sortBeforeJoin) {
+        this.sortBeforeJoin = sortBeforeJoin;
+    }
+
+    /**
+     * if the sort should be done before the join steps.
+     * @return if the sort should be done before the join steps
+     */
+    public boolean isSortBeforeJoin() {
+        return sortBeforeJoin;
+    }
+
+    /**
+     * Set if the join steps keep every base document exactly once, so that the sort, skip and limit can be done
+     * before them.
+     * @param joinPreservesBaseDocuments true if the join steps keep every base document exactly once
+     */
+    public void setJoinPreservesBaseDocuments(final boolean joinPreservesBaseDocuments) {
+        this.joinPreservesBaseDocuments = joinPreservesBaseDocuments;
+    }
+
+    /**
+     * if the join steps keep every base document exactly once.
+     * @return if the join steps keep every base document exactly once
+     */
+    public boolean isJoinPreservesBaseDocuments() {
+        return joinPreservesBaseDocuments;
+    }
+
+    /**
+     * Set the update of an update query.
+     * @param update a {@link Document} with the update operators, or a pipeline (a list of {@link Document}s)
+     */
+    public void setUpdate(final Object update) {
+        this.update = update;
+    }
+
+    /**
+     * get the update of an update query.
+     * @return a {@link Document} with the update operators, a pipeline (a list of {@link Document}s) or null
+     */
+    public Object getUpdate() {
+        return update;
+    }
+
+    /**
+     * Set the documents of an insert query.
+     * @param documents the documents to insert
+     */
+    public void setDocuments(final List<Document> documents) {
+        this.documents = documents;
+    }
+
+    /**
+     * get the documents of an insert query.
+     * @return the documents to insert or null
+     */
+    public List<Document> getDocuments() {
+        return documents;
+    }
 }
@@ -0,0 +1,230 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.google.common.base.Charsets;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Exports the results of a find query with several cursors at once.  The collection is split into <code>_id</code>
+ * ranges using boundaries picked from a <code>$sample</code>, each range is read by its own cursor into a temporary
+ * file, and the files are written to the output in range order.  Only find queries without a sort, skip or limit can
+ * be split this way, see {@link #isSupported(Document)}.
+ */
+public final class ParallelExport {
+    private static final int SAMPLES_PER_RANGE = 20;
+
+    private ParallelExport() {
+
+    }
+
+    /**
+     * Returns if a query can be exported in parallel: a select that runs as a find, without a sort, skip or limit.
+     * @param queryDocument the document in the format returned by {@link QueryConverter#getQueryAsDocument()}
+     * @return true if the query can be exported in parallel
+     */
+    public static boolean isSupported(final Document queryDocument) {
+        return Document.class.isInstance(queryDocument.get("query"))
+                && SQLCommandType.SELECT.name().equals(queryDocument.get("commandType"))
+                && queryDocument.get("sort") == null && queryDocument.get("skip") == null
+                && queryDocument.get("limit") == null;
+    }
+
+    /**
+     * Export the results of a query.
+     * @param queryDocument the document in the format returned by {@link QueryConverter#getQueryAsDocument()}
+     * @param mongoDatabase the database to run the query against
+     * @param parallelism the number of cursors to read the collection with
+     * @param format the {@link ResultWriter.Format} to write
+     * @param outputStream the {@link OutputStream} to write to.  It is flushed, but not closed.
+     * @return the number of documents written
+     * @throws IOException if there is an issue writing the results
+     */
+    public static long export(final Document queryDocument, final MongoDatabase mongoDatabase, final int parallelism,
+                              final ResultWriter.Format format, final OutputStream outputStream) throws IOException {
+        notNull(queryDocument, "queryDocument is null");
+        notNull(mongoDatabase, "mongoDatabase is null");
+        notNull(format, "format is null");
+        isTrue(parallelism > 0, "parallelism must be greater than 0");
+        isTrue(isSupported(queryDocument),
+                "only find queries without a sort, skip or limit can be exported in parallel");
+        final MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(
+                queryDocument.getString("collection"));
+        final Document query = (Document) queryDocument.get("query");
+        final Document projection = (Document) queryDocument.get("projection");
+        //the json array is put together from the lines of each part when they are merged
+        final ResultWriter.Format partFormat = ResultWriter.Format.JSON.equals(format)
+                ? ResultWriter.Format.NDJSON : format;
+
+        List<Document> ranges = getIdRanges(mongoCollection, parallelism);
+        List<File> parts = new ArrayList<>(ranges.size());
+        ExecutorService executorService = Executors.newFixedThreadPool(ranges.size());
+        try {
+            List<Future<Long>> futures = new ArrayList<>(ranges.size());
+            for (final Document range : ranges) {
+                final File part = File.createTempFile("export", ".part");
+                parts.add(part);
+                futures.add(executorService.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        FindIterable<Document> findIterable = mongoCollection.find(and(query, range))
+                                .projection(projection);
+                        try (QueryResultIterator<Document> iterator = new QueryResultIterator<>(findIterable);
+                             OutputStream partOutputStream = new FileOutputStream(part)) {
+                            return ResultWriter.write(iterator, partFormat, partOutputStream);
+                        }
+                    }
+                }));
+            }
+            long count = 0;
+            for (Future<Long> future : futures) {
+                count += getResult(future);
+            }
+            merge(parts, format, outputStream);
+            return count;
+        } finally {
+            executorService.shutdownNow();
+            for (File part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    private static long getResult(final Future<Long> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Split a collection into <code>_id</code> ranges of about the same size.
+     * @param mongoCollection the collection
+     * @param count the number of ranges wanted
+     * @return the <code>_id</code> filters of the ranges, in order; fewer than asked for if the collection is small
+     */
+    public static List<Document> getIdRanges(final MongoCollection<Document> mongoCollection, final int count) {
+        if (count <= 1) {
+            return Collections.singletonList(new Document());
+        }
+        List<Object> sampledIds = new ArrayList<>();
+        for (Document document : mongoCollection.aggregate(Arrays.asList(
+                new Document("$sample", new Document("size", count * SAMPLES_PER_RANGE)),
+                new Document("$project", new Document("_id", 1)),
+                new Document("$sort", new Document("_id", 1))))) {
+            sampledIds.add(document.get("_id"));
+        }
+        return toIdRanges(sampledIds, count);
+    }
+
+    /**
+     * get the <code>_id</code> ranges for sorted sample ids.  A range filter only matches values of the same type
+     * as its bounds, so the first range matches everything below the first boundary, including the ids of any other
+     * type, and the samples must all have the same type to be split at all.
+     * @param sortedIds the sampled ids in <code>_id</code> order
+     * @param count the number of ranges wanted
+     * @return the <code>_id</code> filters of the ranges, in order
+     */
+    static List<Document> toIdRanges(final List<Object> sortedIds, final int count) {
+        List<Object> boundaries = new ArrayList<>();
+        for (int i = 1; i < count && !sortedIds.isEmpty(); i++) {
+            Object boundary = sortedIds.get(i * sortedIds.size() / count);
+            if (boundary == null || (!boundaries.isEmpty() && !boundary.getClass().equals(
+                    boundaries.get(0).getClass()))) {
+                return Collections.singletonList(new Document());
+            }
+            if (boundaries.isEmpty() || !boundary.equals(boundaries.get(boundaries.size() - 1))) {
+                boundaries.add(boundary);
+            }
+        }
+        if (boundaries.isEmpty()) {
+            return Collections.singletonList(new Document());
+        }
+        List<Document> ranges = new ArrayList<>(boundaries.size() + 1);
+        ranges.add(new Document("_id", new Document("$not", new Document("$gte", boundaries.get(0)))));
+        for (int i = 1; i < boundaries.size(); i++) {
+            ranges.add(new Document("_id", new Document("$gte", boundaries.get(i - 1))
+                    .append("$lt", boundaries.get(i))));
+        }
+        ranges.add(new Document("_id", new Document("$gte", boundaries.get(boundaries.size() - 1))));
+        return ranges;
+    }
+
+    private static Document and(final Document query, final Document range) {
+        if (range.isEmpty()) {
+            return query;
+        } else if (query == null || query.isEmpty()) {
+            return range;
+        }
+        return new Document("$and", Arrays.asList(query, range));
+    }
+
+    /**
+     * Write the parts to the output, in order.
+     * @param parts the files written by each range
+     * @param format the {@link ResultWriter.Format} of the output.  The parts of a json export are ndjson.
+     * @param outputStream the {@link OutputStream} to write to
+     * @throws IOException if there is an issue reading the parts or writing the output
+     */
+    static void merge(final List<File> parts, final ResultWriter.Format format,
+                      final OutputStream outputStream) throws IOException {
+        if (!ResultWriter.Format.JSON.equals(format)) {
+            for (File part : parts) {
+                Files.copy(part.toPath(), outputStream);
+            }
+            outputStream.flush();
+            return;
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charsets.UTF_8));
+        writer.write('[');
+        boolean first = true;
+        for (File part : parts) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(part),
+                    Charsets.UTF_8))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (!first) {
+                        writer.write(",\n");
+                    }
+                    writer.write(line);
+                    first = false;
+                }
+            }
+        }
+        writer.write("]\n");
+        writer.flush();
+    }
+}
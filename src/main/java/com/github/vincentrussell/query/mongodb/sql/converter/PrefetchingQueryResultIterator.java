@@ -0,0 +1,124 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * {@link QueryResultIterator} that reads the {@link MongoCursor} on a background thread, so that the next
+ * <code>getMore</code> is sent while the documents that were already fetched are being processed.  Up to
+ * <code>prefetchBatches</code> batches are buffered ahead of the consumer.  Closing the iterator stops the
+ * background thread and closes the cursor, so close it when you stop reading before the end.
+ * @param <T> the type of elements returned by this iterator
+ */
+public class PrefetchingQueryResultIterator<T> extends QueryResultIterator<T> {
+    private static final Object END = new Object();
+    private static final Object NULL = new Object();
+
+    private final BlockingQueue<Object> fetched;
+    private final Queue<Object> buffer = new ArrayDeque<>();
+    private final Thread fetcher;
+    private volatile boolean closed;
+    private volatile RuntimeException failure;
+
+    /**
+     * Default constructor.
+     * @param mongoIterable the wrapped {@link MongoIterable}
+     * @param prefetchBatches the number of batches to fetch ahead of the consumer
+     * @param batchSize the number of documents in a batch
+     */
+    public PrefetchingQueryResultIterator(final MongoIterable<T> mongoIterable, final int prefetchBatches,
+                                          final int batchSize) {
+        super(mongoIterable);
+        isTrue(prefetchBatches > 0, "prefetchBatches must be greater than 0");
+        isTrue(batchSize > 0, "batchSize must be greater than 0");
+        //one more for the end of the results
+        this.fetched = new ArrayBlockingQueue<>(prefetchBatches * batchSize + 1);
+        this.fetcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetch();
+            }
+        }, "query-result-prefetcher");
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    private void fetch() {
+        MongoCursor<T> mongoCursor = getMongoCursor();
+        try {
+            while (!closed && mongoCursor.hasNext()) {
+                T next = mongoCursor.next();
+                fetched.put(next != null ? next : NULL);
+            }
+        } catch (InterruptedException e) {
+            //closed while waiting for the consumer
+            return;
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            mongoCursor.close();
+        }
+        while (!closed) {
+            try {
+                fetched.put(END);
+                return;
+            } catch (InterruptedException e) {
+                //closed while waiting for the consumer
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * @return the next element if there was one. If {@code endOfData} was called during execution,
+     * the return value will be ignored.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T computeNext() {
+        //the fetcher doesn't add END once it has been stopped, so waiting for the next document would never return
+        if (closed) {
+            return endOfData();
+        }
+        if (buffer.isEmpty()) {
+            try {
+                buffer.add(fetched.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the next document", e);
+            }
+            fetched.drainTo(buffer);
+        }
+        Object next = buffer.poll();
+        if (next == END) {
+            if (failure != null) {
+                throw failure;
+            }
+            return endOfData();
+        }
+        return next != NULL ? (T) next : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        fetcher.interrupt();
+        fetched.clear();
+        try {
+            fetcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,101 +1,149 @@
 package com.github.vincentrussell.query.mongodb.sql.converter;
 
 import com.github.vincentrussell.query.mongodb.sql.converter.holder.AliasHolder;
-import com.github.vincentrussell.query.mongodb.sql.converter.holder.ExpressionHolder;
 import com.github.vincentrussell.query.mongodb.sql.converter.holder.from.FromHolder;
 import com.github.vincentrussell.query.mongodb.sql.converter.holder.from.SQLCommandInfoHolder;
+import com.github.vincentrussell.query.mongodb.sql.converter.plan.BsonEmitter;
+import com.github.vincentrussell.query.mongodb.sql.converter.plan.LogicalPlan;
+import com.github.vincentrussell.query.mongodb.sql.converter.plan.PlanStage;
 import com.github.vincentrussell.query.mongodb.sql.converter.processor.HavingClauseProcessor;
+import com.github.vincentrussell.query.mongodb.sql.converter.processor.IndexAwarePlanner;
 import com.github.vincentrussell.query.mongodb.sql.converter.processor.JoinProcessor;
+import com.github.vincentrussell.query.mongodb.sql.converter.processor.UpdateProcessor;
 import com.github.vincentrussell.query.mongodb.sql.converter.processor.WhereClauseProcessor;
+import com.github.vincentrussell.query.mongodb.sql.converter.processor.WhereClauseSplitter;
+import com.github.vincentrussell.query.mongodb.sql.converter.util.DocumentUtils;
+import com.github.vincentrussell.query.mongodb.sql.converter.util.PrettyPrintingWriter;
 import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
 import com.github.vincentrussell.query.mongodb.sql.converter.visitor.ExpVisitorEraseAliasTableBaseBuilder;
-import com.github.vincentrussell.query.mongodb.sql.converter.visitor.WhereVisitorMatchAndLookupPipelineMatchBuilder;
 import com.google.common.base.Charsets;
-import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.result.DeleteResult;
 import net.sf.jsqlparser.expression.Alias;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.NullValue;
 import net.sf.jsqlparser.parser.CCJSqlParser;
 import net.sf.jsqlparser.parser.StreamProvider;
+import net.sf.jsqlparser.parser.StringProvider;
 import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.select.Join;
 import net.sf.jsqlparser.statement.select.OrderByElement;
 import net.sf.jsqlparser.statement.select.SelectExpressionItem;
 import net.sf.jsqlparser.statement.select.SelectItem;
 import net.sf.jsqlparser.statement.select.SubSelect;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.mutable.MutableBoolean;
 import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
 import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
 import org.bson.json.JsonWriterSettings;
 
-import javax.annotation.Nonnull;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static org.apache.commons.lang.StringUtils.isEmpty;
+import static org.apache.commons.lang.Validate.isTrue;
 import static org.apache.commons.lang.Validate.notNull;
 
 /**
  * Main class responsible for query conversion.
  */
 public final class QueryConverter {
-    private final CCJSqlParser jSqlParser;
     private final Integer aggregationBatchSize;
     private final Boolean aggregationAllowDiskUse;
+    private final IndexCatalog indexCatalog;
+    private final LookupStyle lookupStyle;
+    private final boolean lookupProjection;
+    private final int prefetchBatches;
+    private final List<String> mergeOn;
+    private final String mergeWhenMatched;
+    private final String mergeWhenNotMatched;
+    private final boolean replaceTable;
+    private final int insertBatchSize;
+    private final boolean orderedInserts;
     private MongoDBQueryHolder mongoDBQueryHolder;
+    private final LogicalPlan logicalPlan;
 
     private final Map<String, FieldType> fieldNameToFieldTypeMapping;
     private final FieldType defaultFieldType;
     private SQLCommandInfoHolder sqlCommandInfoHolder;
+    private volatile CompiledQuery compiledQuery;
 
     private static final JsonWriterSettings RELAXED = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+    private static final List<String> MERGE_WHEN_MATCHED = Arrays.asList("replace", "keepExisting", "merge", "fail");
+    private static final List<String> MERGE_WHEN_NOT_MATCHED = Arrays.asList("insert", "discard", "fail");
+    private static final int DEFAULT_PREFETCH_BATCH_SIZE = 100;
+    private static final int DEFAULT_INSERT_BATCH_SIZE = 1000;
+    /**
+     * The number of batches of an unordered INSERT that are sent at the same time.
+     */
+    static final int INSERT_BATCHES_IN_FLIGHT = 4;
 
 
 
     /**
-     * Create a QueryConverter with an InputStream.
+     * Create a QueryConverter with a parser.
      *
-     * @param inputStream                 an input stream that has the sql statement in it
+     * @param jSqlParser                  a parser that is ready to read the sql statement
      * @param fieldNameToFieldTypeMapping mapping for each field
-     * @param defaultFieldType            the default {@link FieldType} to be used
-     * @param aggregationAllowDiskUse     set whether or not disk use is allowed during aggregation
-     * @param aggregationBatchSize        set the batch size for aggregation
+     * @param builder                     the {@link Builder} with the rest of the settings
      * @throws ParseException when the sql query cannot be parsed
      */
-    private QueryConverter(final InputStream inputStream, final Map<String, FieldType> fieldNameToFieldTypeMapping,
-                          final FieldType defaultFieldType, final Boolean aggregationAllowDiskUse,
-                          final Integer aggregationBatchSize) throws ParseException {
+    private QueryConverter(final CCJSqlParser jSqlParser, final Map<String, FieldType> fieldNameToFieldTypeMapping,
+                          final Builder builder) throws ParseException {
         try {
-            this.aggregationAllowDiskUse = aggregationAllowDiskUse;
-            this.aggregationBatchSize = aggregationBatchSize;
-            this.jSqlParser = new CCJSqlParser(new StreamProvider(inputStream, Charsets.UTF_8.name()));
+            final FieldType defaultFieldType = builder.defaultFieldType;
+            this.aggregationAllowDiskUse = builder.aggregationAllowDiskUse;
+            this.aggregationBatchSize = builder.aggregationBatchSize;
+            this.indexCatalog = builder.indexCatalog;
+            this.lookupStyle = builder.lookupStyle;
+            this.lookupProjection = builder.lookupProjection;
+            this.prefetchBatches = builder.prefetchBatches;
+            this.mergeOn = builder.mergeOn;
+            this.mergeWhenMatched = builder.mergeWhenMatched;
+            this.mergeWhenNotMatched = builder.mergeWhenNotMatched;
+            this.replaceTable = builder.replaceTable;
+            this.insertBatchSize = builder.insertBatchSize;
+            this.orderedInserts = builder.orderedInserts;
             this.defaultFieldType = defaultFieldType != null ? defaultFieldType : FieldType.UNKNOWN;
             this.sqlCommandInfoHolder = SQLCommandInfoHolder.Builder
                     .create(defaultFieldType, fieldNameToFieldTypeMapping)
-                    .setStatement(jSqlParser.Statement())
+                    .setStatement(jSqlParser.SingleStatement())
                     .build();
             this.fieldNameToFieldTypeMapping = fieldNameToFieldTypeMapping != null
                     ? fieldNameToFieldTypeMapping : Collections.<String, FieldType>emptyMap();
@@ -104,12 +152,11 @@ public final class QueryConverter {
             SqlUtils.isTrue(
                     isEmpty(nextToken.image) || ";".equals(nextToken.image),
                     "unable to parse complete sql string. one reason "
-                            + "for this is the use of double equals (==)");
+                            + "for this is the use of double equals (==).");
 
             this.mongoDBQueryHolder = getMongoQueryInternal(sqlCommandInfoHolder);
             validate();
-        } catch (IOException e) {
-            throw new ParseException(e);
+            this.logicalPlan = createLogicalPlan(mongoDBQueryHolder, sqlCommandInfoHolder);
         } catch (net.sf.jsqlparser.parser.ParseException e) {
             throw SqlUtils.convertParseException(e);
         }
@@ -142,6 +189,12 @@ public final class QueryConverter {
         SqlUtils.isFalse((selectItems.size() > 1
                 || SqlUtils.isSelectAll(selectItems))
                 && sqlCommandInfoHolder.isDistinct(), "cannot run distinct one more than one column");
+        SqlUtils.isFalse(sqlCommandInfoHolder.getIntoTable() != null && sqlCommandInfoHolder.isDistinct(),
+                "distinct is not supported when writing the results to a table, use group by instead");
+        SqlUtils.isFalse(sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.CREATE_TABLE
+                        && sqlCommandInfoHolder.getIntoTable().getSchemaName() != null && !replaceTable,
+                "CREATE TABLE ... AS SELECT can only check that the table doesn't exist in the database of the "
+                        + "query, set replaceTable to write to another database");
         SqlUtils.isFalse(sqlCommandInfoHolder.getGroupBys().size() == 0
                         && selectItems.size() != filteredItems.size() && !SqlUtils.isSelectAll(selectItems)
                         && !SqlUtils.isCountAll(selectItems)
@@ -159,6 +212,24 @@ public final class QueryConverter {
         return mongoDBQueryHolder;
     }
 
+    /**
+     * get the immutable plan of this query, which is what the aggregation pipeline returned by
+     * {@link #getQueryAsDocument()} is emitted from.  It is built once, when the sql is converted.
+     *
+     * @return the {@link LogicalPlan}
+     */
+    public LogicalPlan getLogicalPlan() {
+        return logicalPlan;
+    }
+
+    /**
+     * get the parsed sql statement.  Converting it doesn't change it.
+     * @return the {@link SQLCommandInfoHolder}
+     */
+    SQLCommandInfoHolder getSqlCommandInfoHolder() {
+        return sqlCommandInfoHolder;
+    }
+
     /**
      * Will convert the query into aggregation steps.
      * @param sqlCommandInfoHolder the {@link SQLCommandInfoHolder}
@@ -169,7 +240,7 @@ public final class QueryConverter {
     public List<Document> fromSQLCommandInfoHolderToAggregateSteps(final SQLCommandInfoHolder sqlCommandInfoHolder)
             throws ParseException, net.sf.jsqlparser.parser.ParseException {
         MongoDBQueryHolder mqueryHolder = getMongoQueryInternal(sqlCommandInfoHolder);
-        return generateAggSteps(mqueryHolder, sqlCommandInfoHolder);
+        return BsonEmitter.toPipeline(createLogicalPlan(mqueryHolder, sqlCommandInfoHolder));
     }
 
 
@@ -233,11 +304,18 @@ public final class QueryConverter {
 
         if (sqlCommandInfoHolder.getJoins() != null) {
             mongoDBQueryHolder.setRequiresMultistepAggregation(true);
+            Expression joinWhereClause = SqlUtils.cloneExpression(sqlCommandInfoHolder.getWhereClause());
+            if (indexCatalog != null) {
+                mongoDBQueryHolder.setJoinPreservesBaseDocuments(JoinProcessor.preservesBaseDocuments(
+                        sqlCommandInfoHolder.getFromHolder(), sqlCommandInfoHolder.getJoins(), joinWhereClause,
+                        indexCatalog));
+            }
             mongoDBQueryHolder.setJoinPipeline(
                     JoinProcessor.toPipelineSteps(this,
                             sqlCommandInfoHolder.getFromHolder(),
-                            sqlCommandInfoHolder.getJoins(), SqlUtils.cloneExpression(
-                                    sqlCommandInfoHolder.getWhereClause())));
+                            sqlCommandInfoHolder.getJoins(), joinWhereClause, lookupStyle,
+                            lookupProjection ? JoinProcessor.getLookupProjections(sqlCommandInfoHolder)
+                                    : Collections.<String, Document>emptyMap()));
         }
 
         if (sqlCommandInfoHolder.getOrderByElements() != null && sqlCommandInfoHolder.getOrderByElements().size() > 0) {
@@ -265,25 +343,64 @@ public final class QueryConverter {
                     sqlCommandInfoHolder.getHavingClause(), null));
         }
 
+        if (sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.UPDATE) {
+            mongoDBQueryHolder.setUpdate(new UpdateProcessor(defaultFieldType, fieldNameToFieldTypeMapping)
+                    .parseUpdateSets(sqlCommandInfoHolder.getUpdateSets()));
+        }
+
+        if (!sqlCommandInfoHolder.getInsertRows().isEmpty()) {
+            mongoDBQueryHolder.setDocuments(createDocumentsFromInsertRows(sqlCommandInfoHolder.getInsertRows()));
+        }
+
         mongoDBQueryHolder.setOffset(sqlCommandInfoHolder.getOffset());
         mongoDBQueryHolder.setLimit(sqlCommandInfoHolder.getLimit());
 
+        if (indexCatalog != null && mongoDBQueryHolder.getPrevSteps() == null) {
+            planWithIndexes(mongoDBQueryHolder, sqlCommandInfoHolder);
+        }
+
         return mongoDBQueryHolder;
     }
 
+    //Order the where clause predicates to line up with the indexes of the collection and, when an index can return
+    //the base documents already sorted, sort them before the joins instead of after
+    private void planWithIndexes(final MongoDBQueryHolder mongoDBQueryHolder,
+                                 final SQLCommandInfoHolder sqlCommandInfoHolder) {
+        IndexAwarePlanner indexAwarePlanner = new IndexAwarePlanner(
+                indexCatalog.getIndexes(mongoDBQueryHolder.getCollection()));
+        boolean grouped = !sqlCommandInfoHolder.getGroupBys().isEmpty() || sqlCommandInfoHolder.isTotalGroup();
+        Document sort = grouped || !isSortOnBaseTable(mongoDBQueryHolder.getSort(), sqlCommandInfoHolder)
+                ? new Document() : mongoDBQueryHolder.getSort();
+        mongoDBQueryHolder.setQuery(indexAwarePlanner.orderPredicates(mongoDBQueryHolder.getQuery(), sort));
+        if (sqlCommandInfoHolder.getJoins() != null && !sqlCommandInfoHolder.getJoins().isEmpty()) {
+            mongoDBQueryHolder.setSortBeforeJoin(indexAwarePlanner.supportsSort(mongoDBQueryHolder.getQuery(), sort));
+        }
+    }
+
+    private boolean isSortOnBaseTable(final Document sort, final SQLCommandInfoHolder sqlCommandInfoHolder) {
+        if (sqlCommandInfoHolder.getJoins() == null) {
+            return true;
+        }
+        for (Join join : sqlCommandInfoHolder.getJoins()) {
+            String joinTableAlias = join.getRightItem().getAlias().getName();
+            for (String field : sort.keySet()) {
+                if (field.equals(joinTableAlias) || field.startsWith(joinTableAlias + ".")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private Expression preprocessWhere(final Expression exp, final FromHolder tholder) {
         Expression returnValue = exp;
         if (sqlCommandInfoHolder.getJoins() != null && !sqlCommandInfoHolder.getJoins().isEmpty()) {
-            ExpressionHolder partialWhereExpHolder = new ExpressionHolder(null);
-            MutableBoolean haveOrExpression = new MutableBoolean(false);
-            returnValue.accept(new WhereVisitorMatchAndLookupPipelineMatchBuilder(tholder.getBaseAliasTable(),
-                    partialWhereExpHolder, haveOrExpression));
-            if (haveOrExpression.booleanValue()) {
-                //with or exp we can't use match first step
-                return null;
-            }
-            returnValue = partialWhereExpHolder.getExpression();
+            //only the conditions on the base table can be matched before the join
+            returnValue = new WhereClauseSplitter(exp, JoinProcessor.getTableAliases(tholder,
+                    sqlCommandInfoHolder.getJoins())).getExpression(tholder.getBaseAliasTable());
         }
+        //erase the alias from a copy, so the where clause of the sqlCommandInfoHolder is left as it was parsed
+        returnValue = SqlUtils.cloneExpression(returnValue);
         if (returnValue != null) {
             returnValue.accept(new ExpVisitorEraseAliasTableBaseBuilder(tholder.getBaseAliasTable()));
         }
@@ -291,17 +408,34 @@ public final class QueryConverter {
     }
 
     private List<OrderByElement> preprocessOrderBy(final List<OrderByElement> lord, final FromHolder tholder) {
+        List<OrderByElement> lordEraseAlias = new LinkedList<>();
         for (OrderByElement ord : lord) {
-            ord.getExpression().accept(new ExpVisitorEraseAliasTableBaseBuilder(tholder.getBaseAliasTable()));
+            OrderByElement ordEraseAlias = new OrderByElement();
+            ordEraseAlias.setExpression(SqlUtils.cloneExpression(ord.getExpression()));
+            ordEraseAlias.setAsc(ord.isAsc());
+            ordEraseAlias.setAscDescPresent(ord.isAscDescPresent());
+            ordEraseAlias.setNullOrdering(ord.getNullOrdering());
+            ordEraseAlias.getExpression().accept(new ExpVisitorEraseAliasTableBaseBuilder(
+                    tholder.getBaseAliasTable()));
+            lordEraseAlias.add(ordEraseAlias);
         }
-        return lord;
+        return lordEraseAlias;
     }
 
     private List<SelectItem> preprocessSelect(final List<SelectItem> lsel, final FromHolder tholder) {
+        List<SelectItem> lselEraseAlias = new LinkedList<>();
         for (SelectItem sel : lsel) {
-            sel.accept(new ExpVisitorEraseAliasTableBaseBuilder(tholder.getBaseAliasTable()));
+            if (sel instanceof SelectExpressionItem) {
+                SelectExpressionItem selEraseAlias = new SelectExpressionItem(
+                        SqlUtils.cloneExpression(((SelectExpressionItem) sel).getExpression()));
+                selEraseAlias.setAlias(((SelectExpressionItem) sel).getAlias());
+                selEraseAlias.accept(new ExpVisitorEraseAliasTableBaseBuilder(tholder.getBaseAliasTable()));
+                lselEraseAlias.add(selEraseAlias);
+            } else {
+                lselEraseAlias.add(sel);
+            }
         }
-        return lsel;
+        return lselEraseAlias;
     }
 
     private List<String> preprocessGroupBy(final List<String> lgroup, final FromHolder tholder) {
@@ -543,6 +677,21 @@ public final class QueryConverter {
         }
     }
 
+    private List<Document> createDocumentsFromInsertRows(final List<Map<String, Expression>> insertRows)
+            throws ParseException {
+        List<Document> documents = new ArrayList<>(insertRows.size());
+        for (Map<String, Expression> insertRow : insertRows) {
+            Document document = new Document();
+            for (Entry<String, Expression> entry : insertRow.entrySet()) {
+                document.put(entry.getKey(), NullValue.class.isInstance(entry.getValue()) ? null
+                        : SqlUtils.getNormalizedValue(entry.getValue(), SqlUtils.getFieldType(
+                                new Column(entry.getKey()), defaultFieldType, fieldNameToFieldTypeMapping), null));
+            }
+            documents.add(document);
+        }
+        return documents;
+    }
+
     private void createFunction(final String functionName, final String aggField,
                                 final Document document, final Object value) {
         document.put(aggField, new Document("$" + functionName, value));
@@ -556,37 +705,43 @@ public final class QueryConverter {
      * @throws IOException when there is an issue writing to the {@link java.io.OutputStream}
      */
     public void write(final OutputStream outputStream) throws IOException {
-        Document queryDocument = getQueryAsDocument();
+        write(getQueryAsDocument(), outputStream);
+    }
+
+    /**
+     * Build a mongo shell statement from a document in the format returned by {@link #getQueryAsDocument()}.
+     *
+     * @param queryDocument the query document
+     * @param outputStream the {@link java.io.OutputStream} to write the data to
+     * @throws IOException when there is an issue writing to the {@link java.io.OutputStream}
+     */
+    static void write(final Document queryDocument, final OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charset.defaultCharset()));
         String collectionName = queryDocument.getString("collection");
         boolean isAggregation = queryDocument.get("query") != null && List.class.isInstance(queryDocument.get("query"));
         boolean isFindQuery = false;
         if (queryDocument.get("distinct") != null) {
-            IOUtils.write("db." + collectionName + ".distinct(", outputStream);
-            IOUtils.write("\"" + queryDocument.get("distinct") + "\"", outputStream);
-            IOUtils.write(" , ", outputStream);
-            IOUtils.write(prettyPrintJson(((Document) queryDocument.get("query")).toJson(RELAXED)), outputStream);
+            writer.write("db." + collectionName + ".distinct(");
+            writer.write("\"" + queryDocument.get("distinct") + "\"");
+            writer.write(" , ");
+            prettyPrintJson((Document) queryDocument.get("query"), writer);
         } else if (Boolean.TRUE.equals(queryDocument.getBoolean("countAll")) && !isAggregation) {
-            IOUtils.write("db." + collectionName + ".count(", outputStream);
-            IOUtils.write(prettyPrintJson(((Document) queryDocument.get("query")).toJson(RELAXED)), outputStream);
+            writer.write("db." + collectionName + ".count(");
+            prettyPrintJson((Document) queryDocument.get("query"), writer);
+        } else if (queryDocument.get("documents") != null) {
+            writer.write("db." + collectionName + ".insertMany(");
+            writeArray(queryDocument.getList("documents", Document.class), writer);
+            writer.write(" , ");
+            prettyPrintJson((Document) queryDocument.get("options"), writer);
         } else {
             if (isAggregation) {
-                IOUtils.write("db." + collectionName + ".aggregate(", outputStream);
-                IOUtils.write("[", outputStream);
-
-                IOUtils.write(Joiner.on(",").join(Lists.transform(
-                        queryDocument.getList("query", Document.class),
-                        new com.google.common.base.Function<Document, String>() {
-                            @Override
-                            public String apply(@Nonnull final Document document) {
-                                return prettyPrintJson(document.toJson(RELAXED));
-                            }
-                        })), outputStream);
-                IOUtils.write("]", outputStream);
+                writer.write("db." + collectionName + ".aggregate(");
+                writeArray(queryDocument.getList("query", Document.class), writer);
 
                 Document options = (Document) queryDocument.get("options");
                 if (options != null && options.size() > 0) {
-                    IOUtils.write(",", outputStream);
-                    IOUtils.write(prettyPrintJson(options.toJson(RELAXED)), outputStream);
+                    writer.write(",");
+                    prettyPrintJson(options, writer);
                 }
 
 
@@ -595,39 +750,49 @@ public final class QueryConverter {
                         firstNonNull(queryDocument.get("commandType"), SQLCommandType.SELECT.name()).toString());
                 if (SQLCommandType.SELECT.equals(sqlCommandType)) {
                     isFindQuery = true;
-                    IOUtils.write("db." + collectionName + ".find(", outputStream);
+                    writer.write("db." + collectionName + ".find(");
                 } else if (SQLCommandType.DELETE.equals(sqlCommandType)) {
-                    IOUtils.write("db." + collectionName + ".remove(", outputStream);
+                    writer.write("db." + collectionName + ".remove(");
+                } else if (SQLCommandType.UPDATE.equals(sqlCommandType)) {
+                    writer.write("db." + collectionName + ".updateMany(");
+                }
+                prettyPrintJson((Document) queryDocument.get("query"), writer);
+                if (queryDocument.get("update") != null) {
+                    writer.write(" , ");
+                    if (List.class.isInstance(queryDocument.get("update"))) {
+                        writeArray(queryDocument.getList("update", Document.class), writer);
+                    } else {
+                        prettyPrintJson((Document) queryDocument.get("update"), writer);
+                    }
                 }
-                IOUtils.write(prettyPrintJson(((Document) queryDocument.get("query")).toJson(RELAXED)), outputStream);
                 if (queryDocument.get("projection") != null) {
-                    IOUtils.write(" , ", outputStream);
-                    IOUtils.write(prettyPrintJson(((Document) queryDocument.get("projection")).toJson(RELAXED)),
-                            outputStream);
+                    writer.write(" , ");
+                    prettyPrintJson((Document) queryDocument.get("projection"), writer);
                 }
             }
         }
-        IOUtils.write(")", outputStream);
+        writer.write(")");
 
         if (isFindQuery) {
             if (queryDocument.get("sort") != null) {
-                IOUtils.write(".sort(", outputStream);
-                IOUtils.write(prettyPrintJson(((Document) queryDocument.get("sort")).toJson(RELAXED)), outputStream);
-                IOUtils.write(")", outputStream);
+                writer.write(".sort(");
+                prettyPrintJson((Document) queryDocument.get("sort"), writer);
+                writer.write(")");
             }
 
             if (queryDocument.get("skip") != null) {
-                IOUtils.write(".skip(", outputStream);
-                IOUtils.write(queryDocument.get("skip") + "", outputStream);
-                IOUtils.write(")", outputStream);
+                writer.write(".skip(");
+                writer.write(queryDocument.get("skip") + "");
+                writer.write(")");
             }
 
             if (queryDocument.get("limit") != null) {
-                IOUtils.write(".limit(", outputStream);
-                IOUtils.write(queryDocument.get("limit") + "", outputStream);
-                IOUtils.write(")", outputStream);
+                writer.write(".limit(");
+                writer.write(queryDocument.get("limit") + "");
+                writer.write(")");
             }
         }
+        writer.flush();
     }
 
 
@@ -638,11 +803,15 @@ public final class QueryConverter {
      *     {
      *   "collection": "the collection the query is running on",
      *   "query": "the query (Document) for aggregation (List) needed to run this query",
-     *   "commandType": "SELECT or DELETE",
+     *   "commandType": "SELECT, DELETE, UPDATE, INSERT, or CREATE_TABLE for an aggregation that writes to a table",
      *   "countAll": "true if this is a count all Query",
      *   "distinct": "the field to do a distnct query on",
      *   "options": "A Document with the options for this aggregation",
-     *   "projection": "The projection to use for this query"
+     *   "projection": "The projection to use for this query",
+     *   "update": "the update (Document) or update pipeline (List) of an update query",
+     *   "documents": "the documents of an INSERT ... VALUES, with the insertMany options in options",
+     *   "batchSize": "the number of documents sent in each insertMany",
+     *   "replaceTable": "false if a CREATE_TABLE must fail when the table exists, true to replace it"
      * }
      * </pre>
      *
@@ -690,9 +859,14 @@ public final class QueryConverter {
             retValDocument.put("collection", collectionName);
             retValDocument.put("query", mongoDBQueryHolder.getQuery());
         } else if (isAggregate(mongoDBQueryHolder)) {
+            if (sqlCommandInfoHolder.getIntoTable() != null) {
+                retValDocument.put("commandType", sqlCommandInfoHolder.getSqlCommandType().name());
+            }
+            if (sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.CREATE_TABLE) {
+                retValDocument.put("replaceTable", replaceTable);
+            }
             retValDocument.put("collection", collectionName);
-            List<Document> aggregationDocuments = generateAggSteps(mongoDBQueryHolder, sqlCommandInfoHolder);
-            retValDocument.put("query", aggregationDocuments);
+            retValDocument.put("query", BsonEmitter.toPipeline(logicalPlan));
 
             Document options = new Document();
             if (aggregationAllowDiskUse != null) {
@@ -708,15 +882,25 @@ public final class QueryConverter {
             }
 
 
+        } else if (mongoDBQueryHolder.getDocuments() != null) {
+            retValDocument.put("commandType", sqlCommandInfoHolder.getSqlCommandType().name());
+            retValDocument.put("collection", collectionName);
+            retValDocument.put("documents", mongoDBQueryHolder.getDocuments());
+            retValDocument.put("options", new Document("ordered", orderedInserts));
+            retValDocument.put("batchSize", insertBatchSize);
         } else {
             retValDocument.put("commandType", sqlCommandInfoHolder.getSqlCommandType().name());
             if (sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.SELECT) {
                 isFindQuery = true;
                 retValDocument.put("collection", collectionName);
-            } else if (sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.DELETE) {
+            } else if (sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.DELETE
+                    || sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.UPDATE) {
                 retValDocument.put("collection", collectionName);
             }
             retValDocument.put("query", mongoDBQueryHolder.getQuery());
+            if (mongoDBQueryHolder.getUpdate() != null) {
+                retValDocument.put("update", mongoDBQueryHolder.getUpdate());
+            }
             if (mongoDBQueryHolder.getProjection() != null && mongoDBQueryHolder.getProjection().size() > 0
                     && sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.SELECT) {
                 retValDocument.put("projection", mongoDBQueryHolder.getProjection());
@@ -746,7 +930,8 @@ public final class QueryConverter {
                 || sqlCommandInfoHolder.getGroupBys().size() > 0
                 || (sqlCommandInfoHolder.getJoins() != null && sqlCommandInfoHolder.getJoins().size() > 0)
                 || (mongoDBQueryHolder.getPrevSteps() != null && !mongoDBQueryHolder.getPrevSteps().isEmpty())
-                || (sqlCommandInfoHolder.isTotalGroup() && !SqlUtils.isCountAll(sqlCommandInfoHolder.getSelectItems()));
+                || (sqlCommandInfoHolder.isTotalGroup() && !SqlUtils.isCountAll(sqlCommandInfoHolder.getSelectItems()))
+                || sqlCommandInfoHolder.getIntoTable() != null;
     }
 
     private String getDistinctFieldName(final MongoDBQueryHolder mongoDBQueryHolder) {
@@ -759,77 +944,268 @@ public final class QueryConverter {
      * @return When query does a find will return QueryResultIterator&lt;{@link org.bson.Document}&gt;
      * When query does a count will return a Long
      * When query does a distinct will return QueryResultIterator&lt;{@link java.lang.String}&gt;
+     * When query is an INSERT ... SELECT or a CREATE TABLE ... AS SELECT will return null once the results
+     * have been written to the table on the server
+     * When query does an update will return an {@link com.mongodb.client.result.UpdateResult} with the matched
+     * and modified counts
+     * When query is an INSERT ... VALUES will return a Long with the number of documents inserted
      * @throws ParseException when the sql query cannot be parsed
      */
     @SuppressWarnings("unchecked")
     public <T> T run(final MongoDatabase mongoDatabase) throws ParseException {
-        MongoDBQueryHolder mongoDBQueryHolder = getMongoQuery();
+        return compile().run(mongoDatabase);
+    }
 
-        MongoCollection mongoCollection = mongoDatabase.getCollection(mongoDBQueryHolder.getCollection());
+    /**
+     * Run the query with the reactive streams driver (mongodb-driver-reactivestreams, which is an optional
+     * dependency).  Find, aggregate and distinct queries are not sent to the database until the publisher is
+     * subscribed to, and results are only fetched as fast as the subscriber requests them.
+     * @param mongoDatabase the database to run the query against.
+     * @param <T>           variable based on the type of query run.
+     * @return When query does a find or aggregation will return Publisher&lt;{@link org.bson.Document}&gt;
+     * When query does a count or delete will return a CompletionStage&lt;{@link java.lang.Long}&gt;
+     * When query does a distinct will return Publisher&lt;{@link java.lang.String}&gt;
+     * When query is an INSERT ... SELECT or a CREATE TABLE ... AS SELECT will return a
+     * CompletionStage&lt;{@link java.lang.Void}&gt; that completes once the results have been written
+     * When query does an update will return a
+     * CompletionStage&lt;{@link com.mongodb.client.result.UpdateResult}&gt;
+     * When query is an INSERT ... VALUES will return a CompletionStage&lt;{@link java.lang.Long}&gt; with the
+     * number of documents inserted
+     */
+    public <T> T runAsync(final com.mongodb.reactivestreams.client.MongoDatabase mongoDatabase) {
+        return compile().runAsync(mongoDatabase);
+    }
 
-        if (SQLCommandType.SELECT.equals(mongoDBQueryHolder.getSqlCommandType())) {
+    /**
+     * get an immutable copy of this query that can be cached, bound and run from multiple threads.  The result
+     * is created on the first call and reused after that.
+     * @return the {@link CompiledQuery}
+     */
+    public CompiledQuery compile() {
+        CompiledQuery result = compiledQuery;
+        if (result == null) {
+            result = new CompiledQuery(DocumentUtils.deepCopy(getQueryAsDocument()), prefetchBatches);
+            compiledQuery = result;
+        }
+        return result;
+    }
 
-            if (mongoDBQueryHolder.isDistinct()) {
-                return (T) new QueryResultIterator<>(mongoCollection.distinct(
-                        getDistinctFieldName(mongoDBQueryHolder), mongoDBQueryHolder.getQuery(), String.class));
-            } else if (sqlCommandInfoHolder.isCountAll() && !isAggregate(mongoDBQueryHolder)) {
-                return (T) Long.valueOf(mongoCollection.count(mongoDBQueryHolder.getQuery()));
-            } else if (isAggregate(mongoDBQueryHolder)) {
+    /**
+     * Fill in the positional parameters (<code>?</code>) of this query without converting the sql again.
+     * @param values the values in the order the parameters appear in the sql
+     * @return the bound query
+     * @throws ParseException if a parameter has no value or the value can not be converted
+     * @see CompiledQuery#bind(Object...)
+     */
+    public CompiledQuery bind(final Object... values) throws ParseException {
+        return compile().bind(values);
+    }
 
-                AggregateIterable aggregate = mongoCollection.aggregate(
-                        generateAggSteps(mongoDBQueryHolder, sqlCommandInfoHolder));
+    /**
+     * Fill in the named parameters (<code>:name</code>) of this query without converting the sql again.
+     * @param values the values keyed by parameter name
+     * @return the bound query
+     * @throws ParseException if a parameter has no value or the value can not be converted
+     * @see CompiledQuery#bind(Map)
+     */
+    public CompiledQuery bind(final Map<String, ?> values) throws ParseException {
+        return compile().bind(values);
+    }
 
-                if (aggregationAllowDiskUse != null) {
-                    aggregate.allowDiskUse(aggregationAllowDiskUse);
-                }
+    /**
+     * Run a document in the format returned by {@link #getQueryAsDocument()} against a database.
+     * @param queryDocument the query document
+     * @param mongoDatabase the database to run the query against.
+     * @param prefetchBatches the number of batches to fetch ahead on a background thread, or 0 to not prefetch
+     * @param <T>           variable based on the type of query run.
+     * @return see {@link #run(MongoDatabase)}
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T run(final Document queryDocument, final MongoDatabase mongoDatabase, final int prefetchBatches) {
+        MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(
+                queryDocument.getString("collection"));
+        if (List.class.isInstance(queryDocument.get("query"))) {
+            AggregateIterable<Document> aggregate = mongoCollection.aggregate(
+                    queryDocument.getList("query", Document.class));
+
+            Document options = (Document) queryDocument.get("options");
+            if (options != null && options.getBoolean("allowDiskUse") != null) {
+                aggregate.allowDiskUse(options.getBoolean("allowDiskUse"));
+            }
 
-                if (aggregationBatchSize != null) {
-                    aggregate.batchSize(aggregationBatchSize);
+            if (queryDocument.get("commandType") != null) {
+                String tableToCreate = getTableToCreate(queryDocument);
+                if (tableToCreate != null && mongoDatabase.listCollectionNames().into(new ArrayList<String>())
+                        .contains(tableToCreate)) {
+                    throw new IllegalStateException(tableExists(tableToCreate));
                 }
+                //the results are written by the $merge or $out stage, reading the cursor would read the table back
+                aggregate.toCollection();
+                return null;
+            }
 
-                return (T) new QueryResultIterator<>(aggregate);
-            } else {
-                FindIterable findIterable = mongoCollection.find(mongoDBQueryHolder.getQuery())
-                        .projection(mongoDBQueryHolder.getProjection());
-                if (mongoDBQueryHolder.getSort() != null && mongoDBQueryHolder.getSort().size() > 0) {
-                    findIterable.sort(mongoDBQueryHolder.getSort());
-                }
-                if (mongoDBQueryHolder.getOffset() != -1) {
-                    findIterable.skip((int) mongoDBQueryHolder.getOffset());
-                }
-                if (mongoDBQueryHolder.getLimit() != -1) {
-                    findIterable.limit((int) mongoDBQueryHolder.getLimit());
-                }
+            int batchSize = DEFAULT_PREFETCH_BATCH_SIZE;
+            if (options != null && options.get("cursor") != null) {
+                batchSize = ((Document) options.get("cursor")).getInteger("batchSize");
+                aggregate.batchSize(batchSize);
+            }
+
+            return (T) toQueryResultIterator(aggregate, prefetchBatches, batchSize);
+        }
+
+        Document query = (Document) queryDocument.get("query");
+        if (queryDocument.get("distinct") != null) {
+            return (T) toQueryResultIterator(mongoCollection.distinct(
+                    queryDocument.getString("distinct"), query, String.class), prefetchBatches,
+                    DEFAULT_PREFETCH_BATCH_SIZE);
+        } else if (Boolean.TRUE.equals(queryDocument.getBoolean("countAll"))) {
+            return (T) Long.valueOf(mongoCollection.count(query));
+        }
 
-                return (T) new QueryResultIterator<>(findIterable);
+        SQLCommandType sqlCommandType = SQLCommandType.valueOf(
+                firstNonNull(queryDocument.get("commandType"), SQLCommandType.SELECT.name()).toString());
+        if (SQLCommandType.SELECT.equals(sqlCommandType)) {
+            FindIterable<Document> findIterable = mongoCollection.find(query)
+                    .projection((Document) queryDocument.get("projection"));
+            if (queryDocument.get("sort") != null) {
+                findIterable.sort((Document) queryDocument.get("sort"));
+            }
+            if (queryDocument.get("skip") != null) {
+                findIterable.skip(((Number) queryDocument.get("skip")).intValue());
+            }
+            if (queryDocument.get("limit") != null) {
+                findIterable.limit(((Number) queryDocument.get("limit")).intValue());
             }
-        } else if (SQLCommandType.DELETE.equals(mongoDBQueryHolder.getSqlCommandType())) {
-            DeleteResult deleteResult = mongoCollection.deleteMany(mongoDBQueryHolder.getQuery());
+
+            return (T) toQueryResultIterator(findIterable, prefetchBatches, DEFAULT_PREFETCH_BATCH_SIZE);
+        } else if (SQLCommandType.DELETE.equals(sqlCommandType)) {
+            DeleteResult deleteResult = mongoCollection.deleteMany(query);
             return (T) ((Long) deleteResult.getDeletedCount());
+        } else if (SQLCommandType.UPDATE.equals(sqlCommandType)) {
+            if (List.class.isInstance(queryDocument.get("update"))) {
+                return (T) mongoCollection.updateMany(query, queryDocument.getList("update", Document.class));
+            }
+            return (T) mongoCollection.updateMany(query, (Document) queryDocument.get("update"));
+        } else if (SQLCommandType.INSERT.equals(sqlCommandType)) {
+            return (T) insertMany(mongoCollection, queryDocument);
         } else {
             throw new UnsupportedOperationException("SQL command type not supported");
         }
     }
 
-    //Set up start pipeline, from other steps, subqueries, ...
-    private List<Document> setUpStartPipeline(final MongoDBQueryHolder mongoDBQueryHolder) {
-        List<Document> documents = mongoDBQueryHolder.getPrevSteps();
-        if (documents == null || documents.isEmpty()) {
-            documents = new LinkedList<Document>();
+    /**
+     * get the table of a CREATE TABLE ... AS SELECT that must not exist yet.  <code>$out</code> replaces the
+     * collection it writes to, but sql fails when the table already exists, so it is checked before the aggregation
+     * runs unless the table may be replaced.
+     * @param queryDocument the query document
+     * @return the name of the table, or null if it doesn't have to be checked
+     */
+    static String getTableToCreate(final Document queryDocument) {
+        if (!SQLCommandType.CREATE_TABLE.name().equals(queryDocument.get("commandType"))
+                || Boolean.TRUE.equals(queryDocument.getBoolean("replaceTable"))) {
+            return null;
         }
-        return documents;
+        List<Document> steps = queryDocument.getList("query", Document.class);
+        return (String) steps.get(steps.size() - 1).get("$out");
+    }
+
+    /**
+     * get the error for a CREATE TABLE ... AS SELECT into a table that exists.
+     * @param table the table
+     * @return the message
+     */
+    static String tableExists(final String table) {
+        return "table " + table + " already exists, set replaceTable to replace it";
+    }
+
+    //unordered batches don't depend on each other, so up to INSERT_BATCHES_IN_FLIGHT are kept in flight on a shared
+    //pool instead of waiting for a round trip per batch.  Ordered batches are sent one after the other and stop at
+    //the first error.
+    private static Long insertMany(final MongoCollection<Document> mongoCollection, final Document queryDocument) {
+        //the driver adds an _id to the documents it inserts, which must not change the query
+        final List<Document> documents = DocumentUtils.deepCopy(queryDocument).getList("documents", Document.class);
+        final boolean ordered = ((Document) queryDocument.get("options")).getBoolean("ordered");
+        final InsertManyOptions insertManyOptions = new InsertManyOptions().ordered(ordered);
+        List<List<Document>> batches = Lists.partition(documents,
+                queryDocument.getInteger("batchSize", DEFAULT_INSERT_BATCH_SIZE));
+        if (ordered || batches.size() == 1) {
+            for (List<Document> batch : batches) {
+                mongoCollection.insertMany(batch, insertManyOptions);
+            }
+            return (long) documents.size();
+        }
+        List<Future<?>> futures = new ArrayList<>(batches.size());
+        for (final List<Document> batch : batches) {
+            futures.add(InsertExecutorHolder.EXECUTOR_SERVICE.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mongoCollection.insertMany(batch, insertManyOptions);
+                }
+            }));
+        }
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                            : new IllegalStateException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                for (Future<?> remaining : futures) {
+                    remaining.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the inserts", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return (long) documents.size();
     }
 
-    private List<Document> generateAggSteps(final MongoDBQueryHolder mongoDBQueryHolder,
-                                           final SQLCommandInfoHolder sqlCommandInfoHolder) {
+    //the pool for the batches of unordered inserts, shared by all the inserts so that no threads are created per
+    //statement.  It is created the first time it is used and its daemon threads don't keep the jvm running.
+    private static final class InsertExecutorHolder {
+        private static final ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(
+                INSERT_BATCHES_IN_FLIGHT, new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("sql-to-mongo-insert-%d").build());
 
-        List<Document> documents = setUpStartPipeline(mongoDBQueryHolder);
+        private InsertExecutorHolder() {
+
+        }
+    }
+
+    private static <T> QueryResultIterator<T> toQueryResultIterator(final MongoIterable<T> mongoIterable,
+                                                                    final int prefetchBatches, final int batchSize) {
+        return prefetchBatches > 0 ? new PrefetchingQueryResultIterator<>(mongoIterable, prefetchBatches, batchSize)
+                : new QueryResultIterator<>(mongoIterable);
+    }
+
+    //Build the plan once the query has been converted, from other steps (subqueries, ...) to the projection
+    private LogicalPlan createLogicalPlan(final MongoDBQueryHolder mongoDBQueryHolder,
+                                          final SQLCommandInfoHolder sqlCommandInfoHolder) {
+        LogicalPlan.Builder plan = new LogicalPlan.Builder(mongoDBQueryHolder.getCollection());
+        if (mongoDBQueryHolder.getPrevSteps() != null) {
+            plan.addAll(mongoDBQueryHolder.getPrevSteps());
+        }
 
         if (mongoDBQueryHolder.getQuery() != null && mongoDBQueryHolder.getQuery().size() > 0) {
-            documents.add(new Document("$match", mongoDBQueryHolder.getQuery()));
+            plan.add(PlanStage.Kind.FILTER, mongoDBQueryHolder.getQuery());
+        }
+        boolean limitBeforeJoin = isLimitBeforeJoin(mongoDBQueryHolder, sqlCommandInfoHolder);
+        boolean sortBeforeJoin = (limitBeforeJoin || mongoDBQueryHolder.isSortBeforeJoin())
+                && mongoDBQueryHolder.getSort() != null && mongoDBQueryHolder.getSort().size() > 0;
+        if (sortBeforeJoin) {
+            plan.add(PlanStage.Kind.SORT, mongoDBQueryHolder.getSort());
+        }
+        if (limitBeforeJoin) {
+            addSkipAndLimit(plan, mongoDBQueryHolder);
         }
         if (sqlCommandInfoHolder.getJoins() != null && !sqlCommandInfoHolder.getJoins().isEmpty()) {
-            documents.addAll(mongoDBQueryHolder.getJoinPipeline());
+            plan.addAll(mongoDBQueryHolder.getJoinPipeline());
         }
         if (!sqlCommandInfoHolder.getGroupBys().isEmpty() || sqlCommandInfoHolder.isTotalGroup()) {
             if (mongoDBQueryHolder.getProjection().get("_id") == null) {
@@ -841,61 +1217,103 @@ public final class QueryConverter {
                         dgroup.put(keyValue.getKey(), keyValue.getValue());
                     }
                 }
-                documents.add(new Document("$group", dgroup));
+                plan.add(PlanStage.Kind.GROUP, dgroup);
             } else {
-                documents.add(new Document("$group", mongoDBQueryHolder.getProjection()));
+                plan.add(PlanStage.Kind.GROUP, mongoDBQueryHolder.getProjection());
             }
 
         }
         if (mongoDBQueryHolder.getHaving() != null && mongoDBQueryHolder.getHaving().size() > 0) {
-            documents.add(new Document("$match", mongoDBQueryHolder.getHaving()));
+            plan.add(PlanStage.Kind.FILTER, mongoDBQueryHolder.getHaving());
         }
-        if (mongoDBQueryHolder.getSort() != null && mongoDBQueryHolder.getSort().size() > 0) {
-            documents.add(new Document("$sort", mongoDBQueryHolder.getSort()));
+        if (!sortBeforeJoin && mongoDBQueryHolder.getSort() != null && mongoDBQueryHolder.getSort().size() > 0) {
+            plan.add(PlanStage.Kind.SORT, mongoDBQueryHolder.getSort());
         }
-        if (mongoDBQueryHolder.getOffset() != -1) {
-            documents.add(new Document("$skip", mongoDBQueryHolder.getOffset()));
-        }
-        if (mongoDBQueryHolder.getLimit() != -1) {
-            documents.add(new Document("$limit", mongoDBQueryHolder.getLimit()));
+        if (!limitBeforeJoin) {
+            addSkipAndLimit(plan, mongoDBQueryHolder);
         }
 
         Document aliasProjection = mongoDBQueryHolder.getAliasProjection();
         if (!aliasProjection.isEmpty()) {
             //Alias Group by
-            documents.add(new Document("$project", aliasProjection));
+            plan.add(PlanStage.Kind.PROJECT, aliasProjection);
         }
 
         if (sqlCommandInfoHolder.getGroupBys().isEmpty() && !sqlCommandInfoHolder.isTotalGroup()
                 && !mongoDBQueryHolder.getProjection().isEmpty()) {
             //Alias no group
-            Document projection = mongoDBQueryHolder.getProjection();
-            documents.add(new Document("$project", projection));
+            plan.add(PlanStage.Kind.PROJECT, mongoDBQueryHolder.getProjection());
         }
 
-        return documents;
+        if (sqlCommandInfoHolder.getIntoTable() != null) {
+            addWriteStage(plan, sqlCommandInfoHolder);
+        }
+
+        return plan.build();
     }
 
-    private static String toJson(final List<Document> documents) throws IOException {
-        StringWriter stringWriter = new StringWriter();
-        IOUtils.write("[", stringWriter);
-        IOUtils.write(Joiner.on(",").join(Lists.transform(documents,
-                new com.google.common.base.Function<Document, String>() {
-                    @Override
-                    public String apply(@Nonnull final Document document) {
-                        return document.toJson(RELAXED);
-                    }
-                })), stringWriter);
-        IOUtils.write("]", stringWriter);
-        return stringWriter.toString();
+    //INSERT ... SELECT merges the results into the table and CREATE TABLE ... AS SELECT writes them to a new table,
+    //so the results never leave the server.  Like sql, an insert fails on a row that is already in the table (the
+    //select keeps the _id of its documents unless it groups or lists the columns) instead of merging into it.
+    //$out into another database ({db, coll}) needs MongoDB 4.4
+    private void addWriteStage(final LogicalPlan.Builder plan, final SQLCommandInfoHolder sqlCommandInfoHolder) {
+        Table intoTable = sqlCommandInfoHolder.getIntoTable();
+        Object target = intoTable.getSchemaName() != null
+                ? new Document("db", intoTable.getSchemaName()).append("coll", intoTable.getName())
+                : intoTable.getName();
+        if (sqlCommandInfoHolder.getSqlCommandType() == SQLCommandType.CREATE_TABLE) {
+            plan.add(PlanStage.Kind.OUT, target);
+            return;
+        }
+        Document merge = new Document("into", target);
+        if (mergeOn != null) {
+            merge.put("on", mergeOn.size() == 1 ? mergeOn.get(0) : mergeOn);
+        }
+        merge.put("whenMatched", mergeWhenMatched != null ? mergeWhenMatched : "fail");
+        if (mergeWhenNotMatched != null) {
+            merge.put("whenNotMatched", mergeWhenNotMatched);
+        }
+        plan.add(PlanStage.Kind.MERGE, merge);
     }
 
+    private static void addSkipAndLimit(final LogicalPlan.Builder plan, final MongoDBQueryHolder mongoDBQueryHolder) {
+        if (mongoDBQueryHolder.getOffset() != -1) {
+            plan.add(PlanStage.Kind.SKIP, mongoDBQueryHolder.getOffset());
+        }
+        if (mongoDBQueryHolder.getLimit() != -1) {
+            plan.add(PlanStage.Kind.LIMIT, mongoDBQueryHolder.getLimit());
+        }
+    }
 
-    private static String prettyPrintJson(final String json) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        JsonParser jp = new JsonParser();
-        JsonElement je = jp.parse(json);
-        return gson.toJson(je);
+    //when the joins keep every base document exactly once, sorting and limiting the base documents first gives the
+    //same result and only the documents that are returned have to be joined
+    private boolean isLimitBeforeJoin(final MongoDBQueryHolder mongoDBQueryHolder,
+                                      final SQLCommandInfoHolder sqlCommandInfoHolder) {
+        boolean grouped = !sqlCommandInfoHolder.getGroupBys().isEmpty() || sqlCommandInfoHolder.isTotalGroup();
+        boolean hasHaving = mongoDBQueryHolder.getHaving() != null && mongoDBQueryHolder.getHaving().size() > 0;
+        boolean hasSkipOrLimit = mongoDBQueryHolder.getOffset() != -1 || mongoDBQueryHolder.getLimit() != -1;
+        Document sort = mongoDBQueryHolder.getSort() != null ? mongoDBQueryHolder.getSort() : new Document();
+        return mongoDBQueryHolder.isJoinPreservesBaseDocuments() && !grouped && !hasHaving && hasSkipOrLimit
+                && isSortOnBaseTable(sort, sqlCommandInfoHolder);
+    }
+
+    private static void writeArray(final List<Document> documents, final Writer writer) throws IOException {
+        writer.write("[");
+
+        boolean first = true;
+        for (Document document : documents) {
+            if (!first) {
+                writer.write(",");
+            }
+            prettyPrintJson(document, writer);
+            first = false;
+        }
+        writer.write("]");
+    }
+
+    private static void prettyPrintJson(final Document document, final Writer writer) {
+        DOCUMENT_CODEC.encode(new JsonWriter(new PrettyPrintingWriter(writer), RELAXED), document,
+                EncoderContext.builder().isEncodingCollectibleDocument(true).build());
     }
 
     /**
@@ -906,8 +1324,19 @@ public final class QueryConverter {
         private Boolean aggregationAllowDiskUse = null;
         private Integer aggregationBatchSize = null;
         private InputStream inputStream;
+        private String sql;
         private Map<String, FieldType> fieldNameToFieldTypeMapping = new HashMap<>();
         private FieldType defaultFieldType = FieldType.UNKNOWN;
+        private IndexCatalog indexCatalog;
+        private LookupStyle lookupStyle = LookupStyle.PIPELINE;
+        private Boolean lookupProjection = false;
+        private Integer prefetchBatches = 0;
+        private List<String> mergeOn;
+        private String mergeWhenMatched;
+        private String mergeWhenNotMatched;
+        private Boolean replaceTable = false;
+        private Integer insertBatchSize = DEFAULT_INSERT_BATCH_SIZE;
+        private Boolean orderedInserts = false;
 
         /**
          * set the inputstream that contains the sql string.
@@ -917,6 +1346,7 @@ public final class QueryConverter {
         public Builder sqlInputStream(final InputStream inputStream) {
             notNull(inputStream);
             this.inputStream = inputStream;
+            this.sql = null;
             return this;
         }
 
@@ -927,7 +1357,8 @@ public final class QueryConverter {
          */
         public Builder sqlString(final String sql) {
             notNull(sql);
-            this.inputStream = new ByteArrayInputStream(sql.getBytes(Charsets.UTF_8));
+            this.sql = sql;
+            this.inputStream = null;
             return this;
         }
 
@@ -975,14 +1406,261 @@ public final class QueryConverter {
             return this;
         }
 
+        /**
+         * set the {@link IndexCatalog} used to order the where clause predicates so that they line up with the
+         * indexes of the collection and, for joins, to sort before the lookups when an index can provide the order.
+         * @param indexCatalog the {@link IndexCatalog}
+         * @return the builder
+         */
+        public Builder indexCatalog(final IndexCatalog indexCatalog) {
+            notNull(indexCatalog);
+            this.indexCatalog = indexCatalog;
+            return this;
+        }
+
+        /**
+         * set the {@link LookupStyle} used for joins whose on clause is a single equality between two columns.
+         * @param lookupStyle the {@link LookupStyle}
+         * @return the builder
+         */
+        public Builder lookupStyle(final LookupStyle lookupStyle) {
+            notNull(lookupStyle);
+            this.lookupStyle = lookupStyle;
+            return this;
+        }
+
+        /**
+         * set whether or not each <code>$lookup</code> projects only the fields of the joined table that the query
+         * uses, so that wide documents aren't copied into the pipeline.  The default is false.  With
+         * {@link LookupStyle#LOCAL_FOREIGN_FIELD} a lookup without a pipeline keeps all of the fields.
+         * @param lookupProjection set to true to project the fields inside the lookups
+         * @return the builder
+         */
+        public Builder lookupProjection(final Boolean lookupProjection) {
+            notNull(lookupProjection);
+            this.lookupProjection = lookupProjection;
+            return this;
+        }
+
+        /**
+         * set the number of batches that {@link QueryConverter#run(MongoDatabase)} fetches ahead on a background
+         * thread, so that reading the next batch overlaps with processing the current one.  The results are then
+         * returned by a {@link PrefetchingQueryResultIterator}, which must be closed when it isn't read to the end.
+         * The default is 0, which reads the cursor on the calling thread.
+         * @param prefetchBatches the number of batches to fetch ahead
+         * @return the builder
+         */
+        public Builder prefetchBatches(final Integer prefetchBatches) {
+            notNull(prefetchBatches);
+            isTrue(prefetchBatches >= 0, "prefetchBatches must not be negative");
+            this.prefetchBatches = prefetchBatches;
+            return this;
+        }
+
+        /**
+         * set the fields that identify a document in the table of an <code>INSERT ... SELECT</code>, which is run
+         * with <code>$merge</code>.  The table needs a unique index on these fields.  The default is
+         * <code>_id</code>.
+         * @param mergeOn the fields
+         * @return the builder
+         */
+        public Builder mergeOn(final List<String> mergeOn) {
+            notNull(mergeOn);
+            isTrue(!mergeOn.isEmpty(), "mergeOn is empty");
+            this.mergeOn = new ArrayList<>(mergeOn);
+            return this;
+        }
+
+        /**
+         * set what <code>$merge</code> does when a result of an <code>INSERT ... SELECT</code> matches a document
+         * in the table: replace, keepExisting, merge or fail.  The default is fail, like an sql insert of a row
+         * that is already in the table.
+         * @param mergeWhenMatched the action
+         * @return the builder
+         */
+        public Builder mergeWhenMatched(final String mergeWhenMatched) {
+            notNull(mergeWhenMatched);
+            isTrue(MERGE_WHEN_MATCHED.contains(mergeWhenMatched), "unknown whenMatched: " + mergeWhenMatched);
+            this.mergeWhenMatched = mergeWhenMatched;
+            return this;
+        }
+
+        /**
+         * set what <code>$merge</code> does when a result of an <code>INSERT ... SELECT</code> doesn't match a
+         * document in the table: insert, discard or fail.  The default is insert.
+         * @param mergeWhenNotMatched the action
+         * @return the builder
+         */
+        public Builder mergeWhenNotMatched(final String mergeWhenNotMatched) {
+            notNull(mergeWhenNotMatched);
+            isTrue(MERGE_WHEN_NOT_MATCHED.contains(mergeWhenNotMatched),
+                    "unknown whenNotMatched: " + mergeWhenNotMatched);
+            this.mergeWhenNotMatched = mergeWhenNotMatched;
+            return this;
+        }
+
+        /**
+         * set if a <code>CREATE TABLE ... AS SELECT</code> replaces the table when it already exists.  By default
+         * running it fails when the table exists, like in sql.  The table can only be checked in the database of
+         * the query, so a table in another database can only be written when it may be replaced.
+         * @param replaceTable true to replace an existing table
+         * @return the builder
+         */
+        public Builder replaceTable(final Boolean replaceTable) {
+            notNull(replaceTable);
+            this.replaceTable = replaceTable;
+            return this;
+        }
+
+        /**
+         * set the number of documents of an <code>INSERT ... VALUES</code> that are sent in each
+         * <code>insertMany</code>.  The default is 1000.
+         * @param insertBatchSize the number of documents in a batch
+         * @return the builder
+         */
+        public Builder insertBatchSize(final Integer insertBatchSize) {
+            notNull(insertBatchSize);
+            isTrue(insertBatchSize > 0, "insertBatchSize must be greater than 0");
+            this.insertBatchSize = insertBatchSize;
+            return this;
+        }
+
+        /**
+         * set whether or not the batches of an <code>INSERT ... VALUES</code> are ordered inserts, which are sent
+         * one after the other and stop at the first document that can't be inserted.  The default is false: the
+         * batches are unordered, several of them are sent at once and a document that can't be inserted doesn't
+         * stop the others.
+         * @param orderedInserts set to true to insert the documents in order
+         * @return the builder
+         */
+        public Builder orderedInserts(final Boolean orderedInserts) {
+            notNull(orderedInserts);
+            this.orderedInserts = orderedInserts;
+            return this;
+        }
+
+        /**
+         * Copy everything but the sql from this builder.
+         * @return a new builder with the same settings
+         */
+        Builder copy() {
+            Builder builder = new Builder();
+            builder.aggregationAllowDiskUse = aggregationAllowDiskUse;
+            builder.aggregationBatchSize = aggregationBatchSize;
+            builder.fieldNameToFieldTypeMapping = fieldNameToFieldTypeMapping;
+            builder.defaultFieldType = defaultFieldType;
+            builder.indexCatalog = indexCatalog;
+            builder.lookupStyle = lookupStyle;
+            builder.lookupProjection = lookupProjection;
+            builder.prefetchBatches = prefetchBatches;
+            builder.mergeOn = mergeOn;
+            builder.mergeWhenMatched = mergeWhenMatched;
+            builder.mergeWhenNotMatched = mergeWhenNotMatched;
+            builder.replaceTable = replaceTable;
+            builder.insertBatchSize = insertBatchSize;
+            builder.orderedInserts = orderedInserts;
+            return builder;
+        }
+
         /**
          * build the {@link QueryConverter}.
          * @return the {@link QueryConverter}
          * @throws ParseException if there was a problem processing the sql
          */
         public QueryConverter build() throws ParseException {
-            return new QueryConverter(inputStream, fieldNameToFieldTypeMapping,
-                    defaultFieldType, aggregationAllowDiskUse, aggregationBatchSize);
+            CCJSqlParser jSqlParser = createParser();
+            QueryConverter queryConverter = build(jSqlParser, fieldNameToFieldTypeMapping);
+            SqlUtils.isTrue(SqlScriptReader.isAtEnd(jSqlParser),
+                    "only one statement is supported, use buildScript for more than one");
+            return queryConverter;
+        }
+
+        /**
+         * build a {@link SqlScriptReader} that converts the <code>;</code> separated statements of the sql one at
+         * a time, with the settings from this builder.
+         * @return the {@link SqlScriptReader}
+         * @throws ParseException if there was a problem reading the sql
+         */
+        public SqlScriptReader buildScript() throws ParseException {
+            return new SqlScriptReader(createParser(), copy());
+        }
+
+        private CCJSqlParser createParser() throws ParseException {
+            if (sql != null) {
+                return new CCJSqlParser(new StringProvider(sql));
+            }
+            try {
+                return new CCJSqlParser(new StreamProvider(inputStream, Charsets.UTF_8.name()));
+            } catch (IOException e) {
+                throw new ParseException(e);
+            }
+        }
+
+        /**
+         * build the {@link QueryConverter} for the next statement that the parser reads.
+         * @param jSqlParser the parser
+         * @return the {@link QueryConverter}
+         * @throws ParseException if there was a problem processing the sql
+         */
+        QueryConverter build(final CCJSqlParser jSqlParser) throws ParseException {
+            return build(jSqlParser, fieldNameToFieldTypeMapping);
+        }
+
+        private QueryConverter build(final CCJSqlParser jSqlParser,
+                                     final Map<String, FieldType> fieldTypeMapping) throws ParseException {
+            return new QueryConverter(jSqlParser, fieldTypeMapping, this);
+        }
+
+        /**
+         * Convert a batch of sql strings concurrently using the settings from this builder.  This is a concurrent
+         * loop over {@link #build()}: every statement is parsed and converted on its own, so the work per statement
+         * is the same as building a {@link QueryConverter} for it.  The settings are copied when this is called, so
+         * changing the builder while the statements are converted doesn't affect them.  A statement that can't be
+         * converted doesn't stop the others; its {@link ParseException} is returned in its
+         * {@link ConversionResult}.  Any other exception is a bug and is rethrown.
+         * @param sqlStrings the sql strings
+         * @param executor the {@link Executor} to convert the statements on
+         * @return the results, in the same order as the sql strings
+         * @throws InterruptedException if interrupted while waiting for the conversions to finish
+         */
+        public List<ConversionResult> convertAll(final List<String> sqlStrings, final Executor executor)
+                throws InterruptedException {
+            notNull(sqlStrings);
+            notNull(executor);
+            final Builder settings = copy();
+            settings.fieldNameToFieldTypeMapping = ImmutableMap.copyOf(fieldNameToFieldTypeMapping);
+            List<FutureTask<ConversionResult>> tasks = new ArrayList<>(sqlStrings.size());
+            for (final String sqlString : sqlStrings) {
+                notNull(sqlString);
+                FutureTask<ConversionResult> task = new FutureTask<>(new Callable<ConversionResult>() {
+                    @Override
+                    public ConversionResult call() {
+                        try {
+                            return ConversionResult.success(sqlString, settings.build(
+                                    new CCJSqlParser(new StringProvider(sqlString))).compile());
+                        } catch (ParseException e) {
+                            return ConversionResult.failure(sqlString, e);
+                        }
+                    }
+                });
+                tasks.add(task);
+                executor.execute(task);
+            }
+
+            List<ConversionResult> results = new ArrayList<>(tasks.size());
+            for (FutureTask<ConversionResult> task : tasks) {
+                try {
+                    results.add(task.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    } else if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
         }
     }
 
@@ -0,0 +1,189 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Bounded, thread-safe cache of {@link CompiledQuery}s keyed by the normalized sql text.  Repeated statements skip
+ * parsing and conversion entirely.  Entries are evicted in least-recently-used order once either the maximum number
+ * of entries or the maximum total weight (see
+ * {@link com.github.vincentrussell.query.mongodb.sql.converter.util.DocumentUtils#weigh(Object)}) is exceeded.
+ */
+public final class QueryConverterCache {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final QueryConverter.Builder converterBuilder;
+    private final long maximumEntries;
+    private final long maximumWeight;
+    private final LinkedHashMap<String, CompiledQuery> entries = new LinkedHashMap<>(INITIAL_CAPACITY,
+            LOAD_FACTOR, true);
+    private long totalWeight = 0;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private QueryConverterCache(final Builder builder) {
+        this.converterBuilder = builder.converterBuilder.copy();
+        this.maximumEntries = builder.maximumEntries;
+        this.maximumWeight = builder.maximumWeight;
+    }
+
+    /**
+     * Get the {@link CompiledQuery} for the sql string, converting it if it is not in the cache yet.  Failed
+     * conversions are not cached.
+     * @param sql the sql string
+     * @return the {@link CompiledQuery}
+     * @throws ParseException if the sql query cannot be parsed
+     */
+    public CompiledQuery get(final String sql) throws ParseException {
+        notNull(sql);
+        String key = SqlUtils.normalizeSql(sql);
+        CompiledQuery compiledQuery;
+        synchronized (entries) {
+            compiledQuery = entries.get(key);
+        }
+        if (compiledQuery != null) {
+            hitCount.incrementAndGet();
+            return compiledQuery;
+        }
+        missCount.incrementAndGet();
+
+        //convert outside of the lock so that misses don't serialize on each other
+        compiledQuery = converterBuilder.copy().sqlString(sql).build().compile();
+
+        synchronized (entries) {
+            CompiledQuery existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            entries.put(key, compiledQuery);
+            totalWeight += compiledQuery.getWeight();
+            evictIfNeeded();
+        }
+        return compiledQuery;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, CompiledQuery>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maximumEntries || totalWeight > maximumWeight) && iterator.hasNext()) {
+            totalWeight -= iterator.next().getValue().getWeight();
+            iterator.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove all of the entries from the cache.  The statistics are not reset.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    /**
+     * get the number of entries in the cache.
+     * @return the number of entries
+     */
+    public long size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * get the combined weight of all of the entries in the cache.
+     * @return the combined weight
+     */
+    public long getWeight() {
+        synchronized (entries) {
+            return totalWeight;
+        }
+    }
+
+    /**
+     * get the number of times {@link #get(String)} found a query in the cache.
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * get the number of times {@link #get(String)} had to convert a query.
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * get the number of entries that were evicted because the cache was full.
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Builder for {@link QueryConverterCache}.
+     */
+    public static class Builder {
+        private static final long DEFAULT_MAXIMUM_ENTRIES = 1000;
+
+        private QueryConverter.Builder converterBuilder = new QueryConverter.Builder();
+        private long maximumEntries = DEFAULT_MAXIMUM_ENTRIES;
+        private long maximumWeight = Long.MAX_VALUE;
+
+        /**
+         * set the {@link QueryConverter.Builder} that holds the settings used to convert the queries.  Any sql set
+         * on the builder is ignored.
+         * @param converterBuilder the {@link QueryConverter.Builder}
+         * @return the builder
+         */
+        public Builder converterBuilder(final QueryConverter.Builder converterBuilder) {
+            notNull(converterBuilder);
+            this.converterBuilder = converterBuilder;
+            return this;
+        }
+
+        /**
+         * set the maximum number of entries held in the cache.
+         * @param maximumEntries the maximum number of entries
+         * @return the builder
+         */
+        public Builder maximumEntries(final long maximumEntries) {
+            isTrue(maximumEntries > 0, "maximumEntries must be positive");
+            this.maximumEntries = maximumEntries;
+            return this;
+        }
+
+        /**
+         * set the maximum combined weight of the entries held in the cache.
+         * @param maximumWeight the maximum weight
+         * @return the builder
+         */
+        public Builder maximumWeight(final long maximumWeight) {
+            isTrue(maximumWeight > 0, "maximumWeight must be positive");
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * build the {@link QueryConverterCache}.
+         * @return the {@link QueryConverterCache}
+         */
+        public QueryConverterCache build() {
+            return new QueryConverterCache(this);
+        }
+    }
+}
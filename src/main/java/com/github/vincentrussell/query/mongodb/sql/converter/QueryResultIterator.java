@@ -22,6 +22,14 @@ public class QueryResultIterator<T> extends AbstractCloseableIterator<T> {
         this.mongoCursor = mongoIterable.iterator();
     }
 
+    /**
+     * get the wrapped {@link MongoCursor}.
+     * @return the cursor
+     */
+    protected MongoCursor<T> getMongoCursor() {
+        return mongoCursor;
+    }
+
     /**
      * {@inheritDoc}
      * @return the next element if there was one. If {@code endOfData} was called during execution,
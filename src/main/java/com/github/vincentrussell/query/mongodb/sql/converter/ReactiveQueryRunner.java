@@ -0,0 +1,316 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.util.DocumentUtils;
+import com.google.common.collect.Lists;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.AggregatePublisher;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.Success;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+
+/**
+ * Runs converted queries with the reactive streams driver.  Kept apart from {@link QueryConverter} so that the
+ * optional mongodb-driver-reactivestreams dependency is only needed when it is actually used.
+ */
+final class ReactiveQueryRunner {
+
+    private ReactiveQueryRunner() {
+
+    }
+
+    /**
+     * Run a document in the format returned by {@link QueryConverter#getQueryAsDocument()} against a database.
+     * @param queryDocument the query document
+     * @param mongoDatabase the database to run the query against.
+     * @param <T>           variable based on the type of query run.
+     * @return see {@link QueryConverter#runAsync(MongoDatabase)}
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T run(final Document queryDocument, final MongoDatabase mongoDatabase) {
+        MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(
+                queryDocument.getString("collection"));
+        if (List.class.isInstance(queryDocument.get("query"))) {
+            final AggregatePublisher<Document> aggregate = mongoCollection.aggregate(
+                    queryDocument.getList("query", Document.class));
+
+            Document options = (Document) queryDocument.get("options");
+            if (options != null && options.getBoolean("allowDiskUse") != null) {
+                aggregate.allowDiskUse(options.getBoolean("allowDiskUse"));
+            }
+
+            if (options != null && options.get("cursor") != null) {
+                aggregate.batchSize(((Document) options.get("cursor")).getInteger("batchSize"));
+            }
+
+            if (queryDocument.get("commandType") != null) {
+                final String tableToCreate = QueryConverter.getTableToCreate(queryDocument);
+                if (tableToCreate == null) {
+                    return (T) toCollection(aggregate);
+                }
+                return (T) tableExists(mongoDatabase, tableToCreate).thenCompose(
+                        new Function<Boolean, CompletionStage<Void>>() {
+                            @Override
+                            public CompletionStage<Void> apply(final Boolean exists) {
+                                if (exists) {
+                                    throw new IllegalStateException(QueryConverter.tableExists(tableToCreate));
+                                }
+                                return toCollection(aggregate);
+                            }
+                        });
+            }
+
+            return (T) aggregate;
+        }
+
+        Document query = (Document) queryDocument.get("query");
+        if (queryDocument.get("distinct") != null) {
+            return (T) mongoCollection.distinct(queryDocument.getString("distinct"), query, String.class);
+        } else if (Boolean.TRUE.equals(queryDocument.getBoolean("countAll"))) {
+            //the same count as QueryConverter.run, so both return the same number
+            return (T) toCompletionStage(mongoCollection.count(query));
+        }
+
+        SQLCommandType sqlCommandType = SQLCommandType.valueOf(
+                firstNonNull(queryDocument.get("commandType"), SQLCommandType.SELECT.name()).toString());
+        if (SQLCommandType.SELECT.equals(sqlCommandType)) {
+            FindPublisher<Document> findPublisher = mongoCollection.find(query)
+                    .projection((Document) queryDocument.get("projection"));
+            if (queryDocument.get("sort") != null) {
+                findPublisher.sort((Document) queryDocument.get("sort"));
+            }
+            if (queryDocument.get("skip") != null) {
+                findPublisher.skip(((Number) queryDocument.get("skip")).intValue());
+            }
+            if (queryDocument.get("limit") != null) {
+                findPublisher.limit(((Number) queryDocument.get("limit")).intValue());
+            }
+
+            return (T) findPublisher;
+        } else if (SQLCommandType.DELETE.equals(sqlCommandType)) {
+            final CompletableFuture<Long> deletedCount = new CompletableFuture<>();
+            mongoCollection.deleteMany(query).subscribe(new SingleResultSubscriber<DeleteResult>() {
+                @Override
+                protected void onResult(final DeleteResult deleteResult) {
+                    deletedCount.complete(deleteResult.getDeletedCount());
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    deletedCount.completeExceptionally(throwable);
+                }
+            });
+            return (T) deletedCount;
+        } else if (SQLCommandType.UPDATE.equals(sqlCommandType)) {
+            final CompletableFuture<UpdateResult> updated = new CompletableFuture<>();
+            Publisher<UpdateResult> publisher = List.class.isInstance(queryDocument.get("update"))
+                    ? mongoCollection.updateMany(query, queryDocument.getList("update", Document.class))
+                    : mongoCollection.updateMany(query, (Document) queryDocument.get("update"));
+            publisher.subscribe(new SingleResultSubscriber<UpdateResult>() {
+                @Override
+                protected void onResult(final UpdateResult updateResult) {
+                    updated.complete(updateResult);
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    updated.completeExceptionally(throwable);
+                }
+            });
+            return (T) updated;
+        } else if (SQLCommandType.INSERT.equals(sqlCommandType)) {
+            return (T) insertMany(mongoCollection, queryDocument);
+        } else {
+            throw new UnsupportedOperationException("SQL command type not supported");
+        }
+    }
+
+    private static CompletableFuture<Void> toCollection(final AggregatePublisher<Document> aggregate) {
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        aggregate.toCollection().subscribe(new SingleResultSubscriber<Success>() {
+            @Override
+            protected void onResult(final Success success) {
+                written.complete(null);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                written.completeExceptionally(throwable);
+            }
+        });
+        return written;
+    }
+
+    private static CompletableFuture<Boolean> tableExists(final MongoDatabase mongoDatabase, final String table) {
+        final CompletableFuture<Boolean> exists = new CompletableFuture<>();
+        mongoDatabase.listCollectionNames().subscribe(new Subscriber<String>() {
+            private boolean found;
+
+            @Override
+            public void onSubscribe(final Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(final String collectionName) {
+                found = found || table.equals(collectionName);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                exists.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                exists.complete(found);
+            }
+        });
+        return exists;
+    }
+
+    //unordered batches are inserted by up to INSERT_BATCHES_IN_FLIGHT chains that each take the next batch once their
+    //last one has been inserted, ordered batches are each subscribed to once the one before has been inserted
+    private static CompletionStage<Long> insertMany(final MongoCollection<Document> mongoCollection,
+                                                    final Document queryDocument) {
+        //the driver adds an _id to the documents it inserts, which must not change the query
+        final List<Document> documents = DocumentUtils.deepCopy(queryDocument).getList("documents", Document.class);
+        final InsertManyOptions insertManyOptions = new InsertManyOptions().ordered(
+                ((Document) queryDocument.get("options")).getBoolean("ordered"));
+        List<List<Document>> batches = Lists.partition(documents, queryDocument.getInteger("batchSize"));
+        CompletableFuture<Void> inserted;
+        if (insertManyOptions.isOrdered()) {
+            inserted = CompletableFuture.completedFuture(null);
+            for (final List<Document> batch : batches) {
+                inserted = inserted.thenCompose(new Function<Void, CompletionStage<Void>>() {
+                    @Override
+                    public CompletionStage<Void> apply(final Void previous) {
+                        return insertBatch(mongoCollection, batch, insertManyOptions);
+                    }
+                });
+            }
+        } else {
+            AtomicInteger nextBatch = new AtomicInteger();
+            List<CompletableFuture<Void>> chainsInserted = new ArrayList<>(QueryConverter.INSERT_BATCHES_IN_FLIGHT);
+            for (int i = 0; i < Math.min(batches.size(), QueryConverter.INSERT_BATCHES_IN_FLIGHT); i++) {
+                chainsInserted.add(insertNextBatches(mongoCollection, batches, nextBatch, insertManyOptions));
+            }
+            inserted = CompletableFuture.allOf(chainsInserted.toArray(new CompletableFuture<?>[0]));
+        }
+        return inserted.thenApply(new Function<Void, Long>() {
+            @Override
+            public Long apply(final Void result) {
+                return (long) documents.size();
+            }
+        });
+    }
+
+    //insert the remaining batches one after the other, a failed batch doesn't stop the others like with an unordered
+    //insertMany, but the first error fails the chain once all of them have been sent
+    private static CompletableFuture<Void> insertNextBatches(final MongoCollection<Document> mongoCollection,
+                                                             final List<List<Document>> batches,
+                                                             final AtomicInteger nextBatch,
+                                                             final InsertManyOptions insertManyOptions) {
+        final int index = nextBatch.getAndIncrement();
+        if (index >= batches.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> inserted = new CompletableFuture<>();
+        insertBatch(mongoCollection, batches.get(index), insertManyOptions).whenComplete(
+                new BiConsumer<Void, Throwable>() {
+                    @Override
+                    public void accept(final Void result, final Throwable batchFailure) {
+                        insertNextBatches(mongoCollection, batches, nextBatch, insertManyOptions).whenComplete(
+                                new BiConsumer<Void, Throwable>() {
+                                    @Override
+                                    public void accept(final Void rest, final Throwable restFailure) {
+                                        if (batchFailure != null || restFailure != null) {
+                                            inserted.completeExceptionally(firstNonNull(batchFailure, restFailure));
+                                        } else {
+                                            inserted.complete(null);
+                                        }
+                                    }
+                                });
+                    }
+                });
+        return inserted;
+    }
+
+    private static CompletableFuture<Void> insertBatch(final MongoCollection<Document> mongoCollection,
+                                                       final List<Document> batch,
+                                                       final InsertManyOptions insertManyOptions) {
+        final CompletableFuture<Void> inserted = new CompletableFuture<>();
+        mongoCollection.insertMany(batch, insertManyOptions).subscribe(new SingleResultSubscriber<Success>() {
+            @Override
+            protected void onResult(final Success success) {
+                inserted.complete(null);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                inserted.completeExceptionally(throwable);
+            }
+        });
+        return inserted;
+    }
+
+    private static CompletionStage<Long> toCompletionStage(final Publisher<Long> publisher) {
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        publisher.subscribe(new SingleResultSubscriber<Long>() {
+            @Override
+            protected void onResult(final Long result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * {@link Subscriber} for publishers that emit exactly one result.
+     * @param <R> the type of the result
+     */
+    private abstract static class SingleResultSubscriber<R> implements Subscriber<R> {
+        private boolean received;
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(final R result) {
+            received = true;
+            onResult(result);
+        }
+
+        @Override
+        public void onComplete() {
+            if (!received) {
+                onError(new IllegalStateException("no result was returned"));
+            }
+        }
+
+        protected abstract void onResult(R result);
+    }
+}
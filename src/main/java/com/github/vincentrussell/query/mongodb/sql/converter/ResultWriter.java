@@ -0,0 +1,138 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.google.common.base.Charsets;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Streams query results to an {@link OutputStream} one document at a time, so that the memory used does not grow
+ * with the size of the result.
+ */
+public final class ResultWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final JsonWriterSettings JSON_WRITER_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED).build();
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder()
+            .isEncodingCollectibleDocument(true).build();
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+    /**
+     * The formats that results can be written in.
+     */
+    public enum Format {
+        /**
+         * one relaxed extended json document per line.
+         */
+        NDJSON,
+        /**
+         * a json array of relaxed extended json documents.
+         */
+        JSON,
+        /**
+         * concatenated bson documents, the same layout as mongodump.
+         */
+        BSON;
+
+        /**
+         * get the format for a name, ignoring case.
+         * @param name the name of the format
+         * @return the format
+         * @throws IllegalArgumentException if there is no format with that name
+         */
+        public static Format fromName(final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private ResultWriter() {
+
+    }
+
+    /**
+     * Write every result from the iterator.  Values that are not documents (for example the results of a distinct
+     * query) are written as <code>{"value": ...}</code>.
+     * @param iterator the results
+     * @param format the {@link Format} to write
+     * @param outputStream the {@link OutputStream} to write to.  It is flushed, but not closed.
+     * @return the number of results written
+     * @throws IOException if there is an issue writing to the {@link OutputStream}
+     */
+    public static long write(final Iterator<?> iterator, final Format format,
+                             final OutputStream outputStream) throws IOException {
+        if (Format.BSON.equals(format)) {
+            return writeBson(iterator, outputStream);
+        }
+        return writeJson(iterator, Format.JSON.equals(format), outputStream);
+    }
+
+    /**
+     * Write a single count, as returned from a count or delete query, as <code>{"count": ...}</code>.
+     * @param count the count
+     * @param format the {@link Format} to write
+     * @param outputStream the {@link OutputStream} to write to.  It is flushed, but not closed.
+     * @throws IOException if there is an issue writing to the {@link OutputStream}
+     */
+    public static void writeCount(final long count, final Format format,
+                                  final OutputStream outputStream) throws IOException {
+        write(Collections.singletonList(new Document("count", count)).iterator(), format, outputStream);
+    }
+
+    private static long writeJson(final Iterator<?> iterator, final boolean array,
+                                  final OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charsets.UTF_8), BUFFER_SIZE);
+        long count = 0;
+        if (array) {
+            writer.write('[');
+        }
+        while (iterator.hasNext()) {
+            if (array && count > 0) {
+                writer.write(",\n");
+            }
+            DOCUMENT_CODEC.encode(new JsonWriter(writer, JSON_WRITER_SETTINGS), toDocument(iterator.next()),
+                    ENCODER_CONTEXT);
+            if (!array) {
+                writer.write('\n');
+            }
+            count++;
+        }
+        if (array) {
+            writer.write("]\n");
+        }
+        writer.flush();
+        return count;
+    }
+
+    private static long writeBson(final Iterator<?> iterator, final OutputStream outputStream) throws IOException {
+        OutputStream bufferedOutputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+        long count = 0;
+        while (iterator.hasNext()) {
+            outputBuffer.truncateToPosition(0);
+            DOCUMENT_CODEC.encode(new BsonBinaryWriter(outputBuffer), toDocument(iterator.next()), ENCODER_CONTEXT);
+            outputBuffer.pipe(bufferedOutputStream);
+            count++;
+        }
+        bufferedOutputStream.flush();
+        return count;
+    }
+
+    private static Document toDocument(final Object value) {
+        return Document.class.isInstance(value) ? (Document) value : new Document("value", value);
+    }
+}
@@ -4,5 +4,5 @@ package com.github.vincentrussell.query.mongodb.sql.converter;
  * A enum which describes the type of SQL operation this is.
  */
 public enum SQLCommandType {
-    DELETE, SELECT
+    DELETE, SELECT, INSERT, CREATE_TABLE, UPDATE
 }
@@ -0,0 +1,187 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Runs the statements of a script, keeping up to <code>concurrency</code> reads in flight at once.  A statement that
+ * writes (an insert, update, delete or create table) waits for every statement before it, and the statements after
+ * it wait for the write, so the script has the same effect as running it one statement at a time.  The output of the
+ * statements is written in script order and the time each statement took is printed to the timing stream.  The
+ * output of a read that finishes before the ones ahead of it is kept in a temporary file until it can be written,
+ * so it doesn't have to fit in memory.
+ */
+final class ScriptRunner {
+
+    /**
+     * Runs one statement of the script.
+     */
+    interface StatementRunner {
+        /**
+         * run the statement.
+         * @param queryConverter the statement
+         * @param outputStream the {@link OutputStream} to write the results to
+         * @param concurrent true if other statements are running at the same time, in which case the results are
+         *                   written to a temporary file and must not be paged
+         * @throws ParseException if there is an issue with the query
+         * @throws IOException if there is an issue writing the results
+         */
+        void run(QueryConverter queryConverter, OutputStream outputStream, boolean concurrent)
+                throws ParseException, IOException;
+    }
+
+    private final int concurrency;
+    private final StatementRunner statementRunner;
+    private final PrintStream timingStream;
+
+    /**
+     * Default constructor.
+     * @param concurrency the number of reads that can run at the same time
+     * @param statementRunner the {@link StatementRunner}
+     * @param timingStream the {@link PrintStream} to print the time each statement took to
+     */
+    ScriptRunner(final int concurrency, final StatementRunner statementRunner, final PrintStream timingStream) {
+        isTrue(concurrency > 0, "concurrency must be greater than 0");
+        notNull(statementRunner, "statementRunner is null");
+        notNull(timingStream, "timingStream is null");
+        this.concurrency = concurrency;
+        this.statementRunner = statementRunner;
+        this.timingStream = timingStream;
+    }
+
+    /**
+     * Run every statement of a script.  A statement that fails stops the script once the statements before it are
+     * done.
+     * @param scriptReader the {@link SqlScriptReader} of the script
+     * @param outputStream the {@link OutputStream} to write the results to
+     * @throws ParseException if a statement can't be converted or run
+     * @throws IOException if there is an issue writing the results
+     */
+    void run(final SqlScriptReader scriptReader, final OutputStream outputStream)
+            throws ParseException, IOException {
+        if (concurrency == 1) {
+            int number = 1;
+            for (QueryConverter queryConverter = scriptReader.next(); queryConverter != null;
+                 queryConverter = scriptReader.next()) {
+                runTimed(number++, queryConverter, outputStream, false);
+            }
+            return;
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrency);
+        //the reads in flight, in script order
+        Deque<Future<File>> pending = new ArrayDeque<>();
+        try {
+            int number = 1;
+            for (QueryConverter queryConverter = scriptReader.next(); queryConverter != null;
+                 queryConverter = scriptReader.next()) {
+                if (isWrite(queryConverter)) {
+                    while (!pending.isEmpty()) {
+                        writeFirst(pending, outputStream);
+                    }
+                    runTimed(number++, queryConverter, outputStream, false);
+                    continue;
+                }
+                if (pending.size() == concurrency) {
+                    writeFirst(pending, outputStream);
+                }
+                final int statementNumber = number++;
+                final QueryConverter read = queryConverter;
+                pending.add(executorService.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws ParseException, IOException {
+                        File part = File.createTempFile("statement", ".part");
+                        part.deleteOnExit();
+                        try (OutputStream partOutputStream = new BufferedOutputStream(new FileOutputStream(part))) {
+                            runTimed(statementNumber, read, partOutputStream, true);
+                        } catch (ParseException | IOException | RuntimeException e) {
+                            part.delete();
+                            throw e;
+                        }
+                        return part;
+                    }
+                }));
+                while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+                    writeFirst(pending, outputStream);
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeFirst(pending, outputStream);
+            }
+        } finally {
+            executorService.shutdownNow();
+            deleteParts(pending);
+        }
+    }
+
+    private void runTimed(final int number, final QueryConverter queryConverter, final OutputStream outputStream,
+                          final boolean concurrent) throws ParseException, IOException {
+        long start = System.nanoTime();
+        statementRunner.run(queryConverter, outputStream, concurrent);
+        timingStream.println("statement " + number + " took "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    //an insert, update, delete or create table, which the statements around it may depend on
+    private static boolean isWrite(final QueryConverter queryConverter) {
+        return !SQLCommandType.SELECT.equals(queryConverter.getSqlCommandInfoHolder().getSqlCommandType());
+    }
+
+    private static void writeFirst(final Deque<Future<File>> pending,
+                                   final OutputStream outputStream) throws ParseException, IOException {
+        try {
+            File part = pending.removeFirst().get();
+            try {
+                Files.copy(part.toPath(), outputStream);
+                outputStream.flush();
+            } finally {
+                part.delete();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ParseException) {
+                throw (ParseException) e.getCause();
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //delete the temporary files of the reads that finished but were never written.  a read that is still running
+    //when the script stops leaves its file to be deleted when the jvm exits
+    private static void deleteParts(final Deque<Future<File>> pending) {
+        for (Future<File> future : pending) {
+            if (!future.isDone() || future.isCancelled()) {
+                continue;
+            }
+            try {
+                future.get().delete();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                //the read deleted its own file when it failed
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import net.sf.jsqlparser.parser.CCJSqlParser;
+import net.sf.jsqlparser.parser.CCJSqlParserConstants;
+
+/**
+ * Converts the <code>;</code> separated statements of a sql script one at a time.  One parser reads the whole
+ * script, so it doesn't have to be split up or held in memory before it is converted.  Get one from
+ * {@link QueryConverter.Builder#buildScript()}.
+ */
+public final class SqlScriptReader {
+    private final CCJSqlParser jSqlParser;
+    private final QueryConverter.Builder builder;
+
+    /**
+     * Default constructor.
+     * @param jSqlParser the parser that reads the script
+     * @param builder the {@link QueryConverter.Builder} with the settings for every statement
+     */
+    SqlScriptReader(final CCJSqlParser jSqlParser, final QueryConverter.Builder builder) {
+        this.jSqlParser = jSqlParser;
+        this.builder = builder;
+    }
+
+    /**
+     * convert the next statement of the script.
+     * @return the {@link QueryConverter} for the statement, or null if there are no more statements
+     * @throws ParseException if the statement can't be converted.  The rest of the script can't be read after that.
+     */
+    public QueryConverter next() throws ParseException {
+        if (isAtEnd(jSqlParser)) {
+            return null;
+        }
+        return builder.build(jSqlParser);
+    }
+
+    /**
+     * skip any empty statements and return if the parser has read all of its input.
+     * @param jSqlParser the parser
+     * @return true if there are no more statements
+     */
+    static boolean isAtEnd(final CCJSqlParser jSqlParser) {
+        while (";".equals(jSqlParser.getToken(1).image)) {
+            jSqlParser.getNextToken();
+        }
+        return jSqlParser.getToken(1).kind == CCJSqlParserConstants.EOF;
+    }
+}
@@ -7,9 +7,16 @@ import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
 import com.github.vincentrussell.query.mongodb.sql.converter.visitor.ExpVisitorEraseAliasTableBaseBuilder;
 import net.sf.jsqlparser.expression.Alias;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.ItemsList;
+import net.sf.jsqlparser.expression.operators.relational.MultiExpressionList;
 import net.sf.jsqlparser.parser.ParseException;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.create.table.CreateTable;
 import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.insert.Insert;
 import net.sf.jsqlparser.statement.select.AllColumns;
 import net.sf.jsqlparser.statement.select.FromItem;
 import net.sf.jsqlparser.statement.select.Join;
@@ -20,9 +27,12 @@ import net.sf.jsqlparser.statement.select.SelectBody;
 import net.sf.jsqlparser.statement.select.SelectExpressionItem;
 import net.sf.jsqlparser.statement.select.SelectItem;
 import net.sf.jsqlparser.statement.select.SetOperationList;
+import net.sf.jsqlparser.statement.update.Update;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -44,6 +54,9 @@ public final class SQLCommandInfoHolder implements SQLInfoHolder {
     private final List<OrderByElement> orderByElements;
     private final AliasHolder aliasHolder;
     private final Expression havingClause;
+    private final Table intoTable;
+    private final Map<String, Expression> updateSets;
+    private final List<Map<String, Expression>> insertRows;
 
 
     private SQLCommandInfoHolder(final Builder builder) {
@@ -61,6 +74,9 @@ public final class SQLCommandInfoHolder implements SQLInfoHolder {
         this.havingClause = builder.havingClause;
         this.orderByElements = builder.orderByElements;
         this.aliasHolder = builder.aliasHolder;
+        this.intoTable = builder.intoTable;
+        this.updateSets = builder.updateSets;
+        this.insertRows = builder.insertRows;
     }
 
     @Override
@@ -188,6 +204,31 @@ public final class SQLCommandInfoHolder implements SQLInfoHolder {
         return aliasHolder;
     }
 
+    /**
+     * get the table the results are written to by an <code>INSERT ... SELECT</code> or a
+     * <code>CREATE TABLE ... AS SELECT</code>.
+     * @return the table, or null if the results are returned
+     */
+    public Table getIntoTable() {
+        return intoTable;
+    }
+
+    /**
+     * get the set clause of an update.
+     * @return the expression for each column, in the order of the set clause
+     */
+    public Map<String, Expression> getUpdateSets() {
+        return updateSets;
+    }
+
+    /**
+     * get the rows of an <code>INSERT ... VALUES</code>.
+     * @return the expression for each column of each row, in the order of the values clause
+     */
+    public List<Map<String, Expression>> getInsertRows() {
+        return insertRows;
+    }
+
     /**
      * Builder for {@link SQLCommandInfoHolder}.
      */
@@ -208,6 +249,9 @@ public final class SQLCommandInfoHolder implements SQLInfoHolder {
         private Expression havingClause;
         private List<OrderByElement> orderByElements = new ArrayList<>();
         private AliasHolder aliasHolder;
+        private Table intoTable;
+        private Map<String, Expression> updateSets = new LinkedHashMap<>();
+        private List<Map<String, Expression>> insertRows = new ArrayList<>();
 
         private Builder(final FieldType defaultFieldType, final Map<String, FieldType> fieldNameToFieldTypeMapping) {
             this.defaultFieldType = defaultFieldType;
@@ -236,7 +280,7 @@ public final class SQLCommandInfoHolder implements SQLInfoHolder {
         }
 
         /**
-         * Set the select or delete statement from the parsed sql string.
+         * Set the select, delete, update, insert or create table statement from the parsed sql string.
          * @param statement the {@link Statement}
          * @return the builder
          * @throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException if there is an issue
@@ -248,31 +292,40 @@ public final class SQLCommandInfoHolder implements SQLInfoHolder {
 
             if (Select.class.isAssignableFrom(statement.getClass())) {
                 sqlCommandType = SQLCommandType.SELECT;
-                SelectBody selectBody = ((Select) statement).getSelectBody();
-
-                if (SetOperationList.class.isInstance(selectBody)) {
-                    SetOperationList setOperationList = (SetOperationList) selectBody;
-                    if (setOperationList.getSelects() != null
-                            && setOperationList.getSelects().size() == 1
-                            && PlainSelect.class.isInstance(setOperationList.getSelects().get(0))) {
-                        return setPlainSelect((PlainSelect) setOperationList.getSelects().get(0));
-                    }
-                } else if (PlainSelect.class.isInstance(selectBody)) {
-                    return setPlainSelect((PlainSelect) selectBody);
-                }
-
-                throw new ParseException("No supported sentence");
-
-
+                return setPlainSelect(getPlainSelect(((Select) statement).getSelectBody()));
             } else if (Delete.class.isAssignableFrom(statement.getClass())) {
                 sqlCommandType = SQLCommandType.DELETE;
                 Delete delete = (Delete) statement;
                 return setDelete(delete);
+            } else if (Insert.class.isAssignableFrom(statement.getClass())) {
+                sqlCommandType = SQLCommandType.INSERT;
+                return setInsert((Insert) statement);
+            } else if (Update.class.isAssignableFrom(statement.getClass())) {
+                sqlCommandType = SQLCommandType.UPDATE;
+                return setUpdate((Update) statement);
+            } else if (CreateTable.class.isAssignableFrom(statement.getClass())) {
+                sqlCommandType = SQLCommandType.CREATE_TABLE;
+                return setCreateTable((CreateTable) statement);
             } else {
                 throw new ParseException("No supported sentence");
             }
         }
 
+        private PlainSelect getPlainSelect(final SelectBody selectBody) throws ParseException {
+            if (SetOperationList.class.isInstance(selectBody)) {
+                SetOperationList setOperationList = (SetOperationList) selectBody;
+                if (setOperationList.getSelects() != null
+                        && setOperationList.getSelects().size() == 1
+                        && PlainSelect.class.isInstance(setOperationList.getSelects().get(0))) {
+                    return (PlainSelect) setOperationList.getSelects().get(0);
+                }
+            } else if (PlainSelect.class.isInstance(selectBody)) {
+                return (PlainSelect) selectBody;
+            }
+
+            throw new ParseException("No supported sentence");
+        }
+
         /**
          * Set the select query information for this query.
          * @param plainSelect the {@link PlainSelect}
@@ -326,6 +379,119 @@ public final class SQLCommandInfoHolder implements SQLInfoHolder {
             return this;
         }
 
+        /**
+         * Set the update information for this query if it is an update query.
+         * @param update the {@link Update} object
+         * @return the builder
+         * @throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException if there is an issue
+         * parsing the sql
+         * @throws ParseException if there is an issue parsing the sql
+         */
+        public Builder setUpdate(final Update update)
+                throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException, ParseException {
+            SqlUtils.isTrue(update.getFromItem() == null && isEmpty(update.getJoins())
+                    && isEmpty(update.getStartJoins()) && update.getSelect() == null,
+                    "only updates of a single table are supported");
+            SqlUtils.isTrue(isEmpty(update.getOrderByElements()) && update.getLimit() == null,
+                    "order by and limit are not supported for updates");
+            from = generateFromHolder(new FromHolder(this.defaultFieldType,
+                    this.fieldNameToFieldTypeMapping), update.getTable(), null);
+            whereClause = update.getWhere();
+            ExpVisitorEraseAliasTableBaseBuilder eraseAliasVisitor = new ExpVisitorEraseAliasTableBaseBuilder(
+                    this.from.getBaseAliasTable());
+            for (int i = 0; i < update.getColumns().size(); i++) {
+                Column column = update.getColumns().get(i);
+                Expression expression = update.getExpressions().get(i);
+                column.accept(eraseAliasVisitor);
+                expression.accept(eraseAliasVisitor);
+                SqlUtils.isFalse(updateSets.containsKey(column.getName(false)),
+                        column.getName(false) + " is set more than once");
+                updateSets.put(column.getName(false), expression);
+            }
+            return this;
+        }
+
+        private static boolean isEmpty(final List<?> list) {
+            return list == null || list.isEmpty();
+        }
+
+        /**
+         * Set the information for an <code>INSERT INTO table (columns) VALUES (...), (...)</code> or an
+         * <code>INSERT INTO table [(columns)] SELECT ...</code> query.  The columns of a select, if there are any,
+         * are used as the aliases of the select items.
+         * @param insert the {@link Insert} object
+         * @return the builder
+         * @throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException if there is an issue
+         * parsing the sql
+         * @throws ParseException if there is an issue parsing the sql
+         */
+        public Builder setInsert(final Insert insert)
+                throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException, ParseException {
+            SqlUtils.isFalse(insert.isUseSet() || insert.isUseDuplicate(),
+                    "only INSERT ... VALUES and INSERT ... SELECT are supported");
+            if (insert.getSelect() == null) {
+                return setInsertValues(insert);
+            }
+            PlainSelect plainSelect = getPlainSelect(insert.getSelect().getSelectBody());
+            List<Column> columns = insert.getColumns();
+            if (columns != null && !columns.isEmpty()) {
+                List<SelectItem> items = plainSelect.getSelectItems();
+                SqlUtils.isTrue(columns.size() == items.size(),
+                        "the number of columns does not match the number of select items");
+                for (int i = 0; i < columns.size(); i++) {
+                    SqlUtils.isTrue(SelectExpressionItem.class.isInstance(items.get(i)),
+                            "select items have to be expressions when the columns are listed");
+                    ((SelectExpressionItem) items.get(i)).setAlias(new Alias(columns.get(i).getColumnName()));
+                }
+            }
+            intoTable = insert.getTable();
+            return setPlainSelect(plainSelect);
+        }
+
+        private Builder setInsertValues(final Insert insert)
+                throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException, ParseException {
+            List<Column> columns = insert.getColumns();
+            SqlUtils.isFalse(isEmpty(columns), "the columns have to be listed for INSERT ... VALUES");
+            ItemsList itemsList = insert.getItemsList();
+            List<ExpressionList> rows;
+            if (MultiExpressionList.class.isInstance(itemsList)) {
+                rows = ((MultiExpressionList) itemsList).getExprList();
+            } else if (ExpressionList.class.isInstance(itemsList)) {
+                rows = Collections.singletonList((ExpressionList) itemsList);
+            } else {
+                throw new ParseException("only INSERT ... VALUES and INSERT ... SELECT are supported");
+            }
+            for (ExpressionList row : rows) {
+                SqlUtils.isTrue(row.getExpressions().size() == columns.size(),
+                        "the number of values does not match the number of columns");
+                Map<String, Expression> values = new LinkedHashMap<>();
+                for (int i = 0; i < columns.size(); i++) {
+                    String columnName = columns.get(i).getColumnName();
+                    SqlUtils.isFalse(values.containsKey(columnName), columnName + " is listed more than once");
+                    values.put(columnName, row.getExpressions().get(i));
+                }
+                insertRows.add(values);
+            }
+            from = generateFromHolder(new FromHolder(this.defaultFieldType,
+                    this.fieldNameToFieldTypeMapping), insert.getTable(), null);
+            return this;
+        }
+
+        /**
+         * Set the information for a <code>CREATE TABLE table AS SELECT ...</code> query.
+         * @param createTable the {@link CreateTable} object
+         * @return the builder
+         * @throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException if there is an issue
+         * parsing the sql
+         * @throws ParseException if there is an issue parsing the sql
+         */
+        public Builder setCreateTable(final CreateTable createTable)
+                throws com.github.vincentrussell.query.mongodb.sql.converter.ParseException, ParseException {
+            SqlUtils.isTrue(createTable.getSelect() != null, "only CREATE TABLE ... AS SELECT is supported");
+            intoTable = createTable.getTable();
+            return setPlainSelect(getPlainSelect(createTable.getSelect().getSelectBody()));
+        }
+
         private AliasHolder generateHashAliasFromSelectItems(final List<SelectItem> selectItems) {
             HashMap<String, String> aliasFromFieldHash = new HashMap<>();
             HashMap<String, String> fieldFromAliasHash = new HashMap<>();
@@ -0,0 +1,29 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.plan;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a {@link LogicalPlan} into the BSON of an aggregation pipeline.
+ */
+public final class BsonEmitter {
+
+    private BsonEmitter() {
+
+    }
+
+    /**
+     * get the aggregation pipeline for a plan.
+     * @param logicalPlan the plan
+     * @return new pipeline steps, safe to modify
+     */
+    public static List<Document> toPipeline(final LogicalPlan logicalPlan) {
+        List<Document> pipeline = new ArrayList<>(logicalPlan.getStages().size());
+        for (PlanStage stage : logicalPlan.getStages()) {
+            pipeline.add(stage.toDocument());
+        }
+        return pipeline;
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.plan;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.commons.lang.Validate.noNullElements;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Immutable plan of a converted query: the collection that is scanned and the {@link PlanStage}s applied to it,
+ * in order.  It is built once per sql statement, so it can be cached, shared between threads and rewritten (a
+ * rewrite returns a new plan with {@link #withStages(List)}).  Use {@link BsonEmitter} to turn it into an
+ * aggregation pipeline.
+ */
+public final class LogicalPlan {
+    private final String collection;
+    private final List<PlanStage> stages;
+
+    /**
+     * Default constructor.
+     * @param collection the collection the plan reads from
+     * @param stages the stages, in order
+     */
+    public LogicalPlan(final String collection, final List<PlanStage> stages) {
+        notNull(collection, "collection is null");
+        notNull(stages, "stages is null");
+        noNullElements(stages, "stages contains null");
+        this.collection = collection;
+        this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+    }
+
+    /**
+     * get the collection the plan reads from.
+     * @return the collection
+     */
+    public String getCollection() {
+        return collection;
+    }
+
+    /**
+     * get the stages of the plan.
+     * @return an unmodifiable list of the stages, in order
+     */
+    public List<PlanStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Returns if the plan has a stage of a given kind.
+     * @param kind the {@link PlanStage.Kind}
+     * @return true if there is a stage of that kind
+     */
+    public boolean hasStage(final PlanStage.Kind kind) {
+        for (PlanStage stage : stages) {
+            if (stage.getKind() == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get a plan for the same collection with other stages.
+     * @param newStages the stages, in order
+     * @return the new plan
+     */
+    public LogicalPlan withStages(final List<PlanStage> newStages) {
+        return new LogicalPlan(collection, newStages);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LogicalPlan)) {
+            return false;
+        }
+        LogicalPlan that = (LogicalPlan) o;
+        return collection.equals(that.collection) && stages.equals(that.stages);
+    }
+
+    @Override
+    public int hashCode() {
+        return collection.hashCode() ^ stages.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return collection + stages;
+    }
+
+    /**
+     * Builder for a {@link LogicalPlan}.
+     */
+    public static class Builder {
+        private final String collection;
+        private final List<PlanStage> stages = new ArrayList<>();
+
+        /**
+         * Default constructor.
+         * @param collection the collection the plan reads from
+         */
+        public Builder(final String collection) {
+            this.collection = collection;
+        }
+
+        /**
+         * add a stage.
+         * @param kind the kind of stage
+         * @param body the body of the stage
+         * @return the builder
+         */
+        public Builder add(final PlanStage.Kind kind, final Object body) {
+            stages.add(PlanStage.of(kind, body));
+            return this;
+        }
+
+        /**
+         * add stages from aggregation pipeline steps, like the steps of a sub query or a join.
+         * @param steps the steps
+         * @return the builder
+         */
+        public Builder addAll(final List<Document> steps) {
+            for (Document step : steps) {
+                stages.add(PlanStage.fromDocument(step));
+            }
+            return this;
+        }
+
+        /**
+         * build the {@link LogicalPlan}.
+         * @return the {@link LogicalPlan}
+         */
+        public LogicalPlan build() {
+            return new LogicalPlan(collection, stages);
+        }
+    }
+}
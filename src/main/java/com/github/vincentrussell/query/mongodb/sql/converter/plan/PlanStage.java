@@ -0,0 +1,138 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.plan;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.util.DocumentUtils;
+import org.bson.Document;
+
+import java.util.Objects;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * One immutable step of a {@link LogicalPlan}, like a filter or a sort.  The body is copied when the stage is
+ * created and again every time it is read, so nothing outside the stage can change it and a stage can be shared
+ * between threads.
+ */
+public final class PlanStage {
+
+    /**
+     * What a stage does.
+     */
+    public enum Kind {
+        FILTER("$match"), LOOKUP("$lookup"), UNWIND("$unwind"), GROUP("$group"), PROJECT("$project"),
+        SORT("$sort"), SKIP("$skip"), LIMIT("$limit"), OUT("$out"), MERGE("$merge"), OTHER(null);
+
+        private final String operator;
+
+        Kind(final String operator) {
+            this.operator = operator;
+        }
+
+        /**
+         * get the aggregation operator for this kind of stage.
+         * @return the operator, or null for {@link #OTHER}
+         */
+        public String getOperator() {
+            return operator;
+        }
+
+        private static Kind fromOperator(final String operator) {
+            for (Kind kind : values()) {
+                if (operator.equals(kind.operator)) {
+                    return kind;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    private final Kind kind;
+    private final String operator;
+    private final Object body;
+
+    private PlanStage(final String operator, final Object body) {
+        notNull(operator, "operator is null");
+        notNull(body, "body is null");
+        this.kind = Kind.fromOperator(operator);
+        this.operator = operator;
+        this.body = DocumentUtils.deepCopy(body);
+    }
+
+    /**
+     * Create a stage.
+     * @param kind the kind of stage, not {@link Kind#OTHER}
+     * @param body the body of the stage, for example the query of a filter or the number of a limit
+     * @return the stage
+     */
+    public static PlanStage of(final Kind kind, final Object body) {
+        isTrue(kind != Kind.OTHER, "use fromDocument for other stages");
+        return new PlanStage(kind.getOperator(), body);
+    }
+
+    /**
+     * Create a stage from an aggregation pipeline step, like <code>{"$match": {...}}</code>.
+     * @param step the step, a document with a single key
+     * @return the stage
+     */
+    public static PlanStage fromDocument(final Document step) {
+        notNull(step, "step is null");
+        isTrue(step.size() == 1, "a pipeline step has exactly one key: " + step.keySet());
+        String operator = step.keySet().iterator().next();
+        return new PlanStage(operator, step.get(operator));
+    }
+
+    /**
+     * get the kind of stage.
+     * @return the {@link Kind}
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * get the aggregation operator, like <code>$match</code>.
+     * @return the operator
+     */
+    public String getOperator() {
+        return operator;
+    }
+
+    /**
+     * get the body of this stage.  Changing it doesn't change the stage; create a new stage with
+     * {@link #of(Kind, Object)} instead.
+     * @return a copy of the body, safe to modify
+     */
+    public Object getBody() {
+        return DocumentUtils.deepCopy(body);
+    }
+
+    /**
+     * get this stage as an aggregation pipeline step.
+     * @return a new document, safe to modify
+     */
+    public Document toDocument() {
+        return new Document(operator, DocumentUtils.deepCopy(body));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PlanStage)) {
+            return false;
+        }
+        PlanStage that = (PlanStage) o;
+        return operator.equals(that.operator) && body.equals(that.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operator, body);
+    }
+
+    @Override
+    public String toString() {
+        return new Document(operator, body).toString();
+    }
+}
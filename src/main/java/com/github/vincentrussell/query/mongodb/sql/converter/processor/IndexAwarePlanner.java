@@ -0,0 +1,277 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.processor;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.util.ParameterPlaceholder;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Orders the predicates of a converted where clause using the indexes of the collection, so that the same query
+ * gets the same plan no matter how the where clause was written.  Predicates on the fields of the best matching
+ * index come first, in index key order (equality, then the sort, then range, the same as a compound index is
+ * used), followed by the other equality, <code>$in</code>, range and remaining predicates.
+ */
+public final class IndexAwarePlanner {
+    private static final Set<String> RANGE_OPERATORS = new HashSet<>(Arrays.asList("$gt", "$gte", "$lt", "$lte"));
+
+    private enum PredicateType {
+        EQUALITY, IN, RANGE, OTHER
+    }
+
+    private final List<Document> indexes;
+
+    /**
+     * Default constructor.
+     * @param indexes the key documents of the indexes on the collection
+     */
+    public IndexAwarePlanner(final List<Document> indexes) {
+        this.indexes = indexes;
+    }
+
+    /**
+     * Order the predicates of a query.  Only <code>$and</code> arrays (including the ones inside <code>$or</code>
+     * branches) are changed, by merging nested arrays and reordering them, so the result matches the same
+     * documents.
+     * @param query the query
+     * @param sort the sort of the query, or an empty document
+     * @return the query with the predicates in order
+     */
+    public Document orderPredicates(final Document query, final Document sort) {
+        if (query == null || query.size() != 1) {
+            return query;
+        }
+        Object value = query.get("$and");
+        if (List.class.isInstance(value)) {
+            return new Document("$and", orderConjuncts((List<?>) value, sort));
+        }
+        value = query.get("$or");
+        if (List.class.isInstance(value)) {
+            return new Document("$or", orderBranches((List<?>) value));
+        }
+        return query;
+    }
+
+    /**
+     * Returns if one of the indexes can return the documents matched by the query in sort order.
+     * @param query the query
+     * @param sort the sort
+     * @return true if the sort can use an index
+     */
+    public boolean supportsSort(final Document query, final Document sort) {
+        if (sort == null || sort.isEmpty()) {
+            return false;
+        }
+        Map<String, PredicateType> fieldTypes = getFieldTypes(flattenAnds(getConjuncts(query), new ArrayList<>()));
+        for (Document index : indexes) {
+            if (new IndexMatch(index, fieldTypes, sort).sortSupported) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Object> orderConjuncts(final List<?> conjuncts, final Document sort) {
+        Map<String, List<Object>> byField = new LinkedHashMap<>();
+        List<Object> ordered = new ArrayList<>(conjuncts.size());
+        List<List<Object>> byType = new ArrayList<>();
+        for (int i = 0; i < PredicateType.values().length; i++) {
+            byType.add(new ArrayList<>());
+        }
+        Map<String, PredicateType> fieldTypes = new LinkedHashMap<>();
+        for (Object conjunct : flattenAnds(conjuncts, new ArrayList<>())) {
+            Object orderedConjunct = Document.class.isInstance(conjunct)
+                    ? orderPredicates((Document) conjunct, new Document()) : conjunct;
+            String field = getField(orderedConjunct);
+            if (field != null) {
+                List<Object> fieldConjuncts = byField.get(field);
+                if (fieldConjuncts == null) {
+                    fieldConjuncts = new ArrayList<>();
+                    byField.put(field, fieldConjuncts);
+                }
+                fieldConjuncts.add(orderedConjunct);
+                fieldTypes.put(field, combine(fieldTypes.get(field), getPredicateType(orderedConjunct)));
+            } else {
+                byType.get(PredicateType.OTHER.ordinal()).add(orderedConjunct);
+            }
+        }
+
+        IndexMatch best = null;
+        for (Document index : indexes) {
+            IndexMatch indexMatch = new IndexMatch(index, fieldTypes, sort);
+            if (indexMatch.isBetterThan(best)) {
+                best = indexMatch;
+            }
+        }
+        if (best != null) {
+            for (String field : best.coveredFields) {
+                ordered.addAll(byField.remove(field));
+            }
+        }
+        for (Map.Entry<String, List<Object>> entry : byField.entrySet()) {
+            byType.get(fieldTypes.get(entry.getKey()).ordinal()).addAll(entry.getValue());
+        }
+        for (List<Object> typeConjuncts : byType) {
+            ordered.addAll(typeConjuncts);
+        }
+        return ordered;
+    }
+
+    //nested $and arrays, for example from parenthesis, are merged into the outer one
+    private static List<Object> flattenAnds(final List<?> conjuncts, final List<Object> flattened) {
+        for (Object conjunct : conjuncts) {
+            if (Document.class.isInstance(conjunct) && ((Document) conjunct).size() == 1
+                    && List.class.isInstance(((Document) conjunct).get("$and"))) {
+                flattenAnds((List<?>) ((Document) conjunct).get("$and"), flattened);
+            } else {
+                flattened.add(conjunct);
+            }
+        }
+        return flattened;
+    }
+
+    private List<Object> orderBranches(final List<?> branches) {
+        List<Object> ordered = new ArrayList<>(branches.size());
+        for (Object branch : branches) {
+            ordered.add(Document.class.isInstance(branch)
+                    ? orderPredicates((Document) branch, new Document()) : branch);
+        }
+        return ordered;
+    }
+
+    private static List<?> getConjuncts(final Document query) {
+        if (query != null && query.size() == 1 && List.class.isInstance(query.get("$and"))) {
+            return (List<?>) query.get("$and");
+        }
+        return Arrays.asList(query);
+    }
+
+    private static Map<String, PredicateType> getFieldTypes(final List<?> conjuncts) {
+        Map<String, PredicateType> fieldTypes = new LinkedHashMap<>();
+        for (Object conjunct : conjuncts) {
+            String field = getField(conjunct);
+            if (field != null) {
+                fieldTypes.put(field, combine(fieldTypes.get(field), getPredicateType(conjunct)));
+            }
+        }
+        return fieldTypes;
+    }
+
+    private static PredicateType combine(final PredicateType first, final PredicateType second) {
+        return first == null || second.ordinal() < first.ordinal() ? second : first;
+    }
+
+    private static String getField(final Object conjunct) {
+        if (!Document.class.isInstance(conjunct) || ((Document) conjunct).size() != 1) {
+            return null;
+        }
+        String field = ((Document) conjunct).keySet().iterator().next();
+        return field.startsWith("$") ? null : field;
+    }
+
+    private static PredicateType getPredicateType(final Object conjunct) {
+        Object value = ((Document) conjunct).values().iterator().next();
+        if (!Document.class.isInstance(value) || ParameterPlaceholder.class.isInstance(value)) {
+            return Pattern.class.isInstance(value) ? PredicateType.OTHER : PredicateType.EQUALITY;
+        }
+        Set<String> operators = ((Document) value).keySet();
+        if (operators.isEmpty() || !operators.iterator().next().startsWith("$")) {
+            return PredicateType.EQUALITY;
+        } else if (operators.size() == 1 && operators.contains("$eq")) {
+            return PredicateType.EQUALITY;
+        } else if (operators.size() == 1 && operators.contains("$in")) {
+            return PredicateType.IN;
+        } else if (RANGE_OPERATORS.containsAll(operators)) {
+            return PredicateType.RANGE;
+        }
+        return PredicateType.OTHER;
+    }
+
+    /**
+     * How much of a query an index can be used for, following the equality, sort, range rule for compound indexes.
+     */
+    private static final class IndexMatch {
+        private final List<String> coveredFields = new ArrayList<>();
+        private final int keyCount;
+        private boolean sortSupported;
+
+        IndexMatch(final Document index, final Map<String, PredicateType> fieldTypes, final Document sort) {
+            List<String> keys = new ArrayList<>();
+            List<Integer> directions = new ArrayList<>();
+            for (Map.Entry<String, Object> key : index.entrySet()) {
+                if (!Number.class.isInstance(key.getValue())) {
+                    //text, hashed and geo keys can't be used for ordering
+                    break;
+                }
+                keys.add(key.getKey());
+                directions.add(((Number) key.getValue()).doubleValue() < 0 ? -1 : 1);
+            }
+            this.keyCount = index.size();
+
+            int position = 0;
+            boolean inPrefix = false;
+            while (position < keys.size() && isEquality(fieldTypes.get(keys.get(position)))) {
+                inPrefix |= PredicateType.IN.equals(fieldTypes.get(keys.get(position)));
+                coveredFields.add(keys.get(position++));
+            }
+            if (sort != null && !sort.isEmpty() && !inPrefix) {
+                int sortEnd = matchSort(keys, directions, position, sort, fieldTypes);
+                if (sortEnd >= 0) {
+                    sortSupported = true;
+                    position = sortEnd;
+                }
+            }
+            if (position < keys.size() && PredicateType.RANGE.equals(fieldTypes.get(keys.get(position)))) {
+                coveredFields.add(keys.get(position));
+            }
+        }
+
+        private static boolean isEquality(final PredicateType predicateType) {
+            return PredicateType.EQUALITY.equals(predicateType) || PredicateType.IN.equals(predicateType);
+        }
+
+        //returns the position after the sort keys or -1 if the index can't be used for the sort
+        private static int matchSort(final List<String> keys, final List<Integer> directions, final int start,
+                                     final Document sort, final Map<String, PredicateType> fieldTypes) {
+            int position = start;
+            Integer reversed = null;
+            for (Map.Entry<String, Object> sortKey : sort.entrySet()) {
+                if (PredicateType.EQUALITY.equals(fieldTypes.get(sortKey.getKey()))) {
+                    //a field with a single value is already in order
+                    continue;
+                }
+                if (position >= keys.size() || !keys.get(position).equals(sortKey.getKey())
+                        || !Number.class.isInstance(sortKey.getValue())) {
+                    return -1;
+                }
+                int direction = ((Number) sortKey.getValue()).intValue() < 0 ? -1 : 1;
+                int relative = direction * directions.get(position);
+                if (reversed != null && reversed != relative) {
+                    return -1;
+                }
+                reversed = relative;
+                position++;
+            }
+            return position;
+        }
+
+        private boolean isBetterThan(final IndexMatch other) {
+            if (coveredFields.isEmpty() && !sortSupported) {
+                return false;
+            } else if (other == null) {
+                return true;
+            } else if (coveredFields.size() != other.coveredFields.size()) {
+                return coveredFields.size() > other.coveredFields.size();
+            } else if (sortSupported != other.sortSupported) {
+                return sortSupported;
+            }
+            return keyCount < other.keyCount;
+        }
+    }
+}
@@ -1,26 +1,37 @@
 package com.github.vincentrussell.query.mongodb.sql.converter.processor;
 
 import com.github.vincentrussell.query.mongodb.sql.converter.FieldType;
+import com.github.vincentrussell.query.mongodb.sql.converter.IndexCatalog;
+import com.github.vincentrussell.query.mongodb.sql.converter.LookupStyle;
 import com.github.vincentrussell.query.mongodb.sql.converter.ParseException;
 import com.github.vincentrussell.query.mongodb.sql.converter.QueryConverter;
-import com.github.vincentrussell.query.mongodb.sql.converter.holder.ExpressionHolder;
 import com.github.vincentrussell.query.mongodb.sql.converter.holder.from.FromHolder;
 import com.github.vincentrussell.query.mongodb.sql.converter.holder.from.SQLCommandInfoHolder;
+import com.github.vincentrussell.query.mongodb.sql.converter.util.DocumentUtils;
+import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
 import com.github.vincentrussell.query.mongodb.sql.converter.visitor.ExpVisitorEraseAliasTableBaseBuilder;
+import com.github.vincentrussell.query.mongodb.sql.converter.visitor.ExpVisitorJoinFieldsBuilder;
 import com.github.vincentrussell.query.mongodb.sql.converter.visitor.OnVisitorLetsBuilder;
 import com.github.vincentrussell.query.mongodb.sql.converter.visitor.OnVisitorMatchLookupBuilder;
-import com.github.vincentrussell.query.mongodb.sql.converter.visitor.WhereVisitorMatchAndLookupPipelineMatchBuilder;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Parenthesis;
 import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.SelectItem;
 import net.sf.jsqlparser.statement.select.SubSelect;
-import org.apache.commons.lang.mutable.MutableBoolean;
 import org.bson.Document;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Class used to help with sql joins.
@@ -64,9 +75,25 @@ public final class JoinProcessor {
     private static Document generateInternalLookup(final FromHolder tholder, final String joinTableName,
                                                    final String joinTableAlias, final Expression onExp,
                                                    final Expression wherePartialExp,
-                                                   final List<Document> subqueryDocs) throws ParseException {
+                                                   final List<Document> subqueryDocs,
+                                                   final LookupStyle lookupStyle) throws ParseException {
         Document lookupInternal = new Document();
         lookupInternal.put("from", joinTableName);
+        String[] localAndForeignField = LookupStyle.PIPELINE.equals(lookupStyle) || !subqueryDocs.isEmpty()
+                ? null : getLocalAndForeignField(tholder, onExp, joinTableAlias);
+        if (localAndForeignField != null && (wherePartialExp == null
+                || LookupStyle.LOCAL_FOREIGN_FIELD_WITH_PIPELINE.equals(lookupStyle))) {
+            lookupInternal.put("localField", localAndForeignField[0]);
+            lookupInternal.put("foreignField", localAndForeignField[1]);
+            if (wherePartialExp != null) {
+                WhereClauseProcessor whereClauseProcessor = new WhereClauseProcessor(FieldType.UNKNOWN,
+                        Collections.<String, FieldType>emptyMap(), true);
+                lookupInternal.put("pipeline", new ArrayList<>(Collections.singletonList(new Document("$match",
+                        whereClauseProcessor.parseExpression(new Document(), wherePartialExp, null)))));
+            }
+            lookupInternal.put("as", joinTableAlias);
+            return lookupInternal;
+        }
         lookupInternal.put("let", generateLetsFromON(tholder, onExp, joinTableAlias));
         lookupInternal.put("pipeline", generateSubPipelineLookup(tholder, onExp,
                 wherePartialExp, joinTableAlias, subqueryDocs));
@@ -75,6 +102,44 @@ public final class JoinProcessor {
         return lookupInternal;
     }
 
+    /**
+     * If the on clause is a single equality between a column of the joined table and a column of the base table, or
+     * of a table that was joined before, get the fields to use for <code>localField</code> and
+     * <code>foreignField</code>.
+     * @param tholder the {@link FromHolder}
+     * @param onExp the on clause
+     * @param joinTableAlias the alias of the join table
+     * @return the local and foreign field or null if the on clause is something else
+     */
+    private static String[] getLocalAndForeignField(final FromHolder tholder, final Expression onExp,
+                                                    final String joinTableAlias) {
+        Expression expression = onExp;
+        while (expression instanceof Parenthesis) {
+            expression = ((Parenthesis) expression).getExpression();
+        }
+        if (!(expression instanceof EqualsTo)) {
+            return null;
+        }
+        Expression left = ((EqualsTo) expression).getLeftExpression();
+        Expression right = ((EqualsTo) expression).getRightExpression();
+        if (!SqlUtils.isColumn(left) || !SqlUtils.isColumn(right)) {
+            return null;
+        }
+        boolean leftIsForeign = isColumnOfTable((Column) left, joinTableAlias);
+        if (leftIsForeign == isColumnOfTable((Column) right, joinTableAlias)) {
+            return null;
+        }
+        Column local = (Column) (leftIsForeign ? right : left);
+        Column foreign = (Column) (leftIsForeign ? left : right);
+        String localField = isColumnOfTable(local, tholder.getBaseAliasTable())
+                ? SqlUtils.getColumnNameFromColumn(local) : local.getName(false);
+        return new String[] {localField, SqlUtils.getColumnNameFromColumn(foreign)};
+    }
+
+    private static boolean isColumnOfTable(final Column column, final String tableAlias) {
+        return tableAlias != null && column.getName(false).startsWith(tableAlias + ".");
+    }
+
     /**
      * Will perform an lookup step. Like this:
      * <pre>
@@ -101,16 +166,18 @@ public final class JoinProcessor {
      * @param onExp {@link Expression}
      * @param mixedOnAndWhereExp the mixed on and where {@link Expression}
      * @param subqueryDocs the sub query {@link Document}s
+     * @param lookupStyle the {@link LookupStyle}
      * @return the lookup step
      * @throws ParseException if there is an issue parsing the sql
      */
     private static Document generateLookupStep(final FromHolder tholder, final String joinTableName,
                                                final String joinTableAlias, final Expression onExp,
                                                final Expression mixedOnAndWhereExp,
-                                               final List<Document> subqueryDocs) throws ParseException {
+                                               final List<Document> subqueryDocs,
+                                               final LookupStyle lookupStyle) throws ParseException {
         Document lookup = new Document();
         lookup.put("$lookup", generateInternalLookup(tholder, joinTableName,
-                joinTableAlias, onExp, mixedOnAndWhereExp, subqueryDocs));
+                joinTableAlias, onExp, mixedOnAndWhereExp, subqueryDocs, lookupStyle));
         return lookup;
     }
 
@@ -179,42 +246,156 @@ public final class JoinProcessor {
         return match;
     }
 
+    /**
+     * Returns if the joins keep every base document exactly once, so that the base documents can be sorted and
+     * limited before the lookups.  That is the case when all of the joins are left joins on a single equality with a
+     * unique field of the joined collection, and the where clause only uses the columns of the base table.
+     * @param tholder the {@link FromHolder}
+     * @param ljoins the list of joined tables
+     * @param whereExpression the where expression from the query
+     * @param indexCatalog the {@link IndexCatalog} with the unique indexes of the joined collections
+     * @return true if the joins keep every base document exactly once
+     */
+    public static boolean preservesBaseDocuments(final FromHolder tholder, final List<Join> ljoins,
+                                                 final Expression whereExpression,
+                                                 final IndexCatalog indexCatalog) {
+        WhereClauseSplitter whereClauseSplitter = new WhereClauseSplitter(whereExpression,
+                getTableAliases(tholder, ljoins));
+        if (whereClauseSplitter.getRemainingExpression() != null) {
+            return false;
+        }
+        for (Join join : ljoins) {
+            if (!join.isLeft() || !(join.getRightItem() instanceof Table) || join.getRightItem().getAlias() == null) {
+                return false;
+            }
+            //a condition on a joined table drops the base documents without a match
+            if (whereClauseSplitter.getExpression(join.getRightItem().getAlias().getName()) != null) {
+                return false;
+            }
+            String[] localAndForeignField = getLocalAndForeignField(tholder, join.getOnExpression(),
+                    join.getRightItem().getAlias().getName());
+            if (localAndForeignField == null || !indexCatalog.isUnique(
+                    tholder.getSQLHolder(join.getRightItem()).getBaseTableName(), localAndForeignField[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * get the aliases of the base table and the joined tables.
+     * @param tholder the {@link FromHolder}
+     * @param ljoins the list of joined tables
+     * @return the aliases
+     */
+    public static List<String> getTableAliases(final FromHolder tholder, final List<Join> ljoins) {
+        List<String> tableAliases = new ArrayList<>();
+        if (tholder.getBaseAliasTable() != null) {
+            tableAliases.add(tholder.getBaseAliasTable());
+        }
+        for (Join join : ljoins) {
+            if (join.getRightItem().getAlias() != null) {
+                tableAliases.add(join.getRightItem().getAlias().getName());
+            }
+        }
+        return tableAliases;
+    }
+
+    /**
+     * get the <code>$project</code> for each joined table with only the fields that the query uses from it, in the
+     * select, where, group by, having and order by clauses and in the on clauses of the joins.  Join aliases that are
+     * used as a whole, like <code>t2.*</code> or <code>*</code>, are left out because they need all of their fields.
+     * @param sqlCommandInfoHolder the {@link SQLCommandInfoHolder} of the query with the joins
+     * @return the projection by join alias
+     */
+    public static Map<String, Document> getLookupProjections(final SQLCommandInfoHolder sqlCommandInfoHolder) {
+        List<String> joinTableAliases = new ArrayList<>();
+        for (Join join : sqlCommandInfoHolder.getJoins()) {
+            if (join.getRightItem().getAlias() != null) {
+                joinTableAliases.add(join.getRightItem().getAlias().getName());
+            }
+        }
+        ExpVisitorJoinFieldsBuilder joinFieldsBuilder = new ExpVisitorJoinFieldsBuilder(joinTableAliases);
+        for (SelectItem selectItem : sqlCommandInfoHolder.getSelectItems()) {
+            selectItem.accept(joinFieldsBuilder);
+        }
+        for (Join join : sqlCommandInfoHolder.getJoins()) {
+            if (join.getOnExpression() != null) {
+                join.getOnExpression().accept(joinFieldsBuilder);
+            }
+        }
+        if (sqlCommandInfoHolder.getWhereClause() != null) {
+            sqlCommandInfoHolder.getWhereClause().accept(joinFieldsBuilder);
+        }
+        for (String groupBy : sqlCommandInfoHolder.getGroupBys()) {
+            joinFieldsBuilder.addField(groupBy);
+        }
+        if (sqlCommandInfoHolder.getHavingClause() != null) {
+            sqlCommandInfoHolder.getHavingClause().accept(joinFieldsBuilder);
+        }
+        if (sqlCommandInfoHolder.getOrderByElements() != null) {
+            for (OrderByElement orderByElement : sqlCommandInfoHolder.getOrderByElements()) {
+                orderByElement.getExpression().accept(joinFieldsBuilder);
+            }
+        }
+        Map<String, Document> lookupProjections = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : joinFieldsBuilder.getFieldsByAlias().entrySet()) {
+            lookupProjections.put(entry.getKey(), DocumentUtils.toInclusionProjection(entry.getValue()));
+        }
+        return lookupProjections;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addLookupProjection(final Document lookupStep, final Document projection,
+                                            final LookupStyle lookupStyle) {
+        if (projection == null) {
+            return;
+        }
+        Document lookupInternal = (Document) lookupStep.get("$lookup");
+        List<Document> pipeline = (List<Document>) lookupInternal.get("pipeline");
+        if (pipeline != null) {
+            pipeline.add(new Document("$project", projection));
+        } else if (LookupStyle.LOCAL_FOREIGN_FIELD_WITH_PIPELINE.equals(lookupStyle)) {
+            //a pipeline next to localField and foreignField needs MongoDB 5.0
+            Object as = lookupInternal.remove("as");
+            lookupInternal.put("pipeline", new ArrayList<>(Collections.singletonList(
+                    new Document("$project", projection))));
+            lookupInternal.put("as", as);
+        }
+    }
+
     /**
      *  Create the aggregation pipeline steps needed to perform a join.
      * @param queryConverter the {@link QueryConverter}
      * @param tholder the {@link FromHolder}
      * @param ljoins the list of joined tables
      * @param whereExpression the where expression from the query
+     * @param lookupStyle the {@link LookupStyle} for joins on a single equality
+     * @param lookupProjections the fields to keep for each join alias, see {@link #getLookupProjections}
      * @return the aggregation pipeline steps
      * @throws ParseException if there is an issue parsing the sql
      * @throws net.sf.jsqlparser.parser.ParseException if there is an issue parsing the sql
      */
     public static List<Document> toPipelineSteps(final QueryConverter queryConverter,
                                                  final FromHolder tholder, final List<Join> ljoins,
-                                                 final Expression whereExpression)
+                                                 final Expression whereExpression, final LookupStyle lookupStyle,
+                                                 final Map<String, Document> lookupProjections)
             throws ParseException, net.sf.jsqlparser.parser.ParseException {
         List<Document> ldoc = new LinkedList<Document>();
-        MutableBoolean haveOrExpression = new MutableBoolean();
+        WhereClauseSplitter whereClauseSplitter = new WhereClauseSplitter(whereExpression,
+                getTableAliases(tholder, ljoins));
         for (Join j : ljoins) {
             if (j.isInner() || j.isLeft()) {
 
                 if (j.getRightItem() instanceof Table || j.getRightItem() instanceof SubSelect) {
-                    ExpressionHolder whereExpHolder;
                     String joinTableAlias = j.getRightItem().getAlias().getName();
                     String joinTableName = tholder.getSQLHolder(j.getRightItem()).getBaseTableName();
 
-                    whereExpHolder = new ExpressionHolder(null);
-
-                    if (whereExpression != null) {
-                        haveOrExpression.setValue(false);
-                        whereExpression.accept(new WhereVisitorMatchAndLookupPipelineMatchBuilder(joinTableAlias,
-                                whereExpHolder, haveOrExpression));
-                        if (!haveOrExpression.booleanValue() && whereExpHolder.getExpression() != null) {
-                            whereExpHolder.getExpression().accept(
-                                    new ExpVisitorEraseAliasTableBaseBuilder(joinTableAlias));
-                        } else {
-                            whereExpHolder.setExpression(null);
-                        }
+                    //a left join keeps the base documents without a match, so the conditions on the joined table
+                    //can only drop them when they are matched after the unwind
+                    Expression wherePartialExp = j.isLeft() ? null : whereClauseSplitter.getExpression(joinTableAlias);
+                    if (wherePartialExp != null) {
+                        wherePartialExp.accept(new ExpVisitorEraseAliasTableBaseBuilder(joinTableAlias));
                     }
 
                     List<Document> subqueryDocs = new LinkedList<>();
@@ -224,9 +405,15 @@ public final class JoinProcessor {
                                 (SQLCommandInfoHolder) tholder.getSQLHolder(j.getRightItem()));
                     }
 
-                    ldoc.add(generateLookupStep(tholder, joinTableName,
-                            joinTableAlias, j.getOnExpression(), whereExpHolder.getExpression(), subqueryDocs));
+                    Document lookupStep = generateLookupStep(tholder, joinTableName,
+                            joinTableAlias, j.getOnExpression(), wherePartialExp, subqueryDocs, lookupStyle);
+                    addLookupProjection(lookupStep, lookupProjections.get(joinTableAlias), lookupStyle);
+                    ldoc.add(lookupStep);
                     ldoc.add(generateUnwindStep(tholder, joinTableAlias, j.isLeft()));
+                    Expression leftJoinExp = j.isLeft() ? whereClauseSplitter.getExpression(joinTableAlias) : null;
+                    if (leftJoinExp != null) {
+                        ldoc.add(generateMatchAfterJoin(tholder, leftJoinExp));
+                    }
                 } else {
                     throw new ParseException("From join not supported");
                 }
@@ -235,9 +422,10 @@ public final class JoinProcessor {
             }
 
         }
-        if (haveOrExpression.booleanValue()) {
-            //if there is some "or" we use this step for support this logic and no other match steps
-            ldoc.add(generateMatchAfterJoin(tholder, whereExpression));
+        Expression remainingExpression = whereClauseSplitter.getRemainingExpression();
+        if (remainingExpression != null) {
+            //conditions that use more than one table can only be matched once all of the tables are joined
+            ldoc.add(generateMatchAfterJoin(tholder, remainingExpression));
         }
         return ldoc;
     }
@@ -0,0 +1,203 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.processor;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.FieldType;
+import com.github.vincentrussell.query.mongodb.sql.converter.ParseException;
+import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.JdbcNamedParameter;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.expression.operators.arithmetic.Concat;
+import net.sf.jsqlparser.expression.operators.arithmetic.Division;
+import net.sf.jsqlparser.expression.operators.arithmetic.Modulo;
+import net.sf.jsqlparser.expression.operators.arithmetic.Multiplication;
+import net.sf.jsqlparser.expression.operators.arithmetic.Subtraction;
+import net.sf.jsqlparser.schema.Column;
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Processor for the set clause of an update.  Values that don't depend on the document are set with
+ * <code>$set</code> and <code>column = column + n</code> is done with <code>$inc</code>.  Unlike sql, where
+ * <code>NULL + n</code> stays <code>NULL</code>, <code>$inc</code> sets a missing or null column to <code>n</code>.
+ * When a value is computed, from other columns or from constants, the whole update is done with an aggregation
+ * pipeline, which needs MongoDB 4.2 or later.
+ */
+public class UpdateProcessor {
+    private static final Character NEGATIVE_SIGN = '-';
+    private static final Map<Class<? extends BinaryExpression>, String> OPERATORS;
+
+    static {
+        Map<Class<? extends BinaryExpression>, String> operators = new LinkedHashMap<>();
+        operators.put(Addition.class, "$add");
+        operators.put(Subtraction.class, "$subtract");
+        operators.put(Multiplication.class, "$multiply");
+        operators.put(Division.class, "$divide");
+        operators.put(Modulo.class, "$mod");
+        operators.put(Concat.class, "$concat");
+        OPERATORS = Collections.unmodifiableMap(operators);
+    }
+
+    private final FieldType defaultFieldType;
+    private final Map<String, FieldType> fieldNameToFieldTypeMapping;
+
+    /**
+     * Default Constructor.
+     * @param defaultFieldType the default {@link FieldType}
+     * @param fieldNameToFieldTypeMapping the field name to {@link FieldType} mapping
+     */
+    public UpdateProcessor(final FieldType defaultFieldType,
+                           final Map<String, FieldType> fieldNameToFieldTypeMapping) {
+        this.defaultFieldType = defaultFieldType;
+        this.fieldNameToFieldTypeMapping = fieldNameToFieldTypeMapping;
+    }
+
+    /**
+     * Convert the set clause of an update.
+     * @param updateSets the expression for each column, in the order of the set clause
+     * @return a {@link Document} with <code>$set</code> and <code>$inc</code>, or a pipeline (a list of
+     * {@link Document}s) when a value is computed from other columns
+     * @throws ParseException if an expression is not supported
+     */
+    public Object parseUpdateSets(final Map<String, Expression> updateSets) throws ParseException {
+        boolean pipeline = false;
+        for (Map.Entry<String, Expression> entry : updateSets.entrySet()) {
+            if (isComputed(entry.getValue()) && getIncrement(entry.getKey(), entry.getValue()) == null) {
+                pipeline = true;
+            }
+        }
+        return pipeline ? toPipeline(updateSets) : toUpdateDocument(updateSets);
+    }
+
+    private Document toUpdateDocument(final Map<String, Expression> updateSets) throws ParseException {
+        Document set = new Document();
+        Document inc = new Document();
+        for (Map.Entry<String, Expression> entry : updateSets.entrySet()) {
+            Object increment = getIncrement(entry.getKey(), entry.getValue());
+            if (increment != null) {
+                inc.put(entry.getKey(), increment);
+            } else {
+                set.put(entry.getKey(), getValue(entry.getKey(), entry.getValue()));
+            }
+        }
+        Document update = new Document();
+        if (!set.isEmpty()) {
+            update.put("$set", set);
+        }
+        if (!inc.isEmpty()) {
+            update.put("$inc", inc);
+        }
+        return update;
+    }
+
+    private List<Document> toPipeline(final Map<String, Expression> updateSets) throws ParseException {
+        Document set = new Document();
+        for (Map.Entry<String, Expression> entry : updateSets.entrySet()) {
+            if (isComputed(entry.getValue())) {
+                set.put(entry.getKey(), toAggregationExpression(entry.getKey(), entry.getValue()));
+            } else {
+                set.put(entry.getKey(), new Document("$literal", getValue(entry.getKey(), entry.getValue())));
+            }
+        }
+        return Collections.singletonList(new Document("$set", set));
+    }
+
+    //column = column + n, column = n + column or column = column - n, where n is a number, or a parameter when it
+    //is added
+    private Object getIncrement(final String column, final Expression expression) throws ParseException {
+        if (!Addition.class.isInstance(expression) && !Subtraction.class.isInstance(expression)) {
+            return null;
+        }
+        BinaryExpression binaryExpression = (BinaryExpression) expression;
+        Expression amount = null;
+        if (isColumn(binaryExpression.getLeftExpression(), column)) {
+            amount = binaryExpression.getRightExpression();
+        } else if (Addition.class.isInstance(expression) && isColumn(binaryExpression.getRightExpression(), column)) {
+            amount = binaryExpression.getLeftExpression();
+        }
+        boolean addition = Addition.class.isInstance(expression);
+        boolean parameter = JdbcParameter.class.isInstance(amount) || JdbcNamedParameter.class.isInstance(amount);
+        boolean signedNumber = SignedExpression.class.isInstance(amount)
+                && isNumber(((SignedExpression) amount).getExpression());
+        if (amount == null || !(isNumber(amount) || (addition && (parameter || signedNumber)))) {
+            return null;
+        }
+        Character sign = addition ? null : NEGATIVE_SIGN;
+        return SqlUtils.getNormalizedValue(amount, FieldType.UNKNOWN, sign);
+    }
+
+    private static boolean isNumber(final Expression expression) {
+        return LongValue.class.isInstance(expression) || DoubleValue.class.isInstance(expression);
+    }
+
+    private static boolean isColumn(final Expression expression, final String column) {
+        return SqlUtils.isColumn(expression) && column.equals(((Column) expression).getName(false));
+    }
+
+    private Object getValue(final String column, final Expression expression) throws ParseException {
+        if (NullValue.class.isInstance(expression)) {
+            return null;
+        } else if (Parenthesis.class.isInstance(expression)) {
+            return getValue(column, ((Parenthesis) expression).getExpression());
+        } else if (SqlUtils.isColumn(expression) || OPERATORS.containsKey(expression.getClass())) {
+            throw new ParseException("unsupported expression in set clause: " + expression);
+        }
+        return SqlUtils.getNormalizedValue(expression, SqlUtils.getFieldType(new Column(column), defaultFieldType,
+                fieldNameToFieldTypeMapping), null);
+    }
+
+    private Object toAggregationExpression(final String column, final Expression expression) throws ParseException {
+        if (Parenthesis.class.isInstance(expression)) {
+            return toAggregationExpression(column, ((Parenthesis) expression).getExpression());
+        } else if (SqlUtils.isColumn(expression)) {
+            return "$" + ((Column) expression).getName(false);
+        } else if (SignedExpression.class.isInstance(expression) && isComputed(expression)) {
+            SignedExpression signedExpression = (SignedExpression) expression;
+            Object value = toAggregationExpression(column, signedExpression.getExpression());
+            return NEGATIVE_SIGN.equals(signedExpression.getSign())
+                    ? new Document("$multiply", Arrays.asList(-1, value)) : value;
+        } else if (OPERATORS.containsKey(expression.getClass())) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            return new Document(OPERATORS.get(expression.getClass()), Arrays.asList(
+                    toAggregationExpression(column, binaryExpression.getLeftExpression()),
+                    toAggregationExpression(column, binaryExpression.getRightExpression())));
+        }
+        //a string like "$other" would be read as a field path, and a parameter can be bound to one
+        return new Document("$literal", getValue(column, expression));
+    }
+
+    //uses a column or an operator, so it can't be set as a plain value
+    private static boolean isComputed(final Expression expression) {
+        if (Parenthesis.class.isInstance(expression)) {
+            return isComputed(((Parenthesis) expression).getExpression());
+        } else if (SignedExpression.class.isInstance(expression)) {
+            return isComputed(((SignedExpression) expression).getExpression());
+        }
+        return OPERATORS.containsKey(expression.getClass()) || hasColumns(expression);
+    }
+
+    private static boolean hasColumns(final Expression expression) {
+        final boolean[] found = new boolean[1];
+        expression.accept(new ExpressionVisitorAdapter() {
+            @Override
+            public void visit(final Column column) {
+                if (SqlUtils.isColumn(column)) {
+                    found[0] = true;
+                }
+            }
+        });
+        return found[0];
+    }
+}
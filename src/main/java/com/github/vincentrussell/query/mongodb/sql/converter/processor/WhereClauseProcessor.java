@@ -4,15 +4,24 @@ import com.github.vincentrussell.query.mongodb.sql.converter.FieldType;
 import com.github.vincentrussell.query.mongodb.sql.converter.ParseException;
 import com.github.vincentrussell.query.mongodb.sql.converter.util.DateFunction;
 import com.github.vincentrussell.query.mongodb.sql.converter.util.ObjectIdFunction;
+import com.github.vincentrussell.query.mongodb.sql.converter.util.ParameterPlaceholder;
 import com.github.vincentrussell.query.mongodb.sql.converter.util.RegexFunction;
 import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.DateValue;
+import net.sf.jsqlparser.expression.DoubleValue;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.JdbcNamedParameter;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
 import net.sf.jsqlparser.expression.NotExpression;
 import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
 import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.TimestampValue;
 import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
 import net.sf.jsqlparser.expression.operators.relational.Between;
@@ -34,6 +43,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -69,79 +79,134 @@ public class WhereClauseProcessor {
         this(defaultFieldType, fieldNameToFieldTypeMapping, false);
     }
 
-    //Parse comparative expression != = < > => <= into mongo expr
+    //Parse comparative expression != = < > => <= into mongo expr.  Each side is parsed once.
     private void parseComparativeExpr(final Document query, final Expression leftExpression,
-                                      final Expression rightExpression, final String comparatorType)
+                                      final Expression rightExpression, final String operator)
             throws ParseException {
-        String operator = "$" + comparatorType;
         if (Function.class.isInstance(leftExpression)) {
-            Document doc = new Document();
-            Object leftParse = parseExpression(new Document(), leftExpression, rightExpression);
-            Object rightParse = parseExpression(new Document(), rightExpression, leftExpression);
-            doc.put(operator, Arrays.asList(leftParse, (SqlUtils.isColumn(rightExpression)
-                    && !rightExpression.toString().startsWith("$") ? "$" + rightParse : rightParse)));
-            if (requiresMultistepAggregation) {
-                query.put("$expr", doc);
-            } else {
-                query.putAll(doc);
-            }
+            Object leftParse = parseOperand(leftExpression, rightExpression);
+            Object rightParse = parseOperand(rightExpression, leftExpression);
+            putFunctionComparison(query, new Document(operator, Arrays.asList(leftParse,
+                    (SqlUtils.isColumn(rightExpression) && !rightExpression.toString().startsWith("$")
+                            ? "$" + rightParse : rightParse))));
         } else if (SqlUtils.isColumn(leftExpression) && SqlUtils.isColumn(rightExpression)) {
             if (requiresMultistepAggregation) {
-                Document doc = new Document();
                 String leftName = ((Column) leftExpression).getName(false);
                 String rightName = ((Column) rightExpression).getName(false);
-                doc.put(operator,
+                query.put("$expr", new Document(operator,
                         Arrays.asList((leftName.startsWith("$") ? leftName : "$" + leftName),
-                                (rightName.startsWith("$") ? rightName : "$" + rightName)));
-                query.put("$expr", doc);
+                                (rightName.startsWith("$") ? rightName : "$" + rightName))));
             } else {
-                query.put(parseExpression(new Document(), leftExpression, rightExpression).toString(),
-                        parseExpression(new Document(), rightExpression, leftExpression));
+                query.put(parseOperand(leftExpression, rightExpression).toString(),
+                        parseOperand(rightExpression, leftExpression));
             }
         } else if (Function.class.isInstance(rightExpression)) {
-            Document doc = new Document();
-            Object leftParse = parseExpression(new Document(), rightExpression, leftExpression);
-            Object rightParse = parseExpression(new Document(), leftExpression, rightExpression);
-            doc.put(operator, Arrays.asList(leftParse, (SqlUtils.isColumn(leftExpression)
-                    && !leftExpression.toString().startsWith("$") ? "$" + rightParse : rightParse)));
-            if (requiresMultistepAggregation) {
-                query.put("$expr", doc);
-            } else {
-                query.putAll(doc);
-            }
+            Object leftParse = parseOperand(rightExpression, leftExpression);
+            Object rightParse = parseOperand(leftExpression, rightExpression);
+            putFunctionComparison(query, new Document(operator, Arrays.asList(leftParse,
+                    (SqlUtils.isColumn(leftExpression) && !leftExpression.toString().startsWith("$")
+                            ? "$" + rightParse : rightParse))));
         } else if (SqlUtils.isColumn(leftExpression)) {
-            Document subdocument = new Document();
-            if (operator.equals("$eq")) {
-                query.put(parseExpression(new Document(), leftExpression, rightExpression).toString(),
-                        parseExpression(new Document(), rightExpression, leftExpression));
-            } else {
-                subdocument.put(operator, parseExpression(new Document(), rightExpression, leftExpression));
-                query.put(parseExpression(new Document(), leftExpression, rightExpression).toString(),
-                        subdocument);
-            }
+            String column = parseOperand(leftExpression, rightExpression).toString();
+            Object value = parseOperand(rightExpression, leftExpression);
+            query.put(column, "$eq".equals(operator) ? value : new Document(operator, value));
         } else {
-            Document doc = new Document();
-            Object leftParse = parseExpression(new Document(), leftExpression, rightExpression);
-            doc.put(operator, Arrays.asList(leftParse, SqlUtils.nonFunctionToNode(
-                    rightExpression, requiresMultistepAggregation)));
-            if (requiresMultistepAggregation) {
-                query.put("$expr", doc);
-            } else {
-                Document subdocument = new Document();
-                if ("eq".equals(comparatorType) && String.class.isInstance(leftParse)) {
-                    query.put(leftParse.toString(), parseExpression(new Document(),
-                            rightExpression, leftExpression));
-                } else if (String.class.isInstance(leftParse)) {
-                    subdocument.put(operator, parseExpression(new Document(), rightExpression, leftExpression));
-                    query.put(parseExpression(new Document(), leftExpression, rightExpression).toString(),
-                            subdocument);
+            Object leftParse = parseOperand(leftExpression, rightExpression);
+            if (requiresMultistepAggregation || !String.class.isInstance(leftParse)) {
+                Document doc = new Document(operator, Arrays.asList(leftParse, SqlUtils.nonFunctionToNode(
+                        rightExpression, requiresMultistepAggregation)));
+                if (requiresMultistepAggregation) {
+                    query.put("$expr", doc);
                 } else {
                     query.putAll(doc);
                 }
+            } else {
+                Object value = parseOperand(rightExpression, leftExpression);
+                query.put(leftParse.toString(), "$eq".equals(operator) ? value : new Document(operator, value));
             }
         }
     }
 
+    private void putFunctionComparison(final Document query, final Document comparison) {
+        if (requiresMultistepAggregation) {
+            query.put("$expr", comparison);
+        } else {
+            query.putAll(comparison);
+        }
+    }
+
+    //literals and columns are normalized directly, only functions and nested expressions need a document to write to
+    private Object parseOperand(final Expression expression, final Expression otherSide) throws ParseException {
+        if (otherSide != null && isValue(expression)) {
+            return SqlUtils.getNormalizedValue(expression, otherSide,
+                    defaultFieldType, fieldNameToFieldTypeMapping, null);
+        }
+        return parseExpression(new Document(), expression, otherSide);
+    }
+
+    private static boolean isValue(final Expression expression) {
+        return Column.class.isInstance(expression) || StringValue.class.isInstance(expression)
+                || LongValue.class.isInstance(expression) || DoubleValue.class.isInstance(expression)
+                || SignedExpression.class.isInstance(expression) || JdbcParameter.class.isInstance(expression)
+                || JdbcNamedParameter.class.isInstance(expression) || DateValue.class.isInstance(expression)
+                || TimestampValue.class.isInstance(expression);
+    }
+
+    //the mongo operator of a comparison, or null if it isn't one that can be converted
+    private static String getComparisonOperator(final ComparisonOperator comparisonOperator) {
+        if (EqualsTo.class.isInstance(comparisonOperator)) {
+            return "$eq";
+        } else if (NotEqualsTo.class.isInstance(comparisonOperator)) {
+            return "$ne";
+        } else if (GreaterThan.class.isInstance(comparisonOperator)) {
+            return "$gt";
+        } else if (MinorThan.class.isInstance(comparisonOperator)) {
+            return "$lt";
+        } else if (GreaterThanEquals.class.isInstance(comparisonOperator)) {
+            return "$gte";
+        } else if (MinorThanEquals.class.isInstance(comparisonOperator)) {
+            return "$lte";
+        }
+        return null;
+    }
+
+    /*
+     * regexMatch(), date() and OID() comparisons all have a function on one side, so the (more expensive) checks for
+     * them are skipped for plain comparisons and stop at the first one that matches.
+     */
+    private boolean parseFunctionComparison(final Document query, final ComparisonOperator comparisonOperator)
+            throws ParseException {
+        if (!Function.class.isInstance(comparisonOperator.getLeftExpression())
+                && !Function.class.isInstance(comparisonOperator.getRightExpression())) {
+            return false;
+        }
+        RegexFunction regexFunction = SqlUtils.isRegexFunction(comparisonOperator);
+        if (regexFunction != null) {
+            query.put(regexFunction.getColumn(), wrapIfIsNot(toRegexDocument(regexFunction), regexFunction));
+            return true;
+        }
+        DateFunction dateFunction = SqlUtils.getDateFunction(comparisonOperator);
+        if (dateFunction != null) {
+            query.put(dateFunction.getColumn(),
+                    new Document(dateFunction.getComparisonExpression(), dateFunction.getDate()));
+            return true;
+        }
+        ObjectIdFunction objectIdFunction = SqlUtils.isObjectIdFunction(this, comparisonOperator);
+        if (objectIdFunction != null) {
+            query.put(objectIdFunction.getColumn(), objectIdFunction.toDocument());
+            return true;
+        }
+        return false;
+    }
+
+    private static Document toRegexDocument(final RegexFunction regexFunction) {
+        Document regexDocument = new Document("$regex", regexFunction.getRegex());
+        if (regexFunction.getOptions() != null) {
+            regexDocument.append("$options", regexFunction.getOptions());
+        }
+        return regexDocument;
+    }
+
     /**
      * Recursive function responsible for stepping through the sql structure and converting it into a mongo structure.
      * @param query the query in {@link Document} format
@@ -155,46 +220,23 @@ public class WhereClauseProcessor {
                                   final Expression incomingExpression, final Expression otherSide)
             throws ParseException {
         if (ComparisonOperator.class.isInstance(incomingExpression)) {
-            RegexFunction regexFunction = SqlUtils.isRegexFunction(incomingExpression);
-            DateFunction dateFunction = SqlUtils.getDateFunction(incomingExpression);
-            ObjectIdFunction objectIdFunction = SqlUtils.isObjectIdFunction(this,
-                    incomingExpression);
-            if (regexFunction != null) {
-                Document regexDocument = new Document("$regex", regexFunction.getRegex());
-                if (regexFunction.getOptions() != null) {
-                    regexDocument.append("$options", regexFunction.getOptions());
-                }
-                query.put(regexFunction.getColumn(), wrapIfIsNot(regexDocument, regexFunction));
-            } else if (dateFunction != null) {
-                query.put(dateFunction.getColumn(),
-                        new Document(dateFunction.getComparisonExpression(), dateFunction.getDate()));
-            } else if (objectIdFunction != null) {
-                query.put(objectIdFunction.getColumn(), objectIdFunction.toDocument());
-            } else if (EqualsTo.class.isInstance(incomingExpression)) {
-                final Expression leftExpression = ((EqualsTo) incomingExpression).getLeftExpression();
-                final Expression rightExpression = ((EqualsTo) incomingExpression).getRightExpression();
-                parseComparativeExpr(query, leftExpression, rightExpression, "eq");
-            } else if (NotEqualsTo.class.isInstance(incomingExpression)) {
-                final Expression leftExpression = ((NotEqualsTo) incomingExpression).getLeftExpression();
-                final Expression rightExpression = ((NotEqualsTo) incomingExpression).getRightExpression();
-                parseComparativeExpr(query, leftExpression, rightExpression, "ne");
-            } else if (GreaterThan.class.isInstance(incomingExpression)) {
-                final Expression leftExpression = ((GreaterThan) incomingExpression).getLeftExpression();
-                final Expression rightExpression = ((GreaterThan) incomingExpression).getRightExpression();
-                parseComparativeExpr(query, leftExpression, rightExpression, "gt");
-            } else if (MinorThan.class.isInstance(incomingExpression)) {
-                final Expression leftExpression = ((MinorThan) incomingExpression).getLeftExpression();
-                final Expression rightExpression = ((MinorThan) incomingExpression).getRightExpression();
-                parseComparativeExpr(query, leftExpression, rightExpression, "lt");
-            } else if (GreaterThanEquals.class.isInstance(incomingExpression)) {
-                final Expression leftExpression = ((GreaterThanEquals) incomingExpression).getLeftExpression();
-                final Expression rightExpression = ((GreaterThanEquals) incomingExpression).getRightExpression();
-                parseComparativeExpr(query, leftExpression, rightExpression, "gte");
-            } else if (MinorThanEquals.class.isInstance(incomingExpression)) {
-                final Expression leftExpression = ((MinorThanEquals) incomingExpression).getLeftExpression();
-                final Expression rightExpression = ((MinorThanEquals) incomingExpression).getRightExpression();
-                parseComparativeExpr(query, leftExpression, rightExpression, "lte");
+            ComparisonOperator comparisonOperator = (ComparisonOperator) incomingExpression;
+            String operator = getComparisonOperator(comparisonOperator);
+            if (!parseFunctionComparison(query, comparisonOperator) && operator != null) {
+                parseComparativeExpr(query, comparisonOperator.getLeftExpression(),
+                        comparisonOperator.getRightExpression(), operator);
             }
+        } else if (LikeExpression.class.isInstance(incomingExpression)
+                && Column.class.isInstance(((LikeExpression) incomingExpression).getLeftExpression())
+                && SqlUtils.isParameter(((LikeExpression) incomingExpression).getRightExpression())) {
+            LikeExpression likeExpression = (LikeExpression) incomingExpression;
+            String stringValueLeftSide = SqlUtils.getStringValue(likeExpression.getLeftExpression());
+            Expression parameter = likeExpression.getRightExpression();
+            Object indexOrName = JdbcParameter.class.isInstance(parameter)
+                    ? ((JdbcParameter) parameter).getIndex() : ((JdbcNamedParameter) parameter).getName();
+            query.put(stringValueLeftSide, likeExpression.isNot()
+                    ? new Document("$not", new ParameterPlaceholder(indexOrName, ParameterPlaceholder.Like.PATTERN))
+                    : new Document("$regex", new ParameterPlaceholder(indexOrName, ParameterPlaceholder.Like.REGEX)));
         } else if (LikeExpression.class.isInstance(incomingExpression)
                 && Column.class.isInstance(((LikeExpression) incomingExpression).getLeftExpression())
                 && (StringValue.class.isInstance(((LikeExpression) incomingExpression).getRightExpression())
@@ -224,19 +266,8 @@ public class WhereClauseProcessor {
             if (objectIdFunction != null) {
                 query.put(objectIdFunction.getColumn(), objectIdFunction.toDocument());
             } else {
-                List<Object> objectList = Lists
-                        .transform(((ExpressionList) inExpression.getRightItemsList()).getExpressions(),
-                                new com.google.common.base.Function<Expression, Object>() {
-                                    @Override
-                                    public Object apply(final Expression expression) {
-                                        try {
-                                            return parseExpression(new Document(), expression,
-                                                    leftExpression);
-                                        } catch (ParseException e) {
-                                            throw new RuntimeException(e);
-                                        }
-                                    }
-                                });
+                List<Object> objectList = parseInList((ExpressionList) inExpression.getRightItemsList(),
+                        leftExpression);
 
                 if (Function.class.isInstance(leftExpression)) {
                     String mongoInFunction = inExpression.isNot() ? "$fnin" : "$fin";
@@ -295,17 +326,15 @@ public class WhereClauseProcessor {
             RegexFunction regexFunction = SqlUtils.isRegexFunction(incomingExpression);
             ObjectIdFunction objectIdFunction = SqlUtils.isObjectIdFunction(this, incomingExpression);
             if (regexFunction != null) {
-                Document regexDocument = new Document("$regex", regexFunction.getRegex());
-                if (regexFunction.getOptions() != null) {
-                    regexDocument.append("$options", regexFunction.getOptions());
-                }
-                query.put(regexFunction.getColumn(), wrapIfIsNot(regexDocument, regexFunction));
+                query.put(regexFunction.getColumn(), wrapIfIsNot(toRegexDocument(regexFunction), regexFunction));
             } else if (objectIdFunction != null) {
                 return objectIdFunction.toDocument();
             } else {
                 return recurseFunctions(query, function, defaultFieldType, fieldNameToFieldTypeMapping);
             }
         } else if (otherSide == null) {
+            SqlUtils.isFalse(SqlUtils.containsParameter(incomingExpression),
+                    "parameters are not supported here: " + incomingExpression);
             return new Document(SqlUtils.getStringValue(incomingExpression), true);
         } else {
             return SqlUtils.getNormalizedValue(incomingExpression, otherSide,
@@ -314,6 +343,26 @@ public class WhereClauseProcessor {
         return query;
     }
 
+    /**
+     * Convert the values of an <code>IN</code> list.  The {@link FieldType} of the column is looked up once for the
+     * whole list, each value is converted once and duplicate values are dropped, keeping the first one.
+     * @param expressionList the values
+     * @param leftExpression the column or function on the left side of the <code>IN</code>
+     * @return the converted values
+     * @throws ParseException if one of the values could not be parsed
+     */
+    public List<Object> parseInList(final ExpressionList expressionList, final Expression leftExpression)
+            throws ParseException {
+        FieldType fieldType = SqlUtils.getFieldType(leftExpression, defaultFieldType, fieldNameToFieldTypeMapping);
+        List<Expression> expressions = expressionList.getExpressions();
+        Set<Object> values = Sets.newLinkedHashSetWithExpectedSize(expressions.size());
+        for (Expression expression : expressions) {
+            values.add(isValue(expression) ? SqlUtils.getNormalizedValue(expression, fieldType, null)
+                    : parseExpression(new Document(), expression, leftExpression));
+        }
+        return new ArrayList<>(values);
+    }
+
     private Object wrapIfIsNot(final Document regexDocument, final RegexFunction regexFunction) {
         if (regexFunction.isNot()) {
             if (regexFunction.getOptions() != null) {
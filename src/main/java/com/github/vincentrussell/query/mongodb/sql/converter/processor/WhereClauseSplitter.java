@@ -0,0 +1,134 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.processor;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.SubSelect;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the where clause of a join into its top level <code>AND</code> conjuncts and groups them by the table
+ * they use.  A conjunct that only uses the columns of one table, including an <code>OR</code> group, can be matched
+ * before the join (base table) or inside the <code>$lookup</code> pipeline (table joined with an inner join).  The
+ * conjuncts of a table joined with a left join are matched right after its <code>$unwind</code> instead, so that
+ * they drop the base documents without a match.  Everything else has to be matched after the join.
+ */
+public final class WhereClauseSplitter {
+    private final Map<String, List<Expression>> conjunctsByAlias = new LinkedHashMap<>();
+    private final List<Expression> remainingConjuncts = new ArrayList<>();
+
+    /**
+     * Default constructor.
+     * @param whereExpression the where clause
+     * @param tableAliases the aliases of the base table and of every joined table
+     */
+    public WhereClauseSplitter(final Expression whereExpression, final List<String> tableAliases) {
+        for (String tableAlias : tableAliases) {
+            conjunctsByAlias.put(tableAlias, new ArrayList<Expression>());
+        }
+        if (whereExpression == null) {
+            return;
+        }
+        for (Expression conjunct : getConjuncts(whereExpression, new ArrayList<Expression>())) {
+            Set<String> usedAliases = getTableAliases(conjunct, tableAliases);
+            if (usedAliases == null || usedAliases.size() > 1) {
+                remainingConjuncts.add(conjunct);
+            } else if (usedAliases.isEmpty()) {
+                //a condition without columns, like 1 = 1, is the same for every table
+                for (List<Expression> conjuncts : conjunctsByAlias.values()) {
+                    conjuncts.add(conjunct);
+                }
+            } else {
+                conjunctsByAlias.get(usedAliases.iterator().next()).add(conjunct);
+            }
+        }
+    }
+
+    /**
+     * get the conjuncts that only use the columns of one table.
+     * @param tableAlias the table alias
+     * @return the conjuncts joined with <code>AND</code> or null if there are none
+     */
+    public Expression getExpression(final String tableAlias) {
+        List<Expression> conjuncts = conjunctsByAlias.get(tableAlias);
+        return conjuncts != null ? and(conjuncts) : null;
+    }
+
+    /**
+     * get the conjuncts that use more than one table, or a column of an unknown table, and have to be matched
+     * after the join.
+     * @return the conjuncts joined with <code>AND</code> or null if there are none
+     */
+    public Expression getRemainingExpression() {
+        return and(remainingConjuncts);
+    }
+
+    private static List<Expression> getConjuncts(final Expression expression, final List<Expression> conjuncts) {
+        if (AndExpression.class.isInstance(expression)) {
+            getConjuncts(((AndExpression) expression).getLeftExpression(), conjuncts);
+            getConjuncts(((AndExpression) expression).getRightExpression(), conjuncts);
+        } else if (Parenthesis.class.isInstance(expression)
+                && AndExpression.class.isInstance(((Parenthesis) expression).getExpression())) {
+            getConjuncts(((Parenthesis) expression).getExpression(), conjuncts);
+        } else {
+            conjuncts.add(expression);
+        }
+        return conjuncts;
+    }
+
+    private static Expression and(final List<Expression> conjuncts) {
+        Expression result = null;
+        for (Expression conjunct : conjuncts) {
+            Expression wrapped = OrExpression.class.isInstance(conjunct) && conjuncts.size() > 1
+                    ? new Parenthesis(conjunct) : conjunct;
+            result = result == null ? wrapped : new AndExpression(result, wrapped);
+        }
+        return result;
+    }
+
+    //returns null if a column or sub select doesn't belong to any of the tables
+    private static Set<String> getTableAliases(final Expression conjunct, final List<String> tableAliases) {
+        final Set<String> usedAliases = new HashSet<>();
+        final boolean[] unknown = new boolean[1];
+        conjunct.accept(new ExpressionVisitorAdapter() {
+            @Override
+            public void visit(final Column column) {
+                if (!SqlUtils.isColumn(column)) {
+                    return;
+                }
+                String tableAlias = getTableAlias(column, tableAliases);
+                if (tableAlias != null) {
+                    usedAliases.add(tableAlias);
+                } else {
+                    unknown[0] = true;
+                }
+            }
+
+            @Override
+            public void visit(final SubSelect subSelect) {
+                unknown[0] = true;
+            }
+        });
+        return unknown[0] ? null : usedAliases;
+    }
+
+    private static String getTableAlias(final Column column, final List<String> tableAliases) {
+        String columnName = column.getName(false);
+        for (String tableAlias : tableAliases) {
+            if (columnName.startsWith(tableAlias + ".")) {
+                return tableAlias;
+            }
+        }
+        return null;
+    }
+}
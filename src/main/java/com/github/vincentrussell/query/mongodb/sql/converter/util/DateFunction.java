@@ -6,8 +6,6 @@ import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
 import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
 import net.sf.jsqlparser.expression.operators.relational.MinorThan;
 import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 import java.util.Date;
 
@@ -30,10 +28,9 @@ public class DateFunction {
     public DateFunction(final String format, final String value,
                         final String column, final ComparisonOperator comparisonOperator) throws ParseException {
         if ("natural".equals(format)) {
-            this.date = SqlUtils.parseNaturalLanguageDate(value);
+            this.date = DateLiteralParser.parseNaturalLanguageDate(value);
         } else {
-            DateTimeFormatter dateTimeFormatter = DateTimeFormat.forPattern(format).withZoneUTC();
-            this.date = dateTimeFormatter.parseDateTime(value).toDate();
+            this.date = DateLiteralParser.getFormatter(format).parseDateTime(value).toDate();
         }
         this.column = column;
         setComparisonFunction(comparisonOperator);
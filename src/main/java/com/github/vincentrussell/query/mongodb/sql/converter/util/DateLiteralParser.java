@@ -0,0 +1,174 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.joestelmach.natty.CalendarSource;
+import com.joestelmach.natty.DateGroup;
+import com.joestelmach.natty.Parser;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the date literals found in sql.  Formatters are compiled once per pattern, the format of a date string is
+ * picked by looking at the characters in it instead of trying every formatter until one doesn't throw, and natural
+ * language dates are remembered per text and reference second.
+ */
+public final class DateLiteralParser {
+    private static final int MAXIMUM_CACHED_PATTERNS = 256;
+    private static final int MAXIMUM_CACHED_NATURAL_LANGUAGE_DATES = 1024;
+    private static final long MILLIS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
+
+    private static final DateTimeFormatter ISO_DATE_TIME_FORMATTER = ISODateTimeFormat.dateTime();
+    private static final DateTimeFormatter YY_MM_DD_FORMATTER = DateTimeFormat.forPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter YYMMDD_FORMATTER = DateTimeFormat.forPattern("yyyyMMdd");
+
+    private static final Cache<String, DateTimeFormatter> PATTERN_FORMATTERS = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_CACHED_PATTERNS).build();
+    private static final Cache<NaturalLanguageKey, Date> NATURAL_LANGUAGE_DATES = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_CACHED_NATURAL_LANGUAGE_DATES).build();
+    private static final ThreadLocal<Parser> NATURAL_LANGUAGE_PARSER = new ThreadLocal<Parser>() {
+        @Override
+        protected Parser initialValue() {
+            return new Parser();
+        }
+    };
+
+    private DateLiteralParser() {
+
+    }
+
+    /**
+     * get the utc formatter for a {@link java.text.SimpleDateFormat} style pattern.  The formatter is compiled on
+     * the first call and reused after that.
+     * @param pattern the pattern
+     * @return the formatter
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public static DateTimeFormatter getFormatter(final String pattern) {
+        DateTimeFormatter formatter = PATTERN_FORMATTERS.getIfPresent(pattern);
+        if (formatter == null) {
+            formatter = DateTimeFormat.forPattern(pattern).withZoneUTC();
+            PATTERN_FORMATTERS.put(pattern, formatter);
+        }
+        return formatter;
+    }
+
+    /**
+     * Parse an iso date time (<code>2020-01-31T10:15:30.000Z</code>), a <code>yyyy-MM-dd</code> or
+     * <code>yyyyMMdd</code> date, or failing those a natural language date.
+     * @param text the text
+     * @return the date or null if the text is not a date
+     */
+    public static Date parse(final String text) {
+        DateTimeFormatter formatter = getFormatterForShape(text);
+        if (formatter != null) {
+            try {
+                return formatter.parseDateTime(text).toDate();
+            } catch (IllegalArgumentException e) {
+                //looked like a date but wasn't one, see if natty can make sense of it
+            }
+        }
+        try {
+            return parseNaturalLanguageDate(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse natural language, like <code>45 days ago</code>, relative to the current time truncated to the second,
+     * so that the same text always gives the same date within a second.
+     * @param text the natural language text to convert to a date
+     * @return parsed date
+     * @throws IllegalArgumentException if the text can't be parsed
+     */
+    public static Date parseNaturalLanguageDate(final String text) {
+        long now = System.currentTimeMillis();
+        return parseNaturalLanguageDate(text, new Date(now - now % MILLIS_PER_SECOND));
+    }
+
+    /**
+     * Parse natural language, like <code>45 days ago</code>, relative to a reference date.
+     * @param text the natural language text to convert to a date
+     * @param referenceDate the date the text is relative to
+     * @return parsed date
+     * @throws IllegalArgumentException if the text can't be parsed
+     */
+    public static Date parseNaturalLanguageDate(final String text, final Date referenceDate) {
+        NaturalLanguageKey key = new NaturalLanguageKey(text, referenceDate.getTime());
+        Date date = NATURAL_LANGUAGE_DATES.getIfPresent(key);
+        if (date == null) {
+            date = parseNaturalLanguageDateUncached(text, referenceDate);
+            NATURAL_LANGUAGE_DATES.put(key, date);
+        }
+        return new Date(date.getTime());
+    }
+
+    private static Date parseNaturalLanguageDateUncached(final String text, final Date referenceDate) {
+        CalendarSource.setBaseDate(referenceDate);
+        try {
+            List<DateGroup> groups = NATURAL_LANGUAGE_PARSER.get().parse(text);
+            for (DateGroup group : groups) {
+                List<Date> dates = group.getDates();
+                if (dates.size() > 0) {
+                    return dates.get(0);
+                }
+            }
+        } finally {
+            CalendarSource.setBaseDate(null);
+        }
+        throw new IllegalArgumentException("could not natural language date: " + text);
+    }
+
+    //only the formatter that the characters of the text could possibly match is returned, so at most one is tried
+    private static DateTimeFormatter getFormatterForShape(final String text) {
+        if (text.isEmpty()) {
+            return null;
+        } else if (text.indexOf('T') > 0) {
+            return ISO_DATE_TIME_FORMATTER;
+        }
+        boolean dashAfterYear = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '-' && i > 0) {
+                dashAfterYear = true;
+            } else if (!Character.isDigit(c) && c != '-' && c != '+') {
+                return null;
+            }
+        }
+        return dashAfterYear ? YY_MM_DD_FORMATTER : YYMMDD_FORMATTER;
+    }
+
+    private static final class NaturalLanguageKey {
+        private final String text;
+        private final long referenceMillis;
+
+        NaturalLanguageKey(final String text, final long referenceMillis) {
+            this.text = text;
+            this.referenceMillis = referenceMillis;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof NaturalLanguageKey)) {
+                return false;
+            }
+            NaturalLanguageKey that = (NaturalLanguageKey) o;
+            return referenceMillis == that.referenceMillis && text.equals(that.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, referenceMillis);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.util;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.ParseException;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Helpers for working with the {@link Document} trees produced by the converter.
+ */
+public final class DocumentUtils {
+
+    private DocumentUtils() {
+
+    }
+
+    /**
+     * Make a structural copy of a value from a converted query.  {@link Document}s and {@link Iterable}s are
+     * copied recursively (lazy list views are materialized along the way), {@link Date}s are cloned and
+     * everything else (including {@link ParameterPlaceholder}s) is assumed to be immutable and is shared.
+     * @param value the value to copy
+     * @param <T> the type of the value
+     * @return the copy
+     */
+    public static <T> T deepCopy(final T value) {
+        try {
+            return copy(value, null, null, false);
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Make a structural copy of a value from a converted query, like {@link #deepCopy(Object)}, with every
+     * {@link ParameterPlaceholder} replaced by its bound value.
+     * @param value the value to copy
+     * @param positionalValues the values for the positional parameters
+     * @param namedValues the values for the named parameters
+     * @param <T> the type of the value
+     * @return the copy
+     * @throws ParseException if a parameter has no value or the value can not be converted
+     */
+    public static <T> T bindParameters(final T value, final List<?> positionalValues,
+                                       final Map<String, ?> namedValues) throws ParseException {
+        return copy(value, positionalValues, namedValues, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(final T value, final List<?> positionalValues,
+                              final Map<String, ?> namedValues, final boolean bind) throws ParseException {
+        if (value instanceof ParameterPlaceholder) {
+            return bind ? (T) ((ParameterPlaceholder) value).resolve(positionalValues, namedValues) : value;
+        } else if (value instanceof Document) {
+            Document copy = new Document();
+            for (Map.Entry<String, Object> entry : ((Document) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue(), positionalValues, namedValues, bind));
+            }
+            return (T) copy;
+        } else if (value instanceof Iterable && !(value instanceof Map)) {
+            List<Object> copy = new ArrayList<>();
+            for (Object item : (Iterable<?>) value) {
+                copy.add(copy(item, positionalValues, namedValues, bind));
+            }
+            return (T) copy;
+        } else if (value instanceof Date) {
+            return (T) new Date(((Date) value).getTime());
+        }
+        return value;
+    }
+
+    /**
+     * Find all of the {@link ParameterPlaceholder}s in a converted query.
+     * @param value the value to search
+     * @return the placeholders in the order they were found, without duplicates
+     */
+    public static Set<ParameterPlaceholder> getParameters(final Object value) {
+        Set<ParameterPlaceholder> parameters = new LinkedHashSet<>();
+        collectParameters(value, parameters);
+        return parameters;
+    }
+
+    private static void collectParameters(final Object value, final Set<ParameterPlaceholder> parameters) {
+        if (value instanceof ParameterPlaceholder) {
+            parameters.add((ParameterPlaceholder) value);
+        } else if (value instanceof Document) {
+            for (Object item : ((Document) value).values()) {
+                collectParameters(item, parameters);
+            }
+        } else if (value instanceof Iterable && !(value instanceof Map)) {
+            for (Object item : (Iterable<?>) value) {
+                collectParameters(item, parameters);
+            }
+        }
+    }
+
+    /**
+     * Count the number of values in a converted query, including the containers themselves.  Used as a cheap
+     * estimate of how much memory the structure holds on to.
+     * @param value the value to weigh
+     * @return the number of values
+     */
+    public static long weigh(final Object value) {
+        long weight = 1;
+        if (value instanceof Document) {
+            for (Object item : ((Document) value).values()) {
+                weight += weigh(item);
+            }
+        } else if (value instanceof Iterable && !(value instanceof Map)) {
+            for (Object item : (Iterable<?>) value) {
+                weight += weigh(item);
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Make an inclusion <code>$project</code> that keeps <code>_id</code> and the given fields.  A projection can't
+     * have a field and one of its sub fields, like a and a.b, so only a is kept.
+     * @param fields the fields to keep
+     * @return the projection
+     */
+    public static Document toInclusionProjection(final Set<String> fields) {
+        Document projection = new Document("_id", 1);
+        for (String field : new TreeSet<>(fields)) {
+            boolean parentIncluded = false;
+            int index = field.indexOf('.');
+            while (index != -1 && !parentIncluded) {
+                parentIncluded = projection.containsKey(field.substring(0, index));
+                index = field.indexOf('.', index + 1);
+            }
+            if (!parentIncluded) {
+                projection.put(field, 1);
+            }
+        }
+        return projection;
+    }
+}
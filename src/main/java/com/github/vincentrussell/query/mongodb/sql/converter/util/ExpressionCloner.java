@@ -0,0 +1,209 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.util;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.DateValue;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.JdbcNamedParameter;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NotExpression;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.TimeValue;
+import net.sf.jsqlparser.expression.TimestampValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.IsNullExpression;
+import net.sf.jsqlparser.expression.operators.relational.LikeExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies where clause expressions node by node, so that the copy can be rewritten (for example by
+ * {@link com.github.vincentrussell.query.mongodb.sql.converter.visitor.ExpVisitorEraseAliasTableBaseBuilder})
+ * without changing the original.  Literals and parameters are never rewritten and are shared with the original.
+ * Expressions containing a node that isn't copied here, like a sub select, are copied by printing and parsing
+ * them again.
+ */
+final class ExpressionCloner {
+
+    private ExpressionCloner() {
+
+    }
+
+    /**
+     * copy an expression.
+     * @param expression the expression
+     * @return the copy, or null if the expression is null
+     */
+    static Expression cloneExpression(final Expression expression) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            return copy(expression);
+        } catch (UnsupportedExpressionException e) {
+            return reparse(expression);
+        }
+    }
+
+    private static Expression reparse(final Expression expression) {
+        try {
+            return CCJSqlParserUtil.parseCondExpression(expression.toString());
+        } catch (JSQLParserException e) {
+            // Never exception because clone
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @SuppressWarnings("checkstyle:methodlength")
+    private static Expression copy(final Expression expression) {
+        if (expression == null || isLiteral(expression)) {
+            return expression;
+        } else if (Column.class.isInstance(expression)) {
+            Column column = (Column) expression;
+            return new Column(column.getTable(), column.getColumnName());
+        } else if (AndExpression.class.isInstance(expression)) {
+            AndExpression andExpression = (AndExpression) expression;
+            return new AndExpression(copy(andExpression.getLeftExpression()),
+                    copy(andExpression.getRightExpression()));
+        } else if (OrExpression.class.isInstance(expression)) {
+            OrExpression orExpression = (OrExpression) expression;
+            return new OrExpression(copy(orExpression.getLeftExpression()),
+                    copy(orExpression.getRightExpression()));
+        } else if (ComparisonOperator.class.isInstance(expression)) {
+            return copyComparison((ComparisonOperator) expression);
+        } else if (Parenthesis.class.isInstance(expression)) {
+            return new Parenthesis(copy(((Parenthesis) expression).getExpression()));
+        } else if (NotExpression.class.isInstance(expression)) {
+            NotExpression notExpression = (NotExpression) expression;
+            return new NotExpression(copy(notExpression.getExpression()), notExpression.isExclamationMark());
+        } else if (SignedExpression.class.isInstance(expression)) {
+            SignedExpression signedExpression = (SignedExpression) expression;
+            return new SignedExpression(signedExpression.getSign(), copy(signedExpression.getExpression()));
+        } else if (LikeExpression.class.isInstance(expression)) {
+            LikeExpression likeExpression = (LikeExpression) expression;
+            LikeExpression copy = new LikeExpression();
+            copy.setLeftExpression(copy(likeExpression.getLeftExpression()));
+            copy.setRightExpression(copy(likeExpression.getRightExpression()));
+            copy.setNot(likeExpression.isNot());
+            copy.setEscape(likeExpression.getEscape());
+            copy.setCaseInsensitive(likeExpression.isCaseInsensitive());
+            return copy;
+        } else if (InExpression.class.isInstance(expression)) {
+            InExpression inExpression = (InExpression) expression;
+            if (inExpression.getLeftItemsList() != null
+                    || !ExpressionList.class.isInstance(inExpression.getRightItemsList())) {
+                throw new UnsupportedExpressionException();
+            }
+            InExpression copy = new InExpression(copy(inExpression.getLeftExpression()),
+                    copy((ExpressionList) inExpression.getRightItemsList()));
+            copy.setNot(inExpression.isNot());
+            copy.setOldOracleJoinSyntax(inExpression.getOldOracleJoinSyntax());
+            copy.setOraclePriorPosition(inExpression.getOraclePriorPosition());
+            return copy;
+        } else if (Between.class.isInstance(expression)) {
+            Between between = (Between) expression;
+            Between copy = new Between();
+            copy.setLeftExpression(copy(between.getLeftExpression()));
+            copy.setBetweenExpressionStart(copy(between.getBetweenExpressionStart()));
+            copy.setBetweenExpressionEnd(copy(between.getBetweenExpressionEnd()));
+            copy.setNot(between.isNot());
+            return copy;
+        } else if (IsNullExpression.class.isInstance(expression)) {
+            IsNullExpression isNullExpression = (IsNullExpression) expression;
+            IsNullExpression copy = new IsNullExpression();
+            copy.setLeftExpression(copy(isNullExpression.getLeftExpression()));
+            copy.setNot(isNullExpression.isNot());
+            copy.setUseIsNull(isNullExpression.isUseIsNull());
+            return copy;
+        } else if (Function.class.isInstance(expression)) {
+            return copyFunction((Function) expression);
+        }
+        throw new UnsupportedExpressionException();
+    }
+
+    private static boolean isLiteral(final Expression expression) {
+        return StringValue.class.isInstance(expression) || LongValue.class.isInstance(expression)
+                || DoubleValue.class.isInstance(expression) || NullValue.class.isInstance(expression)
+                || DateValue.class.isInstance(expression) || TimeValue.class.isInstance(expression)
+                || TimestampValue.class.isInstance(expression) || JdbcParameter.class.isInstance(expression)
+                || JdbcNamedParameter.class.isInstance(expression);
+    }
+
+    private static ComparisonOperator copyComparison(final ComparisonOperator comparisonOperator) {
+        ComparisonOperator copy;
+        if (EqualsTo.class.equals(comparisonOperator.getClass())) {
+            copy = new EqualsTo();
+        } else if (NotEqualsTo.class.equals(comparisonOperator.getClass())) {
+            //keeps != or <>
+            copy = new NotEqualsTo(comparisonOperator.getStringExpression());
+        } else if (GreaterThan.class.equals(comparisonOperator.getClass())) {
+            copy = new GreaterThan();
+        } else if (GreaterThanEquals.class.equals(comparisonOperator.getClass())) {
+            copy = new GreaterThanEquals();
+        } else if (MinorThan.class.equals(comparisonOperator.getClass())) {
+            copy = new MinorThan();
+        } else if (MinorThanEquals.class.equals(comparisonOperator.getClass())) {
+            copy = new MinorThanEquals();
+        } else {
+            throw new UnsupportedExpressionException();
+        }
+        copy.setLeftExpression(copy(comparisonOperator.getLeftExpression()));
+        copy.setRightExpression(copy(comparisonOperator.getRightExpression()));
+        copy.setOldOracleJoinSyntax(comparisonOperator.getOldOracleJoinSyntax());
+        copy.setOraclePriorPosition(comparisonOperator.getOraclePriorPosition());
+        return copy;
+    }
+
+    private static Function copyFunction(final Function function) {
+        if (function.getNamedParameters() != null || function.getAttribute() != null || function.getKeep() != null) {
+            throw new UnsupportedExpressionException();
+        }
+        Function copy = new Function();
+        copy.setName(function.getName());
+        copy.setParameters(copy(function.getParameters()));
+        copy.setAllColumns(function.isAllColumns());
+        copy.setDistinct(function.isDistinct());
+        copy.setIgnoreNulls(function.isIgnoreNulls());
+        copy.setEscaped(function.isEscaped());
+        copy.setAttributeName(function.getAttributeName());
+        return copy;
+    }
+
+    private static ExpressionList copy(final ExpressionList expressionList) {
+        if (expressionList == null) {
+            return null;
+        }
+        List<Expression> expressions = new ArrayList<>(expressionList.getExpressions().size());
+        for (Expression expression : expressionList.getExpressions()) {
+            expressions.add(copy(expression));
+        }
+        return new ExpressionList(expressions);
+    }
+
+    /**
+     * Thrown when an expression contains a node that can't be copied node by node.
+     */
+    private static final class UnsupportedExpressionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
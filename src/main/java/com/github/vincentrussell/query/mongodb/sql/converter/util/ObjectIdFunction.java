@@ -1,8 +1,6 @@
 package com.github.vincentrussell.query.mongodb.sql.converter.util;
 
 import com.github.vincentrussell.query.mongodb.sql.converter.ParseException;
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.expression.operators.relational.InExpression;
@@ -10,6 +8,7 @@ import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -52,14 +51,12 @@ public class ObjectIdFunction {
             return new Document("$ne", new ObjectId(value.toString()));
         } else if (InExpression.class.isInstance(comparisonExpression)) {
             InExpression inExpression = (InExpression) comparisonExpression;
-            List<String> stringList = (List<String>) value;
-            return new Document(inExpression.isNot() ? "$nin" : "$in", Lists.transform(stringList,
-                    new Function<String, ObjectId>() {
-                        @Override
-                        public ObjectId apply(final String s) {
-                            return new ObjectId(s);
-                        }
-                    }));
+            List<?> stringList = (List<?>) value;
+            List<ObjectId> objectIds = new ArrayList<>(stringList.size());
+            for (Object s : stringList) {
+                objectIds.add(new ObjectId(s.toString()));
+            }
+            return new Document(inExpression.isNot() ? "$nin" : "$in", objectIds);
         }
         throw new ParseException("could not convert ObjectId function into document");
     }
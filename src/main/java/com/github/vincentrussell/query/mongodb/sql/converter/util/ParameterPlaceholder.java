@@ -0,0 +1,147 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.util;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.FieldType;
+import com.github.vincentrussell.query.mongodb.sql.converter.ParseException;
+import org.bson.Document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Slot left in a converted query for a jdbc-style bind parameter (<code>?</code>, <code>?2</code> or
+ * <code>:name</code>).  Renders as <code>{"$parameter": 1}</code> or <code>{"$parameter": "name"}</code> until a
+ * value is bound to it.  The parameter of a <code>LIKE</code> also has a <code>"$like"</code> key, because its value
+ * is turned into a regular expression when it is bound.
+ */
+public final class ParameterPlaceholder extends Document {
+    private static final long serialVersionUID = 1L;
+    private static final String KEY = "$parameter";
+    private static final String LIKE_KEY = "$like";
+
+    /**
+     * How the value of a <code>LIKE</code> parameter is used.
+     */
+    public enum Like {
+        /**
+         * the value of a <code>$regex</code>, as a string.
+         */
+        REGEX,
+        /**
+         * a {@link Pattern}, for <code>NOT LIKE</code> which uses <code>$not</code>.
+         */
+        PATTERN
+    }
+
+    private final FieldType fieldType;
+    private final Like like;
+
+    /**
+     * Default constructor.
+     * @param indexOrName the 1-based index of a positional parameter or the name of a named parameter
+     * @param fieldType the {@link FieldType} of the column the parameter is compared to
+     */
+    public ParameterPlaceholder(final Object indexOrName, final FieldType fieldType) {
+        super(KEY, indexOrName);
+        this.fieldType = fieldType != null ? fieldType : FieldType.UNKNOWN;
+        this.like = null;
+    }
+
+    /**
+     * Create the parameter of a <code>LIKE</code>.  The bound value is the <code>LIKE</code> pattern, which is
+     * converted to a regular expression.
+     * @param indexOrName the 1-based index of a positional parameter or the name of a named parameter
+     * @param like how the regular expression is used
+     */
+    public ParameterPlaceholder(final Object indexOrName, final Like like) {
+        super(KEY, indexOrName);
+        notNull(like, "like is null");
+        put(LIKE_KEY, like.name());
+        this.fieldType = FieldType.STRING;
+        this.like = like;
+    }
+
+    /**
+     * get the 1-based index of a positional parameter or the name of a named parameter.
+     * @return the index or name
+     */
+    public Object getIndexOrName() {
+        return get(KEY);
+    }
+
+    /**
+     * Returns if this is a named parameter.
+     * @return true if named
+     */
+    public boolean isNamed() {
+        return String.class.isInstance(getIndexOrName());
+    }
+
+    /**
+     * get the {@link FieldType} of the column the parameter is compared to.
+     * @return the {@link FieldType}
+     */
+    public FieldType getFieldType() {
+        return fieldType;
+    }
+
+    /**
+     * get how the value of a <code>LIKE</code> parameter is used.
+     * @return the {@link Like}, or null if this isn't the parameter of a <code>LIKE</code>
+     */
+    public Like getLike() {
+        return like;
+    }
+
+    /**
+     * Look up the value for this parameter and convert it to the {@link FieldType} of the column.  Only strings
+     * are converted for numeric, date and boolean columns; other values are used as they are.  The value of a
+     * <code>LIKE</code> parameter is converted to a regular expression.
+     * @param positionalValues the values for the positional parameters
+     * @param namedValues the values for the named parameters
+     * @return the value
+     * @throws ParseException if there is no value for this parameter or the value can not be converted
+     */
+    public Object resolve(final List<?> positionalValues, final Map<String, ?> namedValues)
+            throws ParseException {
+        Object value;
+        if (isNamed()) {
+            String name = (String) getIndexOrName();
+            SqlUtils.isTrue(namedValues != null && namedValues.containsKey(name),
+                    "no value bound for parameter :" + name);
+            value = namedValues.get(name);
+        } else {
+            int index = (Integer) getIndexOrName();
+            SqlUtils.isTrue(positionalValues != null && index <= positionalValues.size(),
+                    "no value bound for parameter ?" + index);
+            value = positionalValues.get(index - 1);
+        }
+        if (like != null) {
+            SqlUtils.isTrue(value != null, "the value of a LIKE parameter can not be null");
+            String regex = "^" + SqlUtils.replaceRegexCharacters(SqlUtils.forceString(value)) + "$";
+            return Like.REGEX.equals(like) ? regex : Pattern.compile(regex);
+        } else if (value == null || FieldType.UNKNOWN.equals(fieldType)) {
+            return value;
+        } else if (FieldType.STRING.equals(fieldType)) {
+            return SqlUtils.forceString(value);
+        } else if (String.class.isInstance(value)) {
+            return SqlUtils.getNormalizedValue(value, fieldType);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return super.equals(o) && (!ParameterPlaceholder.class.isInstance(o)
+                || (fieldType.equals(((ParameterPlaceholder) o).fieldType)
+                && Objects.equals(like, ((ParameterPlaceholder) o).like)));
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+}
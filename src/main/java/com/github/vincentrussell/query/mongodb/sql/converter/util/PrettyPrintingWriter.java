@@ -0,0 +1,304 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * {@link Writer} that re-indents the compact json written by {@link org.bson.json.JsonWriter} as it passes through,
+ * without building up any intermediate strings.  The layout matches the gson pretty printer that was used before:
+ * two space indentation, <code>"key": value</code>, empty objects and arrays as <code>{}</code> and
+ * <code>[]</code>, html-safe string escaping and object fields with a <code>null</code> value left out.
+ */
+public final class PrettyPrintingWriter extends Writer {
+    private static final String INDENT = "  ";
+    private static final int HEX_DIGITS = 4;
+    private static final int HEX_RADIX = 16;
+    private static final char LAST_CONTROL_CHARACTER = 0x1f;
+    private static final char LINE_SEPARATOR = '\u2028';
+    private static final char PARAGRAPH_SEPARATOR = '\u2029';
+
+    private enum State {
+        /**
+         * between tokens.
+         */
+        DEFAULT,
+        /**
+         * inside a string.
+         */
+        STRING,
+        /**
+         * after a backslash inside a string.
+         */
+        STRING_ESCAPE,
+        /**
+         * reading the hex digits of a unicode escape inside a string.
+         */
+        STRING_UNICODE_ESCAPE,
+        /**
+         * copying a number, true, false or null.
+         */
+        LITERAL,
+        /**
+         * skipping a null object field.
+         */
+        SKIPPED_LITERAL
+    }
+
+    private final Writer out;
+    private final Deque<Container> containers = new ArrayDeque<>();
+    private final StringBuilder pendingName = new StringBuilder();
+    private State state = State.DEFAULT;
+    private boolean stringIsName;
+    private boolean hasPendingName;
+    private int unicodeEscapeValue;
+    private int unicodeEscapeDigits;
+
+    /**
+     * Default constructor.
+     * @param out the {@link Writer} to write the indented json to
+     */
+    public PrettyPrintingWriter(final Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(final String string, final int offset, final int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(string.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        write((char) c);
+    }
+
+    private void write(final char c) throws IOException {
+        switch (state) {
+            case STRING:
+                if (c == '\\') {
+                    state = State.STRING_ESCAPE;
+                } else if (c == '"') {
+                    endString();
+                } else {
+                    writeStringCharacter(c);
+                }
+                break;
+            case STRING_ESCAPE:
+                if (c == 'u') {
+                    unicodeEscapeValue = 0;
+                    unicodeEscapeDigits = 0;
+                    state = State.STRING_UNICODE_ESCAPE;
+                } else {
+                    state = State.STRING;
+                    writeStringCharacter(unescape(c));
+                }
+                break;
+            case STRING_UNICODE_ESCAPE:
+                unicodeEscapeValue = unicodeEscapeValue * HEX_RADIX + Character.digit(c, HEX_RADIX);
+                if (++unicodeEscapeDigits == HEX_DIGITS) {
+                    state = State.STRING;
+                    writeStringCharacter((char) unicodeEscapeValue);
+                }
+                break;
+            case LITERAL:
+            case SKIPPED_LITERAL:
+                if (isLiteralCharacter(c)) {
+                    if (state == State.LITERAL) {
+                        out.write(c);
+                    }
+                    break;
+                }
+                state = State.DEFAULT;
+                writeStructural(c);
+                break;
+            default:
+                writeStructural(c);
+                break;
+        }
+    }
+
+    private void writeStructural(final char c) throws IOException {
+        switch (c) {
+            case '{':
+            case '[':
+                beforeValue();
+                out.write(c);
+                containers.push(new Container(c == '{'));
+                break;
+            case '}':
+            case ']':
+                Container container = containers.pop();
+                if (container.count > 0) {
+                    newLine();
+                }
+                out.write(c);
+                break;
+            case '"':
+                state = State.STRING;
+                stringIsName = isInObject() && !hasPendingName;
+                if (stringIsName) {
+                    pendingName.setLength(0);
+                } else {
+                    beforeValue();
+                    out.write('"');
+                }
+                break;
+            case ',':
+            case ':':
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+                break;
+            default:
+                if (c == 'n' && hasPendingName) {
+                    hasPendingName = false;
+                    state = State.SKIPPED_LITERAL;
+                } else {
+                    beforeValue();
+                    out.write(c);
+                    state = State.LITERAL;
+                }
+                break;
+        }
+    }
+
+    private void beforeValue() throws IOException {
+        Container container = containers.peek();
+        if (container == null) {
+            return;
+        }
+        if (container.count++ > 0) {
+            out.write(',');
+        }
+        newLine();
+        if (hasPendingName) {
+            out.write('"');
+            out.append(pendingName);
+            out.write("\": ");
+            hasPendingName = false;
+        }
+    }
+
+    private void endString() throws IOException {
+        state = State.DEFAULT;
+        if (stringIsName) {
+            hasPendingName = true;
+        } else {
+            out.write('"');
+        }
+    }
+
+    private void writeStringCharacter(final char c) throws IOException {
+        String replacement = escape(c);
+        if (stringIsName) {
+            if (replacement != null) {
+                pendingName.append(replacement);
+            } else {
+                pendingName.append(c);
+            }
+        } else if (replacement != null) {
+            out.write(replacement);
+        } else {
+            out.write(c);
+        }
+    }
+
+    private void newLine() throws IOException {
+        out.write('\n');
+        for (int i = 0; i < containers.size(); i++) {
+            out.write(INDENT);
+        }
+    }
+
+    private boolean isInObject() {
+        return !containers.isEmpty() && containers.peek().object;
+    }
+
+    private static boolean isLiteralCharacter(final char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.';
+    }
+
+    private static char unescape(final char c) {
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return c;
+        }
+    }
+
+    private static String escape(final char c) {
+        switch (c) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\t':
+                return "\\t";
+            case '\b':
+                return "\\b";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\f':
+                return "\\f";
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+            case LINE_SEPARATOR:
+            case PARAGRAPH_SEPARATOR:
+                return unicodeEscape(c);
+            default:
+                return c <= LAST_CONTROL_CHARACTER ? unicodeEscape(c) : null;
+        }
+    }
+
+    private static String unicodeEscape(final char c) {
+        return String.format("\\u%04x", (int) c);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flushes, but does not close, the wrapped {@link Writer}.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private static final class Container {
+        private final boolean object;
+        private int count;
+
+        Container(final boolean object) {
+            this.object = object;
+        }
+    }
+}
@@ -6,14 +6,14 @@ import com.github.vincentrussell.query.mongodb.sql.converter.processor.WhereClau
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.joestelmach.natty.DateGroup;
-import com.joestelmach.natty.Parser;
-import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Alias;
 import net.sf.jsqlparser.expression.DateValue;
 import net.sf.jsqlparser.expression.DoubleValue;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
 import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.JdbcNamedParameter;
+import net.sf.jsqlparser.expression.JdbcParameter;
 import net.sf.jsqlparser.expression.LongValue;
 import net.sf.jsqlparser.expression.SignedExpression;
 import net.sf.jsqlparser.expression.StringValue;
@@ -22,7 +22,6 @@ import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
 import net.sf.jsqlparser.expression.operators.relational.InExpression;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.statement.select.AllColumns;
 import net.sf.jsqlparser.statement.select.Join;
@@ -31,16 +30,10 @@ import net.sf.jsqlparser.statement.select.Offset;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.SelectExpressionItem;
 import net.sf.jsqlparser.statement.select.SelectItem;
-import org.bson.Document;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 
 import javax.annotation.Nonnull;
 import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -54,23 +47,16 @@ import static com.google.common.base.MoreObjects.firstNonNull;
 public final class SqlUtils {
     private static final Pattern SURROUNDED_IN_QUOTES = Pattern.compile("^\"(.+)*\"$");
     private static final Pattern LIKE_RANGE_REGEX = Pattern.compile("(\\[.+?\\])");
+    private static final Pattern QUOTED_OR_BOOLEAN = Pattern.compile("^(\".*\"|true|false)$");
     private static final String REGEXMATCH_FUNCTION = "regexMatch";
     private static final String NOT_REGEXMATCH_FUNCTION = "notRegexMatch";
 
 
-    private static final DateTimeFormatter YY_MM_DDFORMATTER = DateTimeFormat.forPattern("yyyy-MM-dd");
-    private static final DateTimeFormatter YYMMDDFORMATTER = DateTimeFormat.forPattern("yyyyMMdd");
-
     private static final Map<String, String> FUNCTION_MAPPER = new ImmutableMap.Builder<String, String>()
             .put("OID", "toObjectId")
             .put("TIMESTAMP", "toDate")
             .build();
 
-    private static final Collection<DateTimeFormatter> FORMATTERS = Collections.unmodifiableList(Arrays.asList(
-            ISODateTimeFormat.dateTime(),
-            YY_MM_DDFORMATTER,
-            YYMMDDFORMATTER));
-
     private static final Character NEGATIVE_NUMBER_SIGN = Character.valueOf('-');
 
     private SqlUtils() {
@@ -88,6 +74,9 @@ public final class SqlUtils {
             return ((StringValue) expression).getValue();
         } else if (Column.class.isInstance(expression)) {
             String columnName = expression.toString();
+            if (columnName.isEmpty() || columnName.charAt(0) != '"') {
+                return columnName;
+            }
             Matcher matcher = SURROUNDED_IN_QUOTES.matcher(columnName);
             if (matcher.matches()) {
                 return matcher.group(1);
@@ -112,19 +101,52 @@ public final class SqlUtils {
                                             final Map<String, FieldType> fieldNameToFieldTypeMapping,
                                             final Character sign)
             throws ParseException {
-        FieldType fieldType = otherSide != null ? firstNonNull(
-                fieldNameToFieldTypeMapping.get(getStringValue(otherSide)),
-                defaultFieldType) : FieldType.UNKNOWN;
+        return getNormalizedValue(incomingExpression,
+                getFieldType(otherSide, defaultFieldType, fieldNameToFieldTypeMapping), sign);
+    }
+
+    /**
+     * get the {@link FieldType} of the column on the other side of an expression.
+     * @param otherSide the other side of the expression
+     * @param defaultFieldType the default {@link FieldType}
+     * @param fieldNameToFieldTypeMapping the field name to {@link FieldType} map
+     * @return the {@link FieldType}, or {@link FieldType#UNKNOWN} if there is no other side
+     */
+    public static FieldType getFieldType(final Expression otherSide, final FieldType defaultFieldType,
+                                         final Map<String, FieldType> fieldNameToFieldTypeMapping) {
+        if (otherSide == null) {
+            return FieldType.UNKNOWN;
+        } else if (fieldNameToFieldTypeMapping == null || fieldNameToFieldTypeMapping.isEmpty()) {
+            return defaultFieldType;
+        }
+        return firstNonNull(fieldNameToFieldTypeMapping.get(getStringValue(otherSide)), defaultFieldType);
+    }
+
+    /**
+     * Take an {@link Expression} and normalize it to a {@link FieldType} that is already known.
+     * @param incomingExpression the incoming expression
+     * @param fieldType the {@link FieldType}
+     * @param sign a negative or positive sign
+     * @return the normalized value
+     * @throws ParseException if there is a parsing issue
+     */
+    public static Object getNormalizedValue(final Expression incomingExpression, final FieldType fieldType,
+                                            final Character sign) throws ParseException {
         if (LongValue.class.isInstance(incomingExpression)) {
             return getNormalizedValue(convertToNegativeIfNeeded(((LongValue) incomingExpression).getValue(), sign),
                     fieldType);
         } else if (DoubleValue.class.isInstance(incomingExpression)) {
             return getNormalizedValue(convertToNegativeIfNeeded(((DoubleValue) incomingExpression).getValue(), sign),
                     fieldType);
+        } else if (JdbcParameter.class.isInstance(incomingExpression)) {
+            isFalse(NEGATIVE_NUMBER_SIGN.equals(sign), "negative sign not supported on parameters");
+            return new ParameterPlaceholder(((JdbcParameter) incomingExpression).getIndex(), fieldType);
+        } else if (JdbcNamedParameter.class.isInstance(incomingExpression)) {
+            isFalse(NEGATIVE_NUMBER_SIGN.equals(sign), "negative sign not supported on parameters");
+            return new ParameterPlaceholder(((JdbcNamedParameter) incomingExpression).getName(), fieldType);
         } else if (SignedExpression.class.isInstance(incomingExpression)) {
             SignedExpression signedExpression = (SignedExpression) incomingExpression;
-            return getNormalizedValue(signedExpression.getExpression(), otherSide, defaultFieldType,
-                    fieldNameToFieldTypeMapping, signedExpression.getSign());
+            return getNormalizedValue(signedExpression.getExpression(), fieldType, signedExpression.getSign());
         } else if (StringValue.class.isInstance(incomingExpression)) {
             return getNormalizedValue((((StringValue) incomingExpression).getValue()), fieldType);
         } else if (Column.class.isInstance(incomingExpression)) {
@@ -200,6 +222,8 @@ public final class SqlUtils {
      */
     public static long getLimitAsLong(final Limit limit) throws ParseException {
         if (limit != null) {
+            isFalse(isParameter(limit.getRowCount()) || isParameter(limit.getOffset()),
+                    "parameters are not supported in LIMIT");
             return getLongFromStringIfInteger(SqlUtils.getStringValue(limit.getRowCount()));
         }
         return -1;
@@ -209,9 +233,11 @@ public final class SqlUtils {
      * get offset as long.
      * @param offset the offset
      * @return the offset
+     * @throws ParseException if the offset is a parameter
      */
-    public static long getOffsetAsLong(final Offset offset) {
+    public static long getOffsetAsLong(final Offset offset) throws ParseException {
         if (offset != null) {
+            isFalse(offset.getOffsetJdbcParameter() != null, "parameters are not supported in OFFSET");
             return offset.getOffset();
         }
         return -1;
@@ -283,20 +309,10 @@ public final class SqlUtils {
      */
     public static Object getObjectAsDate(final Object value) throws ParseException {
         if (String.class.isInstance(value)) {
-            for (DateTimeFormatter formatter : FORMATTERS) {
-                try {
-                    DateTime dt = formatter.parseDateTime((String) value);
-                    return dt.toDate();
-                } catch (Exception e) {
-                    //noop
-                }
-            }
-            try {
-                return parseNaturalLanguageDate((String) value);
-            } catch (Exception e) {
-                //noop
+            Date date = DateLiteralParser.parse((String) value);
+            if (date != null) {
+                return date;
             }
-
         }
         throw new ParseException("could not convert " + value + " to a date");
     }
@@ -307,15 +323,7 @@ public final class SqlUtils {
      * @return parsed date
      */
     public static Date parseNaturalLanguageDate(final String text) {
-        Parser parser = new Parser();
-        List<DateGroup> groups = parser.parse(text);
-        for (DateGroup group : groups) {
-            List<Date> dates = group.getDates();
-            if (dates.size() > 0) {
-                return dates.get(0);
-            }
-        }
-        throw new IllegalArgumentException("could not natural language date: " + text);
+        return DateLiteralParser.parseNaturalLanguageDate(text);
     }
 
     /**
@@ -344,6 +352,37 @@ public final class SqlUtils {
         }
     }
 
+    /**
+     * Returns if an {@link Expression} is a jdbc-style bind parameter (<code>?</code>, <code>?2</code> or
+     * <code>:name</code>).
+     * @param expression the {@link Expression}
+     * @return true if it is a parameter
+     */
+    public static boolean isParameter(final Expression expression) {
+        return JdbcParameter.class.isInstance(expression) || JdbcNamedParameter.class.isInstance(expression);
+    }
+
+    /**
+     * Returns if there is a jdbc-style bind parameter anywhere in an {@link Expression}.
+     * @param expression the {@link Expression}
+     * @return true if it contains a parameter
+     */
+    public static boolean containsParameter(final Expression expression) {
+        final boolean[] found = {false};
+        expression.accept(new ExpressionVisitorAdapter() {
+            @Override
+            public void visit(final JdbcParameter parameter) {
+                found[0] = true;
+            }
+
+            @Override
+            public void visit(final JdbcNamedParameter parameter) {
+                found[0] = true;
+            }
+        });
+        return found[0];
+    }
+
     /**
      * Force an object to being a string.
      * @param value the object to try to force to a string
@@ -418,9 +457,9 @@ public final class SqlUtils {
                                                       final Expression incomingExpression) throws ParseException {
         if (ComparisonOperator.class.isInstance(incomingExpression)) {
             ComparisonOperator comparisonOperator = (ComparisonOperator) incomingExpression;
-            String rightExpression = getStringValue(comparisonOperator.getRightExpression());
             if (Function.class.isInstance(comparisonOperator.getLeftExpression())) {
                 Function function = ((Function) comparisonOperator.getLeftExpression());
+                String rightExpression = getStringValue(comparisonOperator.getRightExpression());
                 if ("toobjectid".equals(function.getName().toLowerCase())
                         && (function.getParameters().getExpressions().size() == 1)
                         && StringValue.class.isInstance(function.getParameters().getExpressions().get(0))) {
@@ -452,20 +491,8 @@ public final class SqlUtils {
                         && (function.getParameters().getExpressions().size() == 1)
                         && StringValue.class.isInstance(function.getParameters().getExpressions().get(0))) {
                     String column = getStringValue(function.getParameters().getExpressions().get(0));
-                    List<Object> rightExpression = Lists.transform(((ExpressionList)
-                                    inExpression.getRightItemsList()).getExpressions(),
-                            new com.google.common.base.Function<Expression, Object>() {
-                                @Override
-                                public Object apply(final Expression expression) {
-                                    try {
-                                        return whereClauseProcessor.parseExpression(
-                                                new Document(), expression, leftExpression);
-                                    } catch (ParseException e) {
-                                        throw new RuntimeException(e);
-                                    }
-                                }
-                            });
-                    return new ObjectIdFunction(column, rightExpression, inExpression);
+                    return new ObjectIdFunction(column, whereClauseProcessor.parseInList(
+                            (ExpressionList) inExpression.getRightItemsList(), leftExpression), inExpression);
                 }
             }
         } else if (Function.class.isInstance(incomingExpression)) {
@@ -489,17 +516,18 @@ public final class SqlUtils {
     public static DateFunction getDateFunction(final Expression incomingExpression) throws ParseException {
         if (ComparisonOperator.class.isInstance(incomingExpression)) {
             ComparisonOperator comparisonOperator = (ComparisonOperator) incomingExpression;
-            String rightExpression = getStringValue(comparisonOperator.getRightExpression());
             if (Function.class.isInstance(comparisonOperator.getLeftExpression())) {
                 Function function = ((Function) comparisonOperator.getLeftExpression());
                 if ("date".equals(function.getName().toLowerCase())
                         && (function.getParameters().getExpressions().size() == 2)
                         && StringValue.class.isInstance(function.getParameters().getExpressions().get(1))) {
                     String column = getStringValue(function.getParameters().getExpressions().get(0));
+                    isFalse(isParameter(comparisonOperator.getRightExpression()),
+                            "parameters are not supported in the value compared to date()");
                     try {
                         return new DateFunction(
                                 ((StringValue) (function.getParameters().getExpressions().get(1))).getValue(),
-                                rightExpression, column, comparisonOperator);
+                                getStringValue(comparisonOperator.getRightExpression()), column, comparisonOperator);
                     } catch (IllegalArgumentException e) {
                         throw new ParseException(e);
                     }
@@ -520,7 +548,6 @@ public final class SqlUtils {
     public static RegexFunction isRegexFunction(final Expression incomingExpression) throws ParseException {
         if (EqualsTo.class.isInstance(incomingExpression)) {
             EqualsTo equalsTo = (EqualsTo) incomingExpression;
-            String rightExpression = equalsTo.getRightExpression().toString();
             if (Function.class.isInstance(equalsTo.getLeftExpression())) {
                 Function function = ((Function) equalsTo.getLeftExpression());
                 if ((REGEXMATCH_FUNCTION.equalsIgnoreCase(function.getName())
@@ -529,7 +556,7 @@ public final class SqlUtils {
                         || function.getParameters().getExpressions().size() == 3)
                         && StringValue.class.isInstance(function.getParameters().getExpressions().get(1))) {
 
-                    final Boolean rightExpressionValue = Boolean.valueOf(rightExpression);
+                    final Boolean rightExpressionValue = Boolean.valueOf(equalsTo.getRightExpression().toString());
 
                     isTrue(rightExpressionValue, "false is not allowed for regexMatch function");
 
@@ -624,7 +651,8 @@ public final class SqlUtils {
      * @return true if is a column.
      */
     public static boolean isColumn(final Expression expression) {
-        return (expression instanceof Column && !((Column) expression).getName(false).matches("^(\".*\"|true|false)$"));
+        return (expression instanceof Column
+                && !QUOTED_OR_BOOLEAN.matcher(((Column) expression).getName(false)).matches());
     }
 
     /**
@@ -767,21 +795,69 @@ public final class SqlUtils {
     }
 
     /**
-     * Clone an {@link Expression}.
+     * Clone an {@link Expression} node by node instead of printing and parsing it again, so the clone can be
+     * rewritten without changing the original.
      * @param expression the expression
      * @return the clone of an expression
      */
     public static Expression cloneExpression(final Expression expression) {
-        if (expression == null) {
-            return null;
+        return ExpressionCloner.cloneExpression(expression);
+    }
+
+    /**
+     * Normalize a sql string so that statements that only differ in formatting are considered equal.  Comments
+     * are removed first, because a line break that ends a <code>--</code> comment can't be collapsed.  Then runs
+     * of whitespace outside of quoted text are collapsed into a single space and leading and trailing whitespace
+     * and semicolons are removed.
+     * @param sql the sql string
+     * @return the normalized sql string
+     */
+    public static String normalizeSql(final String sql) {
+        StringBuilder stringBuilder = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            int commentEnd = quote == 0 ? getCommentEnd(sql, i) : i;
+            if (commentEnd > i) {
+                //a comment separates tokens like whitespace does
+                pendingSpace = stringBuilder.length() > 0;
+                i = commentEnd - 1;
+                continue;
+            }
+            if (quote == 0 && Character.isWhitespace(c)) {
+                pendingSpace = stringBuilder.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                stringBuilder.append(' ');
+                pendingSpace = false;
+            }
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            } else if (quote == c) {
+                quote = 0;
+            }
+            stringBuilder.append(c);
         }
-        try {
-            return CCJSqlParserUtil.parseCondExpression(expression.toString());
-        } catch (JSQLParserException e) {
-            // Never exception because clone
-            e.printStackTrace();
-            return null;
+        int end = stringBuilder.length();
+        while (end > 0 && (stringBuilder.charAt(end - 1) == ';' || stringBuilder.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        stringBuilder.setLength(end);
+        return stringBuilder.toString();
+    }
+
+    //the index after the comment that starts at the index, or the index itself if no comment starts there
+    private static int getCommentEnd(final String sql, final int index) {
+        if (sql.startsWith("--", index)) {
+            int end = sql.indexOf('\n', index);
+            return end == -1 ? sql.length() : end;
+        } else if (sql.startsWith("/*", index)) {
+            int end = sql.indexOf("*/", index + 2);
+            return end == -1 ? sql.length() : end + 2;
         }
+        return index;
     }
 
     /**
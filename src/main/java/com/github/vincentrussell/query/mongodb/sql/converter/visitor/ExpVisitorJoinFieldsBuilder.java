@@ -0,0 +1,85 @@
+package com.github.vincentrussell.query.mongodb.sql.converter.visitor;
+
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.AllTableColumns;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collect the fields of each joined table that are used by the query, so that the <code>$lookup</code> can project
+ * only those fields.  A join alias that is used as a whole, like <code>t2.*</code>, needs all of its fields.
+ */
+public class ExpVisitorJoinFieldsBuilder extends ExpressionVisitorAdapter {
+    private final Map<String, Set<String>> fieldsByAlias = new LinkedHashMap<>();
+    private final Set<String> aliasesWithAllFields = new HashSet<>();
+
+    /**
+     * Default constructor.
+     * @param joinTableAliases the aliases of the joined tables
+     */
+    public ExpVisitorJoinFieldsBuilder(final Collection<String> joinTableAliases) {
+        for (String joinTableAlias : joinTableAliases) {
+            fieldsByAlias.put(joinTableAlias, new LinkedHashSet<String>());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visit(final Column column) {
+        addField(column.getName(false));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visit(final AllColumns allColumns) {
+        aliasesWithAllFields.addAll(fieldsByAlias.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visit(final AllTableColumns allTableColumns) {
+        addField(allTableColumns.getTable().getFullyQualifiedName());
+    }
+
+    /**
+     * add a field that is referenced by name, like a group by field.
+     * @param fieldName the field name, with the alias of the table
+     */
+    public void addField(final String fieldName) {
+        for (Map.Entry<String, Set<String>> entry : fieldsByAlias.entrySet()) {
+            String alias = entry.getKey();
+            if (fieldName.equals(alias)) {
+                aliasesWithAllFields.add(alias);
+            } else if (fieldName.startsWith(alias + ".")) {
+                entry.getValue().add(fieldName.substring(alias.length() + 1));
+            }
+        }
+    }
+
+    /**
+     * get the fields used from each joined table.
+     * @return the fields by join alias, without the aliases that need all of their fields
+     */
+    public Map<String, Set<String>> getFieldsByAlias() {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> entry : fieldsByAlias.entrySet()) {
+            if (!aliasesWithAllFields.contains(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+}
@@ -1,10 +1,14 @@
 package com.github.vincentrussell.query.mongodb.sql.converter;
 
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ReadPreference;
+import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
 import org.junit.contrib.java.lang.system.SystemOutRule;
 import org.junit.contrib.java.lang.system.TextFromStandardInputStream;
@@ -74,6 +78,95 @@ public class MainTest {
         Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost","-db","database","-u","username"});
     }
 
+    @Test
+    public void providedFormatButNoHost() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("provided option f, but missing h");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-f", "ndjson"});
+    }
+
+    @Test
+    public void providedParallelButNoDestination() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("provided option parallel, but missing h or d");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost", "-db", "database", "-par", "4"});
+    }
+
+    @Test
+    public void parallelNotANumber() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("parallel is not a number: many");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost", "-db", "database",
+                "-d", destinationFile.getAbsolutePath(), "--parallel", "many"});
+    }
+
+    @Test
+    public void providedConcurrencyButNoHost() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("provided option concurrency, but missing h");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-c", "4"});
+    }
+
+    @Test
+    public void concurrencyMustBePositive() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("concurrency must be greater than 0");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost", "-db", "database",
+                "--concurrency", "0"});
+    }
+
+    @Test
+    public void providedPoolSizeButNoHost() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("provided option poolSize, but missing h");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "--poolSize", "10"});
+    }
+
+    @Test
+    public void socketTimeoutMustBeANumber() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("socketTimeout is not a number: soon");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost", "-db", "database",
+                "-st", "soon"});
+    }
+
+    @Test
+    public void unknownReadPreference() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("unknown read preference: anywhere");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost", "-db", "database",
+                "-rp", "anywhere"});
+    }
+
+    @Test
+    public void unknownCompressor() throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("unknown compressor: lz4");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost", "-db", "database",
+                "-z", "zlib,lz4"});
+    }
+
+    @Test
+    public void mongoClientOptions() throws ParseException {
+        MongoClientOptions mongoClientOptions = Main.getMongoClientOptions(new DefaultParser().parse(
+                Main.buildOptions(), new String[]{"-sql", "select * from a", "-h", "localhost", "-db", "database",
+                        "--poolSize", "5", "--socketTimeout", "30000", "--connectTimeout", "2000",
+                        "--readPreference", "secondaryPreferred", "--compressors", "zlib"}));
+        assertEquals(5, mongoClientOptions.getConnectionsPerHost());
+        assertEquals(30000, mongoClientOptions.getSocketTimeout());
+        assertEquals(2000, mongoClientOptions.getConnectTimeout());
+        assertEquals(ReadPreference.secondaryPreferred(), mongoClientOptions.getReadPreference());
+        assertEquals(1, mongoClientOptions.getCompressorList().size());
+        assertEquals("zlib", mongoClientOptions.getCompressorList().get(0).getName());
+    }
+
+    @Test
+    public void unknownFormat()throws ClassNotFoundException, ParseException, IOException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exception.expect(ParseException.class);
+        exception.expectMessage("unknown format: csv");
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath(), "-h", "localhost", "-db", "database", "-f", "csv"});
+    }
+
     @Test
     public void interactiveMode() throws IOException,ParseException, ClassNotFoundException, InterruptedException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
         exit.expectSystemExitWithStatus(0);
@@ -274,6 +367,37 @@ public class MainTest {
         }
     }
 
+    @Test
+    public void successfulRunScript() throws IOException, ParseException, ClassNotFoundException, com.github.vincentrussell.query.mongodb.sql.converter.ParseException {
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                assertEquals("******Mongo Query:*********\n" +
+                        "\n" +
+                        "db.my_table.insertMany([{\n" +
+                        "  \"_id\": 1,\n" +
+                        "  \"note\": \"a;b\"\n" +
+                        "}] , {\n" +
+                        "  \"ordered\": false\n" +
+                        "})\n" +
+                        "\n" +
+                        "\n" +
+                        "\n" +
+                        "******Mongo Query:*********\n" +
+                        "\n" +
+                        "db.my_table.remove({\n" +
+                        "  \"_id\": 1\n" +
+                        "})", systemOutRule.getLog().trim());
+            }
+        });
+        try (FileOutputStream fileOutputStream = new FileOutputStream(sourceFile)) {
+            IOUtils.write("insert into my_table (_id, note) values (1, 'a;b');\ndelete from my_table where _id = 1;\n",
+                    fileOutputStream);
+        }
+        Main.main(new String[]{"-s", sourceFile.getAbsolutePath()});
+    }
+
     public interface ExceptionRunnable {
         void run() throws Exception;
     }
@@ -2,6 +2,8 @@ package com.github.vincentrussell.query.mongodb.sql.converter;
 
 import com.github.vincentrussell.query.mongodb.sql.converter.rule.MongoRule;
 import com.google.common.collect.Lists;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.result.UpdateResult;
 import de.flapdoodle.embed.mongo.distribution.Version;
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -10,10 +12,15 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.skyscreamer.jsonassert.JSONAssert;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class MongoV4_0QueryConverterIT extends AbstractQueryConverterIT {
 
@@ -385,4 +392,157 @@ public class MongoV4_0QueryConverterIT extends AbstractQueryConverterIT {
                 "}]",toJson(results),false);
     }
 
+    @Test
+    public void lookupProjectionJoinBySubquery() throws ParseException {
+        String sql = "select r.cuisine as cuisine, r.borough as borough, brest.totalrestaurats as total from "+COLLECTION+" as r inner join (select cuisine, borough, count(*) as totalrestaurats from "+COLLECTION+" group by cuisine, borough) as brest on r.cuisine = brest.cuisine and r.borough = brest.borough order by r.cuisine asc, r.borough asc, r._id limit 15";
+        QueryResultIterator<Document> iterable = new QueryConverter.Builder().sqlString(sql).build().run(mongoDatabase);
+        QueryResultIterator<Document> projectedIterable = new QueryConverter.Builder().sqlString(sql)
+                .lookupProjection(true).build().run(mongoDatabase);
+        assertEquals(Lists.newArrayList(iterable), Lists.newArrayList(projectedIterable));
+    }
+
+    @Test
+    public void lookupProjectionJoinWithWhere() throws ParseException {
+        String sql = "select t1.Phone as Phonet1, t2.managerStaffId as managerStaffIdt2 from "+COLLECTION_CUSTOMERS+" as t1 inner join " + COLLECTION_STORES + " as t2 on t1.Country = t2.Country where t2.managerStaffId = '1' order by t1.Phone";
+        QueryResultIterator<Document> iterable = new QueryConverter.Builder().sqlString(sql).build().run(mongoDatabase);
+        QueryResultIterator<Document> projectedIterable = new QueryConverter.Builder().sqlString(sql)
+                .lookupProjection(true).build().run(mongoDatabase);
+        List<Document> results = Lists.newArrayList(iterable);
+        assertEquals(5, results.size());
+        assertEquals(results, Lists.newArrayList(projectedIterable));
+    }
+
+    @Test
+    public void limitBeforeLeftJoinOnUniqueKey() throws ParseException {
+        String sql = "select t1.Phone as Phonet1, t2.managerStaffId as managerStaffIdt2 from "+COLLECTION_CUSTOMERS+" as t1 left join " + COLLECTION_STORES + " as t2 on t1.storeId = t2._id order by t1.Phone desc limit 3 offset 1";
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(sql).build();
+        QueryConverter limitBeforeJoinQueryConverter = new QueryConverter.Builder().sqlString(sql)
+                .indexCatalog(IndexCatalog.fromDatabase(mongoDatabase)).build();
+        assertEquals("$limit", limitBeforeJoinQueryConverter.getQueryAsDocument().getList("query", Document.class)
+                .get(2).keySet().iterator().next());
+        QueryResultIterator<Document> iterable = queryConverter.run(mongoDatabase);
+        QueryResultIterator<Document> limitBeforeJoinIterable = limitBeforeJoinQueryConverter.run(mongoDatabase);
+        List<Document> results = Lists.newArrayList(iterable);
+        assertEquals(3, results.size());
+        assertEquals(results, Lists.newArrayList(limitBeforeJoinIterable));
+    }
+
+    @Test
+    public void prefetchBatches() throws ParseException, IOException {
+        String sql = "select borough, cuisine from "+COLLECTION+" where borough = 'Queens' order by _id";
+        QueryResultIterator<Document> iterable = new QueryConverter.Builder().sqlString(sql).build().run(mongoDatabase);
+        List<Document> results = Lists.newArrayList(iterable);
+        try (QueryResultIterator<Document> prefetchingIterable = new QueryConverter.Builder().sqlString(sql)
+                .prefetchBatches(2).build().run(mongoDatabase)) {
+            assertEquals(PrefetchingQueryResultIterator.class, prefetchingIterable.getClass());
+            assertEquals(results, Lists.newArrayList(prefetchingIterable));
+        }
+        try (QueryResultIterator<Document> prefetchingIterable = new QueryConverter.Builder().sqlString(sql)
+                .prefetchBatches(1).build().run(mongoDatabase)) {
+            assertEquals(results.get(0), prefetchingIterable.next());
+        }
+    }
+
+    @Test
+    public void createTableAsSelect() throws ParseException {
+        String select = "select borough, count(*) as total from "+COLLECTION+" where cuisine = 'Italian' group by borough";
+        List<Document> results = Lists.newArrayList(new QueryConverter.Builder().sqlString(select + " order by borough")
+                .build().<QueryResultIterator<Document>>run(mongoDatabase));
+        assertEquals(null, new QueryConverter.Builder().sqlString("create table italian_by_borough as " + select)
+                .build().run(mongoDatabase));
+        QueryResultIterator<Document> written = new QueryConverter.Builder().sqlString("select borough, total from "
+                + "italian_by_borough order by borough").build().run(mongoDatabase);
+        assertEquals(false, results.isEmpty());
+        assertEquals(results, Lists.newArrayList(written));
+        try {
+            new QueryConverter.Builder().sqlString("create table italian_by_borough as " + select).build()
+                    .run(mongoDatabase);
+            fail("the table already exists");
+        } catch (IllegalStateException e) {
+            assertEquals("table italian_by_borough already exists, set replaceTable to replace it", e.getMessage());
+        }
+        new QueryConverter.Builder().sqlString("create table italian_by_borough as " + select + " limit 1")
+                .replaceTable(true).build().run(mongoDatabase);
+        assertEquals(1, mongoDatabase.getCollection("italian_by_borough").countDocuments());
+        mongoDatabase.getCollection("italian_by_borough").drop();
+    }
+
+    @Test
+    public void updateWithSetAndInc() throws ParseException {
+        mongoDatabase.getCollection("update_test").insertMany(Arrays.asList(
+                new Document("_id", 1).append("status", "open").append("retries", 0),
+                new Document("_id", 2).append("status", "open").append("retries", 3),
+                new Document("_id", 3).append("status", "closed").append("retries", 1)));
+        UpdateResult updateResult = new QueryConverter.Builder().sqlString("update update_test set status = 'retry', "
+                + "retries = retries + 1 where status = 'open'").build().run(mongoDatabase);
+        assertEquals(2, updateResult.getMatchedCount());
+        assertEquals(2, updateResult.getModifiedCount());
+        assertEquals(Arrays.asList(new Document("_id", 1).append("status", "retry").append("retries", 1L),
+                new Document("_id", 2).append("status", "retry").append("retries", 4L),
+                new Document("_id", 3).append("status", "closed").append("retries", 1)),
+                Lists.newArrayList(mongoDatabase.getCollection("update_test").find().sort(new Document("_id", 1))));
+        mongoDatabase.getCollection("update_test").drop();
+    }
+
+    @Test
+    public void insertValuesInUnorderedBatches() throws ParseException {
+        mongoDatabase.getCollection("insert_test").insertOne(new Document("_id", 2L).append("status", "existing"));
+        try {
+            new QueryConverter.Builder().sqlString("insert into insert_test (_id, status) values (1, 'a'), (2, 'b'), "
+                    + "(3, 'c'), (4, 'd'), (5, 'e')").insertBatchSize(2).build().run(mongoDatabase);
+            fail("the duplicate _id should fail the insert");
+        } catch (MongoBulkWriteException e) {
+            assertEquals(1, e.getWriteErrors().size());
+        }
+        assertEquals(Arrays.asList(new Document("_id", 1L).append("status", "a"),
+                new Document("_id", 2L).append("status", "existing"),
+                new Document("_id", 3L).append("status", "c"),
+                new Document("_id", 4L).append("status", "d"),
+                new Document("_id", 5L).append("status", "e")),
+                Lists.newArrayList(mongoDatabase.getCollection("insert_test").find().sort(new Document("_id", 1))));
+        mongoDatabase.getCollection("insert_test").drop();
+    }
+
+    @Test
+    public void whereOnLeftJoinedTableDropsBaseDocumentsWithoutMatch() throws ParseException, IOException {
+        mongoDatabase.getCollection("left_base").insertMany(Arrays.asList(
+                new Document("_id", 1L).append("name", "a"),
+                new Document("_id", 2L).append("name", "b"),
+                new Document("_id", 3L).append("name", "c")));
+        mongoDatabase.getCollection("left_joined").insertMany(Arrays.asList(
+                new Document("_id", 10L).append("baseId", 1L).append("x", 1L).append("y", 0L),
+                new Document("_id", 11L).append("baseId", 2L).append("x", 0L).append("y", 0L)));
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select t1.name, t2.x from left_base "
+                + "as t1 left join left_joined as t2 on t1._id = t2.baseId where (t2.x = 1 or t2.y = 2)").build();
+        List<String> names = new ArrayList<>();
+        try (QueryResultIterator<Document> iterator = queryConverter.run(mongoDatabase)) {
+            while (iterator.hasNext()) {
+                names.add(iterator.next().getString("name"));
+            }
+        }
+        assertEquals(Collections.singletonList("a"), names);
+        mongoDatabase.getCollection("left_base").drop();
+        mongoDatabase.getCollection("left_joined").drop();
+    }
+
+    @Test
+    public void parallelExport() throws ParseException, IOException {
+        Document queryDocument = new QueryConverter.Builder().sqlString("select borough, cuisine from "+COLLECTION
+                +" where borough = 'Queens'").build().getQueryAsDocument();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long count;
+        try (QueryResultIterator<Document> iterator = new QueryConverter.Builder().sqlString(
+                "select borough, cuisine from "+COLLECTION+" where borough = 'Queens'").build().run(mongoDatabase)) {
+            count = ResultWriter.write(iterator, ResultWriter.Format.NDJSON, outputStream);
+        }
+        ByteArrayOutputStream parallelOutputStream = new ByteArrayOutputStream();
+        assertEquals(count, ParallelExport.export(queryDocument, mongoDatabase, 4, ResultWriter.Format.NDJSON,
+                parallelOutputStream));
+        List<String> lines = Lists.newArrayList(outputStream.toString("UTF-8").split("\n"));
+        List<String> parallelLines = Lists.newArrayList(parallelOutputStream.toString("UTF-8").split("\n"));
+        Collections.sort(lines);
+        Collections.sort(parallelLines);
+        assertEquals(lines, parallelLines);
+    }
+
 }
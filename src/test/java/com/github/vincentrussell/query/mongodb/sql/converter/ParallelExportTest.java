@@ -0,0 +1,85 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import org.apache.commons.io.FileUtils;
+import org.bson.Document;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelExportTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void isSupported() throws ParseException {
+        assertEquals(true, ParallelExport.isSupported(convert("select a, b from c where a > 1")));
+        assertEquals(false, ParallelExport.isSupported(convert("select a from c order by a")));
+        assertEquals(false, ParallelExport.isSupported(convert("select a from c limit 5")));
+        assertEquals(false, ParallelExport.isSupported(convert("select count(*) from c")));
+        assertEquals(false, ParallelExport.isSupported(convert("select distinct a from c")));
+        assertEquals(false, ParallelExport.isSupported(convert("select a, count(*) from c group by a")));
+        assertEquals(false, ParallelExport.isSupported(convert("delete from c where a = 1")));
+    }
+
+    @Test
+    public void idRanges() {
+        List<Object> sortedIds = Arrays.<Object>asList(1, 2, 3, 4, 5, 6, 7, 8, 9);
+        assertEquals(Arrays.asList(
+                new Document("_id", new Document("$not", new Document("$gte", 4))),
+                new Document("_id", new Document("$gte", 4).append("$lt", 7)),
+                new Document("_id", new Document("$gte", 7))),
+                ParallelExport.toIdRanges(sortedIds, 3));
+    }
+
+    @Test
+    public void idRangesWithRepeatedBoundaries() {
+        assertEquals(Arrays.asList(
+                new Document("_id", new Document("$not", new Document("$gte", 1))),
+                new Document("_id", new Document("$gte", 1))),
+                ParallelExport.toIdRanges(Arrays.<Object>asList(1, 1, 1, 1), 4));
+    }
+
+    @Test
+    public void noIdRangesForEmptyOrMixedSamples() {
+        assertEquals(Collections.singletonList(new Document()),
+                ParallelExport.toIdRanges(Collections.emptyList(), 4));
+        assertEquals(Collections.singletonList(new Document()),
+                ParallelExport.toIdRanges(Arrays.<Object>asList(1, 2, "a", "b"), 4));
+    }
+
+    @Test
+    public void mergeJsonParts() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ParallelExport.merge(Arrays.asList(part("{\"_id\": 1}\n{\"_id\": 2}\n"), part(""), part("{\"_id\": 3}\n")),
+                ResultWriter.Format.JSON, outputStream);
+        assertEquals("[{\"_id\": 1},\n{\"_id\": 2},\n{\"_id\": 3}]\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void mergeNdjsonParts() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ParallelExport.merge(Arrays.asList(part("{\"_id\": 1}\n"), part("{\"_id\": 2}\n")),
+                ResultWriter.Format.NDJSON, outputStream);
+        assertEquals("{\"_id\": 1}\n{\"_id\": 2}\n", outputStream.toString("UTF-8"));
+    }
+
+    private File part(final String content) throws IOException {
+        File file = temporaryFolder.newFile();
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    private Document convert(final String sql) throws ParseException {
+        return new QueryConverter.Builder().sqlString(sql).build().getQueryAsDocument();
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.google.common.collect.Lists;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("unchecked")
+public class PrefetchingQueryResultIteratorTest {
+
+    @Test
+    public void returnsAllResultsInOrder() throws Exception {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(i % 100 == 0 ? null : "value" + i);
+        }
+        AtomicBoolean cursorClosed = new AtomicBoolean();
+        try (PrefetchingQueryResultIterator<String> iterator = new PrefetchingQueryResultIterator<>(
+                iterable(values.iterator(), cursorClosed), 2, 10)) {
+            assertEquals(values, Lists.newArrayList(iterator));
+        }
+        assertTrue(cursorClosed.get());
+    }
+
+    @Test
+    public void rethrowsCursorFailure() throws Exception {
+        final Iterator<String> failing = new Iterator<String>() {
+            private int count = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (count++ == 3) {
+                    throw new IllegalStateException("cursor failed");
+                }
+                return "value";
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        AtomicBoolean cursorClosed = new AtomicBoolean();
+        try (PrefetchingQueryResultIterator<String> iterator = new PrefetchingQueryResultIterator<>(
+                iterable(failing, cursorClosed), 1, 1)) {
+            assertEquals(Arrays.asList("value", "value", "value"),
+                    Lists.newArrayList(iterator.next(), iterator.next(), iterator.next()));
+            try {
+                iterator.next();
+                fail("expected the cursor failure");
+            } catch (IllegalStateException e) {
+                assertEquals("cursor failed", e.getMessage());
+            }
+        }
+        assertTrue(cursorClosed.get());
+    }
+
+    @Test
+    public void closeStopsFetcherAndClosesCursor() throws Exception {
+        final CountDownLatch fetched = new CountDownLatch(5);
+        Iterator<String> endless = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                fetched.countDown();
+                return "value";
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        AtomicBoolean cursorClosed = new AtomicBoolean();
+        PrefetchingQueryResultIterator<String> iterator = new PrefetchingQueryResultIterator<>(
+                iterable(endless, cursorClosed), 2, 2);
+        assertEquals("value", iterator.next());
+        assertTrue(fetched.await(10, TimeUnit.SECONDS));
+        iterator.close();
+        assertTrue(cursorClosed.get());
+    }
+
+    @Test(timeout = 10000)
+    public void hasNextAfterCloseReturnsFalse() throws Exception {
+        Iterator<String> endless = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                return "value";
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        PrefetchingQueryResultIterator<String> iterator = new PrefetchingQueryResultIterator<>(
+                iterable(endless, new AtomicBoolean()), 1, 1);
+        assertEquals("value", iterator.next());
+        iterator.close();
+        assertFalse(iterator.hasNext());
+    }
+
+    private static MongoIterable<String> iterable(final Iterator<String> values, final AtomicBoolean cursorClosed) {
+        final MongoCursor<String> cursor = proxy(MongoCursor.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("hasNext".equals(method.getName())) {
+                    return values.hasNext();
+                } else if ("next".equals(method.getName())) {
+                    return values.next();
+                } else if ("close".equals(method.getName())) {
+                    cursorClosed.set(true);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return proxy(MongoIterable.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("iterator".equals(method.getName())) {
+                    return cursor;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler invocationHandler) {
+        return (T) Proxy.newProxyInstance(PrefetchingQueryResultIteratorTest.class.getClassLoader(),
+                new Class<?>[] {type}, invocationHandler);
+    }
+}
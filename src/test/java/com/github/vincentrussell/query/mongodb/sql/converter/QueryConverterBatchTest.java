@@ -0,0 +1,96 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryConverterBatchTest {
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    @After
+    public void after() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void resultsAreInInputOrder() throws ParseException, InterruptedException {
+        List<String> sqlStrings = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            sqlStrings.add("select * from table_" + i + " where value = " + i);
+        }
+        List<ConversionResult> results = new QueryConverter.Builder().convertAll(sqlStrings, executorService);
+        assertEquals(sqlStrings.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ConversionResult result = results.get(i);
+            assertEquals(sqlStrings.get(i), result.getSql());
+            assertTrue(result.isSuccess());
+            assertNull(result.getParseException());
+            assertEquals("table_" + i, result.getCompiledQuery().getCollection());
+            assertEquals(new Document("value", (long) i),
+                    result.getCompiledQuery().getQueryAsDocument().get("query"));
+        }
+    }
+
+    @Test
+    public void sameResultAsBuild() throws ParseException, InterruptedException {
+        QueryConverter.Builder builder = new QueryConverter.Builder()
+                .fieldNameToFieldTypeMapping(ImmutableMap.of("date", FieldType.DATE, "count", FieldType.NUMBER))
+                .defaultFieldType(FieldType.STRING)
+                .aggregationAllowDiskUse(true);
+        List<String> sqlStrings = Arrays.asList(
+                "select * from my_table where date > '2020-01-01' and count = '5' and name = 1",
+                "select a.name, b.value from table_a as a inner join table_b as b on a.id = b.id where a.x = 1",
+                "select name, count(*) from my_table group by name having count(*) > 1 order by name",
+                "delete from my_table where count < 10");
+        List<ConversionResult> results = builder.convertAll(sqlStrings, executorService);
+        for (int i = 0; i < sqlStrings.size(); i++) {
+            assertEquals(builder.copy().sqlString(sqlStrings.get(i)).build().getQueryAsDocument(),
+                    results.get(i).getCompiledQuery().getQueryAsDocument());
+        }
+    }
+
+    @Test
+    public void failuresAreReturnedPerStatement() throws ParseException, InterruptedException {
+        List<ConversionResult> results = new QueryConverter.Builder().convertAll(Arrays.asList(
+                "select * from my_table where value = 1",
+                "select * from my_table where value == 1",
+                "select * from my_table where value = 2"), executorService);
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(1).getParseException().getMessage().contains("double equals (==)"));
+        assertTrue(results.get(2).isSuccess());
+        assertEquals(new Document("value", 2L),
+                results.get(2).getCompiledQuery().getQueryAsDocument().get("query"));
+    }
+
+    @Test(expected = ParseException.class)
+    public void getCompiledQueryRethrowsFailure() throws ParseException, InterruptedException {
+        new QueryConverter.Builder().convertAll(Arrays.asList("select * from"), executorService)
+                .get(0).getCompiledQuery();
+    }
+
+    @Test
+    public void parameterIndexRestartsForEachStatement() throws ParseException, InterruptedException {
+        List<ConversionResult> results = new QueryConverter.Builder().convertAll(Arrays.asList(
+                "select * from my_table where a = ? and b = ?",
+                "select * from my_table where c = ?"), MoreExecutors.directExecutor());
+        assertEquals(new Document("$and", Arrays.asList(new Document("a", 1), new Document("b", 2))),
+                results.get(0).getCompiledQuery().bind(1, 2).getQueryAsDocument().get("query"));
+        assertEquals(new Document("c", 3),
+                results.get(1).getCompiledQuery().bind(3).getQueryAsDocument().get("query"));
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
+import com.google.common.collect.ImmutableMap;
+import org.bson.Document;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class QueryConverterCacheTest {
+
+    @Test
+    public void repeatedQueryIsOnlyConvertedOnce() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder().build();
+        CompiledQuery first = cache.get("select * from my_table where value = 'a b'");
+        CompiledQuery second = cache.get("select *\n  from my_table\twhere value = 'a b';");
+        assertSame(first, second);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void whitespaceInsideQuotesIsSignificant() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder().build();
+        CompiledQuery first = cache.get("select * from my_table where value = 'a b'");
+        CompiledQuery second = cache.get("select * from my_table where value = 'a  b'");
+        assertNotSame(first, second);
+        assertEquals(new Document("value", "a  b"), second.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void compiledQueryMatchesQueryConverter() throws ParseException, IOException {
+        String sql = "select c.cuisine, count(*) from my_table c where c.borough = 'Manhattan' "
+                + "group by c.cuisine order by count(*) desc limit 3";
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(sql).build();
+        CompiledQuery compiledQuery = new QueryConverterCache.Builder().build().get(sql);
+        assertEquals(queryConverter.getQueryAsDocument(), compiledQuery.getQueryAsDocument());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        queryConverter.write(expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        compiledQuery.write(actual);
+        assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+
+    @Test
+    public void compiledQueryCannotBeModifiedByCallers() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder().build();
+        String sql = "select * from my_table where value IN (1, 2, 3)";
+        Document queryDocument = cache.get(sql).getQueryAsDocument();
+        ((Document) queryDocument.get("query")).clear();
+        assertEquals(new Document("value", new Document("$in", java.util.Arrays.asList(1L, 2L, 3L))),
+                cache.get(sql).getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void subQueryStepsAreNotDuplicatedOnRepeatedCalls() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(
+                "select * from (select borough from Restaurants where cuisine = 'American') t limit 2").build();
+        List<Document> first = queryConverter.getQueryAsDocument().getList("query", Document.class);
+        List<Document> second = queryConverter.getQueryAsDocument().getList("query", Document.class);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void usesConverterSettings() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder()
+                .converterBuilder(new QueryConverter.Builder()
+                        .fieldNameToFieldTypeMapping(ImmutableMap.of("value", FieldType.STRING))
+                        .aggregationAllowDiskUse(true))
+                .build();
+        assertEquals(new Document("value", "1"), cache.get("select * from my_table where value = 1")
+                .getQueryAsDocument().get("query"));
+        assertEquals(new Document("allowDiskUse", true), cache.get("select a, count(*) from my_table group by a")
+                .getQueryAsDocument().get("options"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder().maximumEntries(2).build();
+        CompiledQuery first = cache.get("select * from table1");
+        cache.get("select * from table2");
+        cache.get("select * from table1");
+        cache.get("select * from table3");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(first, cache.get("select * from table1"));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void evictsWhenMaximumWeightIsExceeded() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder().build();
+        long weight = cache.get("select * from table1 where a = 1").getWeight();
+
+        cache = new QueryConverterCache.Builder().maximumWeight(weight * 2).build();
+        cache.get("select * from table1 where a = 1");
+        cache.get("select * from table2 where a = 1");
+        assertEquals(weight * 2, cache.getWeight());
+        cache.get("select * from table3 where a = 1");
+        assertEquals(2, cache.size());
+        assertEquals(weight * 2, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void failedConversionsAreNotCached() {
+        QueryConverterCache cache = new QueryConverterCache.Builder().build();
+        try {
+            cache.get("select * from table1 where a == 1");
+            fail("expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(0, cache.size());
+            assertEquals(1, cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void lineBreakThatEndsACommentIsSignificant() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder().build();
+        CompiledQuery withWhere = cache.get("select * from my_table -- c\nwhere value = 1");
+        CompiledQuery withoutWhere = cache.get("select * from my_table -- c where value = 1");
+        assertNotSame(withWhere, withoutWhere);
+        assertEquals(new Document("value", 1L), withWhere.getQueryAsDocument().get("query"));
+        assertEquals(new Document(), withoutWhere.getQueryAsDocument().get("query"));
+        assertSame(withWhere, cache.get("select * from my_table /* c */ where value = 1"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void normalizeSql() {
+        assertEquals("select * from t where a = ' x  y '", SqlUtils.normalizeSql(
+                "  select  *\r\nfrom t\twhere a = ' x  y ' ;; "));
+        assertEquals("select \"a  b\" from t", SqlUtils.normalizeSql("select \"a  b\"   from t"));
+        assertEquals("select * from t where a = '-- x /* y */'", SqlUtils.normalizeSql(
+                "select * -- all\r\nfrom t /* the\ntable */ where a = '-- x /* y */' -- done"));
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("unchecked")
+public class QueryConverterIndexCatalogTest {
+
+    private final IndexCatalog indexCatalog = new IndexCatalog.Builder()
+            .addIndex("orders", new Document("status", 1).append("created", -1).append("amount", 1))
+            .addIndex("orders", new Document("name", "text"))
+            .addUniqueIndex("customers", new Document("email", 1))
+            .build();
+
+    @Test
+    public void equalityThenRangeInIndexOrder() throws ParseException {
+        Document query = convert("select * from orders where amount > 10 and name like 'x%' "
+                + "and created > 5 and status = 'A'");
+        assertEquals(new Document("$and", Arrays.asList(
+                new Document("status", "A"),
+                new Document("created", new Document("$gt", 5L)),
+                new Document("amount", new Document("$gt", 10L)),
+                new Document("name", new Document("$regex", "^x.*$")))),
+                query.get("query"));
+    }
+
+    @Test
+    public void sameQueryNoMatterHowTheWhereClauseIsWritten() throws ParseException {
+        assertEquals(convert("select * from orders where status = 'A' and created > 5 and amount > 10"),
+                convert("select * from orders where amount > 10 and (created > 5 and status = 'A')"));
+        assertEquals(convert("select * from orders where status = 'A' and created > 5 and amount > 10"),
+                convert("select * from orders where created > 5 and amount > 10 and status = 'A'"));
+    }
+
+    @Test
+    public void rangeAfterSort() throws ParseException {
+        Document query = convert("select * from orders where amount > 10 and status = 'A' order by created desc");
+        assertEquals(new Document("$and", Arrays.asList(
+                new Document("status", "A"),
+                new Document("amount", new Document("$gt", 10L)))),
+                query.get("query"));
+        assertEquals(new Document("created", -1), query.get("sort"));
+    }
+
+    @Test
+    public void selectivePredicatesFirstWithoutMatchingIndex() throws ParseException {
+        Document query = convert("select * from orders where note <> 'x' and total > 5 and kind IN ('a', 'b') "
+                + "and region = 'eu'");
+        assertEquals(new Document("$and", Arrays.asList(
+                new Document("region", "eu"),
+                new Document("kind", new Document("$in", Arrays.asList("a", "b"))),
+                new Document("total", new Document("$gt", 5L)),
+                new Document("note", new Document("$ne", "x")))),
+                query.get("query"));
+    }
+
+    @Test
+    public void orBranchesAreOrdered() throws ParseException {
+        Document query = convert("select * from orders where (amount > 10 and status = 'A') "
+                + "or (created = 4 and name = 'b')");
+        assertEquals(new Document("$or", Arrays.asList(
+                new Document("$and", Arrays.asList(
+                        new Document("status", "A"),
+                        new Document("amount", new Document("$gt", 10L)))),
+                new Document("$and", Arrays.asList(
+                        new Document("created", 4L),
+                        new Document("name", "b"))))),
+                query.get("query"));
+    }
+
+    @Test
+    public void sortBeforeJoinWhenIndexProvidesOrder() throws ParseException {
+        Document query = convert("select o.amount, c.name from orders as o inner join customers as c "
+                + "on o.customer_id = c._id where o.status = 'A' order by o.created desc");
+        List<Document> steps = (List<Document>) query.get("query");
+        assertEquals(new Document("$match", new Document("status", "A")), steps.get(0));
+        assertEquals(new Document("$sort", new Document("created", -1)), steps.get(1));
+        assertEquals("$lookup", steps.get(2).keySet().iterator().next());
+        assertEquals(5, steps.size());
+    }
+
+    @Test
+    public void sortAfterJoinWhenSortingOnJoinedTable() throws ParseException {
+        Document query = convert("select o.amount, c.name from orders as o inner join customers as c "
+                + "on o.customer_id = c._id where o.status = 'A' order by c.name");
+        List<Document> steps = (List<Document>) query.get("query");
+        assertEquals(new Document("$sort", new Document("c.name", 1)), steps.get(3));
+    }
+
+    @Test
+    public void sortAfterJoinWithoutIndex() throws ParseException {
+        Document query = convert("select o.amount, c.name from orders as o inner join customers as c "
+                + "on o.customer_id = c._id where o.status = 'A' order by o.amount");
+        List<Document> steps = (List<Document>) query.get("query");
+        assertEquals(new Document("$sort", new Document("amount", 1)), steps.get(3));
+    }
+
+    @Test
+    public void limitBeforeLeftJoinOnUniqueKey() throws ParseException {
+        Document query = convert("select o.amount, c.name from orders as o left join customers as c "
+                + "on o.customer_id = c._id left join customers as c2 on c2.email = o.email "
+                + "where o.status = 'A' order by o.amount desc limit 50 offset 5");
+        List<Document> steps = (List<Document>) query.get("query");
+        assertEquals(Arrays.asList(new Document("$match", new Document("status", "A")),
+                new Document("$sort", new Document("amount", -1)),
+                new Document("$skip", 5L),
+                new Document("$limit", 50L)), steps.subList(0, 4));
+        assertEquals("$lookup", steps.get(4).keySet().iterator().next());
+        assertEquals(new Document("$project", new Document("_id", 0).append("amount", 1).append("c.name", 1)),
+                steps.get(steps.size() - 1));
+        assertEquals(9, steps.size());
+    }
+
+    @Test
+    public void limitAfterJoinThatCanChangeTheDocuments() throws ParseException {
+        assertLimitAfterJoin("select o.amount, c.name from orders as o inner join customers as c "
+                + "on o.customer_id = c._id order by o.amount limit 50");
+        assertLimitAfterJoin("select o.amount, c.name from orders as o left join customers as c "
+                + "on o.customer_id = c.customer_id order by o.amount limit 50");
+        assertLimitAfterJoin("select o.amount, c.name from orders as o left join customers as c "
+                + "on o.customer_id = c._id where o.total > c.credit order by o.amount limit 50");
+        assertLimitAfterJoin("select o.amount, c.name from orders as o left join customers as c "
+                + "on o.customer_id = c._id where c.name <> 'x' order by o.amount limit 50");
+        assertLimitAfterJoin("select o.amount, c.name from orders as o left join customers as c "
+                + "on o.customer_id = c._id where (c.name = 'x' or c.name = 'y') order by o.amount limit 50");
+        assertLimitAfterJoin("select o.amount, c.name from orders as o left join customers as c "
+                + "on o.customer_id = c._id order by c.name limit 50");
+        assertLimitAfterJoin("select o.status, count(*) from orders as o left join customers as c "
+                + "on o.customer_id = c._id group by o.status limit 50");
+    }
+
+    @Test
+    public void fromDatabaseReadsUniqueIndexes() {
+        IndexCatalog catalog = IndexCatalog.fromDatabase(database(new AtomicInteger(), Arrays.asList(
+                new Document("v", 2).append("key", new Document("_id", 1)).append("name", "_id_"),
+                new Document("v", 2).append("key", new Document("email", 1)).append("name", "email_1")
+                        .append("unique", true),
+                new Document("v", 2).append("key", new Document("code", 1)).append("name", "code_1")
+                        .append("unique", true).append("sparse", true),
+                new Document("v", 2).append("key", new Document("a", 1).append("b", 1)).append("name", "a_1_b_1")
+                        .append("unique", true))));
+        assertEquals(true, catalog.isUnique("customers", "_id"));
+        assertEquals(true, catalog.isUnique("customers", "email"));
+        assertEquals(false, catalog.isUnique("customers", "code"));
+        assertEquals(false, catalog.isUnique("customers", "a"));
+    }
+
+    private void assertLimitAfterJoin(final String sql) throws ParseException {
+        List<Document> steps = (List<Document>) convert(sql).get("query");
+        int lookupIndex = -1;
+        int limitIndex = -1;
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i).containsKey("$lookup") && lookupIndex == -1) {
+                lookupIndex = i;
+            } else if (steps.get(i).containsKey("$limit")) {
+                limitIndex = i;
+            }
+        }
+        assertEquals(true, lookupIndex != -1 && limitIndex > lookupIndex);
+    }
+
+    @Test
+    public void noCatalogKeepsOriginalOrder() throws ParseException {
+        Document query = new QueryConverter.Builder().sqlString(
+                "select * from orders where amount > 10 and status = 'A'").build().getQueryAsDocument();
+        assertEquals(new Document("$and", Arrays.asList(
+                new Document("amount", new Document("$gt", 10L)),
+                new Document("status", "A"))),
+                query.get("query"));
+    }
+
+    @Test
+    public void fromDatabaseReadsIndexesOnce() throws ParseException {
+        final AtomicInteger listIndexesCalls = new AtomicInteger();
+        IndexCatalog catalog = IndexCatalog.fromDatabase(database(listIndexesCalls, Arrays.asList(
+                new Document("v", 2).append("key", new Document("_id", 1)).append("name", "_id_"),
+                new Document("v", 2).append("key", new Document("status", 1).append("amount", 1))
+                        .append("name", "status_1_amount_1"))));
+        QueryConverter.Builder builder = new QueryConverter.Builder().indexCatalog(catalog);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(new Document("$and", Arrays.asList(
+                    new Document("status", "A"),
+                    new Document("amount", new Document("$gt", 10L)))),
+                    builder.sqlString("select * from orders where amount > 10 and status = 'A'").build()
+                            .getQueryAsDocument().get("query"));
+        }
+        assertEquals(1, listIndexesCalls.get());
+        catalog.invalidate("orders");
+        assertEquals(Arrays.asList(new Document("_id", 1), new Document("status", 1).append("amount", 1)),
+                catalog.getIndexes("orders"));
+        assertEquals(2, listIndexesCalls.get());
+    }
+
+    private Document convert(final String sql) throws ParseException {
+        return new QueryConverter.Builder().indexCatalog(indexCatalog).sqlString(sql).build().getQueryAsDocument();
+    }
+
+    private static MongoDatabase database(final AtomicInteger listIndexesCalls, final List<Document> indexes) {
+        final ListIndexesIterable<?> listIndexesIterable = proxy(ListIndexesIterable.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("into".equals(method.getName())) {
+                    ((Collection<Document>) args[0]).addAll(indexes);
+                    return args[0];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final MongoCollection<?> collection = proxy(MongoCollection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("listIndexes".equals(method.getName())) {
+                    listIndexesCalls.incrementAndGet();
+                    return listIndexesIterable;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return proxy(MongoDatabase.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("getCollection".equals(method.getName())) {
+                    return collection;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler invocationHandler) {
+        return (T) Proxy.newProxyInstance(QueryConverterIndexCatalogTest.class.getClassLoader(),
+                new Class<?>[] {type}, invocationHandler);
+    }
+}
@@ -1,5 +1,9 @@
 package com.github.vincentrussell.query.mongodb.sql.converter;
 
+import com.github.vincentrussell.query.mongodb.sql.converter.util.SqlUtils;
+import com.github.vincentrussell.query.mongodb.sql.converter.visitor.ExpVisitorEraseAliasTableBaseBuilder;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import org.bson.Document;
 import org.junit.Rule;
 import org.junit.Test;
@@ -10,6 +14,7 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 public class QueryConverterJoinTest {
 
@@ -1066,6 +1071,180 @@ public class QueryConverterJoinTest {
         return document;
     }
 
+    @Test
+    public void orOnBaseTableIsMatchedBeforeJoin() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select t1.column1, t2.column2 from my_table as t1 inner join my_table2 as t2 on t1.column = t2.column where (t1.a = 1 or t1.b = 2) and t2.c = 3").build();
+        assertEquals(Arrays.asList(
+                new Document("$match", documentValuesArray("$or", new Document("a", 1L), new Document("b", 2L))),
+                new Document("$lookup", new Document("from", "my_table2")
+                        .append("let", new Document("column", "$column"))
+                        .append("pipeline", Arrays.asList(new Document("$match", documentValuesArray("$and",
+                                new Document("$expr", documentValuesArray("$eq", "$$column", "$column")),
+                                new Document("c", 3L)))))
+                        .append("as", "t2")),
+                new Document("$unwind", new Document("path", "$t2").append("preserveNullAndEmptyArrays", false)),
+                new Document("$project", new Document("_id", 0).append("column1", 1).append("t2.column2", 1))),
+                queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void orOnJoinedTableIsMatchedInLookupPipeline() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select t1.column1, t2.column2 from my_table as t1 inner join my_table2 as t2 on t1.column = t2.column where t1.a = 1 and (t2.b = 2 or t2.c = 3)").build();
+        assertEquals(Arrays.asList(
+                new Document("$match", new Document("a", 1L)),
+                new Document("$lookup", new Document("from", "my_table2")
+                        .append("let", new Document("column", "$column"))
+                        .append("pipeline", Arrays.asList(new Document("$match", documentValuesArray("$and",
+                                new Document("$expr", documentValuesArray("$eq", "$$column", "$column")),
+                                documentValuesArray("$or", new Document("b", 2L), new Document("c", 3L))))))
+                        .append("as", "t2")),
+                new Document("$unwind", new Document("path", "$t2").append("preserveNullAndEmptyArrays", false)),
+                new Document("$project", new Document("_id", 0).append("column1", 1).append("t2.column2", 1))),
+                queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void orOnLeftJoinedTableIsMatchedAfterUnwind() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select t1.column1, t2.column2 from my_table as t1 left join my_table2 as t2 on t1.column = t2.column where t1.a = 1 and (t2.b = 2 or t2.c = 3)").build();
+        assertEquals(Arrays.asList(
+                new Document("$match", new Document("a", 1L)),
+                new Document("$lookup", new Document("from", "my_table2")
+                        .append("let", new Document("column", "$column"))
+                        .append("pipeline", Arrays.asList(new Document("$match",
+                                new Document("$expr", documentValuesArray("$eq", "$$column", "$column")))))
+                        .append("as", "t2")),
+                new Document("$unwind", new Document("path", "$t2").append("preserveNullAndEmptyArrays", true)),
+                new Document("$match", documentValuesArray("$or", new Document("t2.b", 2L),
+                        new Document("t2.c", 3L))),
+                new Document("$project", new Document("_id", 0).append("column1", 1).append("t2.column2", 1))),
+                queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void orAcrossTablesIsMatchedAfterJoinAndTheRestIsPushedDown() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select t1.column1, t2.column2 from my_table as t1 inner join my_table2 as t2 on t1.column = t2.column where t1.a = 1 and (t1.b = 2 or t2.c = 3) and t2.d = 4").build();
+        assertEquals(Arrays.asList(
+                new Document("$match", new Document("a", 1L)),
+                new Document("$lookup", new Document("from", "my_table2")
+                        .append("let", new Document("column", "$column"))
+                        .append("pipeline", Arrays.asList(new Document("$match", documentValuesArray("$and",
+                                new Document("$expr", documentValuesArray("$eq", "$$column", "$column")),
+                                new Document("d", 4L)))))
+                        .append("as", "t2")),
+                new Document("$unwind", new Document("path", "$t2").append("preserveNullAndEmptyArrays", false)),
+                new Document("$match", documentValuesArray("$or", new Document("b", 2L), new Document("t2.c", 3L))),
+                new Document("$project", new Document("_id", 0).append("column1", 1).append("t2.column2", 1))),
+                queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void localForeignFieldLookup() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().lookupStyle(LookupStyle.LOCAL_FOREIGN_FIELD).sqlString("select t1.c1, t2.c2, t3.c3 from a as t1 inner join b as t2 on t1.nested.id = t2.aid left join c as t3 on t3.bid = t2.id where t2.x = 1").build();
+        assertEquals(Arrays.asList(
+                new Document("$lookup", new Document("from", "b")
+                        .append("let", new Document("nested_id", "$nested.id"))
+                        .append("pipeline", Arrays.asList(new Document("$match", documentValuesArray("$and",
+                                new Document("$expr", documentValuesArray("$eq", "$$nested_id", "$aid")),
+                                new Document("x", 1L)))))
+                        .append("as", "t2")),
+                new Document("$unwind", new Document("path", "$t2").append("preserveNullAndEmptyArrays", false)),
+                new Document("$lookup", new Document("from", "c").append("localField", "t2.id")
+                        .append("foreignField", "bid").append("as", "t3")),
+                new Document("$unwind", new Document("path", "$t3").append("preserveNullAndEmptyArrays", true)),
+                new Document("$project", new Document("_id", 0).append("c1", 1).append("t2.c2", 1)
+                        .append("t3.c3", 1))),
+                queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void localForeignFieldWithPipelineLookup() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().lookupStyle(LookupStyle.LOCAL_FOREIGN_FIELD_WITH_PIPELINE).sqlString("select t1.c1, t2.c2 from a as t1 inner join b as t2 on t1.nested.id = t2.aid where t2.x = 1").build();
+        assertEquals(Arrays.asList(
+                new Document("$lookup", new Document("from", "b").append("localField", "nested.id")
+                        .append("foreignField", "aid")
+                        .append("pipeline", Arrays.asList(new Document("$match", new Document("x", 1L))))
+                        .append("as", "t2")),
+                new Document("$unwind", new Document("path", "$t2").append("preserveNullAndEmptyArrays", false)),
+                new Document("$project", new Document("_id", 0).append("c1", 1).append("t2.c2", 1))),
+                queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void localForeignFieldLookupNotUsedForCompoundOn() throws ParseException {
+        String sql = "select t1.c1 from a as t1 join b as t2 on t1.id = t2.aid and t1.k = t2.k";
+        assertEquals(new QueryConverter.Builder().sqlString(sql).build().getQueryAsDocument(),
+                new QueryConverter.Builder().lookupStyle(LookupStyle.LOCAL_FOREIGN_FIELD_WITH_PIPELINE)
+                        .sqlString(sql).build().getQueryAsDocument());
+    }
+
+    @Test
+    public void lookupProjection() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().lookupProjection(true).sqlString("select t1.c1, t2.c2, t3.c3 from a as t1 inner join b as t2 on t1.id = t2.aid left join c as t3 on t3.bid = t2.id where t2.x = 1 and t3.y.z = 2 order by t3.y, t2.c2").build();
+        assertEquals(Arrays.asList(
+                new Document("$lookup", new Document("from", "b")
+                        .append("let", new Document("id", "$id"))
+                        .append("pipeline", Arrays.asList(new Document("$match", documentValuesArray("$and",
+                                new Document("$expr", documentValuesArray("$eq", "$$id", "$aid")),
+                                new Document("x", 1L))),
+                                new Document("$project", new Document("_id", 1).append("aid", 1).append("c2", 1)
+                                        .append("id", 1).append("x", 1))))
+                        .append("as", "t2")),
+                new Document("$unwind", new Document("path", "$t2").append("preserveNullAndEmptyArrays", false)),
+                new Document("$lookup", new Document("from", "c")
+                        .append("let", new Document("t2_id", "$t2.id"))
+                        .append("pipeline", Arrays.asList(new Document("$match",
+                                new Document("$expr", documentValuesArray("$eq", "$bid", "$$t2_id"))),
+                                new Document("$project", new Document("_id", 1).append("bid", 1).append("c3", 1)
+                                        .append("y", 1))))
+                        .append("as", "t3")),
+                new Document("$unwind", new Document("path", "$t3").append("preserveNullAndEmptyArrays", true)),
+                new Document("$match", new Document("t3.y.z", 2L)),
+                new Document("$sort", new Document("t3.y", 1).append("t2.c2", 1)),
+                new Document("$project", new Document("_id", 0).append("c1", 1).append("t2.c2", 1)
+                        .append("t3.c3", 1))),
+                queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void lookupProjectionKeepsAllFieldsOfAliasUsedAsAWhole() throws ParseException {
+        String sql = "select t1.c1, t2 from a as t1 inner join b as t2 on t1.id = t2.aid";
+        assertEquals(new QueryConverter.Builder().sqlString(sql).build().getQueryAsDocument(),
+                new QueryConverter.Builder().lookupProjection(true).sqlString(sql).build().getQueryAsDocument());
+        sql = "select * from a as t1 inner join b as t2 on t1.id = t2.aid";
+        assertEquals(new QueryConverter.Builder().sqlString(sql).build().getQueryAsDocument(),
+                new QueryConverter.Builder().lookupProjection(true).sqlString(sql).build().getQueryAsDocument());
+    }
+
+    @Test
+    public void lookupProjectionWithLocalForeignField() throws ParseException {
+        String sql = "select t1.c1, t2.c2 from a as t1 inner join b as t2 on t1.id = t2.aid";
+        assertEquals(new QueryConverter.Builder().lookupStyle(LookupStyle.LOCAL_FOREIGN_FIELD).sqlString(sql).build()
+                        .getQueryAsDocument(),
+                new QueryConverter.Builder().lookupStyle(LookupStyle.LOCAL_FOREIGN_FIELD).lookupProjection(true)
+                        .sqlString(sql).build().getQueryAsDocument());
+        assertEquals(new Document("$lookup", new Document("from", "b").append("localField", "id")
+                        .append("foreignField", "aid")
+                        .append("pipeline", Arrays.asList(new Document("$project", new Document("_id", 1)
+                                .append("aid", 1).append("c2", 1))))
+                        .append("as", "t2")),
+                new QueryConverter.Builder().lookupStyle(LookupStyle.LOCAL_FOREIGN_FIELD_WITH_PIPELINE)
+                        .lookupProjection(true).sqlString(sql).build().getQueryAsDocument()
+                        .getList("query", Document.class).get(0));
+    }
+
+    @Test
+    public void cloneWhereClauseWithoutChangingOriginal() throws Exception {
+        String where = "t1.a = 1 AND (t1.b <> 'x' OR NOT t1.c > -2) AND t1.d BETWEEN 1 AND 5 AND t1.e LIKE 'st%' "
+                + "AND t1.f NOT IN (1, 2) AND t1.g IS NOT NULL AND date(t1.h, 'natural') >= '5 days ago' AND t1.i = ?";
+        Expression original = CCJSqlParserUtil.parseCondExpression(where);
+        Expression clone = SqlUtils.cloneExpression(original);
+        assertNotSame(original, clone);
+        assertEquals(original.toString(), clone.toString());
+        clone.accept(new ExpVisitorEraseAliasTableBaseBuilder("t1"));
+        assertEquals(CCJSqlParserUtil.parseCondExpression(where).toString(), original.toString());
+        assertEquals(original.toString().replace("t1.", ""), clone.toString());
+    }
+
     private static Document documentValuesArray(String key, Object... values) {
         return new Document(key,Arrays.asList(values));
     }
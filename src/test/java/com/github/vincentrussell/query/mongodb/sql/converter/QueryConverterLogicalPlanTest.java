@@ -0,0 +1,81 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.github.vincentrussell.query.mongodb.sql.converter.holder.from.SQLCommandInfoHolder;
+import com.github.vincentrussell.query.mongodb.sql.converter.plan.BsonEmitter;
+import com.github.vincentrussell.query.mongodb.sql.converter.plan.LogicalPlan;
+import com.github.vincentrussell.query.mongodb.sql.converter.plan.PlanStage;
+import org.bson.Document;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueryConverterLogicalPlanTest {
+
+    @Test
+    public void planStagesForJoinWithGroupBy() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select t1.c1, count(t2.c2) from a as t1 "
+                + "inner join b as t2 on t1.id = t2.aid where t1.x = 1 group by t1.c1 order by t1.c1 limit 5").build();
+        LogicalPlan logicalPlan = queryConverter.getLogicalPlan();
+        assertEquals("a", logicalPlan.getCollection());
+        List<PlanStage.Kind> kinds = new ArrayList<>();
+        for (PlanStage stage : logicalPlan.getStages()) {
+            kinds.add(stage.getKind());
+        }
+        assertEquals(Arrays.asList(PlanStage.Kind.FILTER, PlanStage.Kind.LOOKUP, PlanStage.Kind.UNWIND,
+                PlanStage.Kind.GROUP, PlanStage.Kind.SORT, PlanStage.Kind.LIMIT, PlanStage.Kind.PROJECT), kinds);
+        assertEquals(BsonEmitter.toPipeline(logicalPlan), queryConverter.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void emittedPipelineDoesNotChangePlan() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder()
+                .sqlString("select c1, count(*) from a where x = 1 group by c1").build();
+        LogicalPlan logicalPlan = queryConverter.getLogicalPlan();
+        List<Document> pipeline = BsonEmitter.toPipeline(logicalPlan);
+        ((Document) pipeline.get(0).get("$match")).put("x", 2L);
+        logicalPlan.getStages().get(0).toDocument().put("$sort", new Document("y", 1));
+        assertEquals(new Document("$match", new Document("x", 1L)), logicalPlan.getStages().get(0).toDocument());
+        assertEquals(logicalPlan, new QueryConverter.Builder()
+                .sqlString("select c1, count(*) from a where x = 1 group by c1").build().getLogicalPlan());
+    }
+
+    @Test
+    public void stageBodyIsCopiedWhenCreatedAndWhenRead() {
+        Document query = new Document("x", 1L);
+        PlanStage stage = PlanStage.of(PlanStage.Kind.FILTER, query);
+        query.put("y", 2L);
+        ((Document) stage.getBody()).put("z", 3L);
+        assertNotSame(stage.getBody(), stage.getBody());
+        assertEquals(new Document("x", 1L), stage.getBody());
+        assertEquals(new Document("$match", new Document("x", 1L)), stage.toDocument());
+    }
+
+    @Test
+    public void convertingDoesNotChangeTheParsedStatement() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select t.c1, count(*) from a as t "
+                + "inner join b as u on t.id = u.aid where t.x = 1 and u.y = 2 group by t.c1 order by t.c1").build();
+        SQLCommandInfoHolder sqlCommandInfoHolder = queryConverter.getSqlCommandInfoHolder();
+        assertEquals("t.x = 1 AND u.y = 2", sqlCommandInfoHolder.getWhereClause().toString());
+        assertEquals("[t.c1, count(*)]", sqlCommandInfoHolder.getSelectItems().toString());
+        assertEquals("[t.c1]", sqlCommandInfoHolder.getOrderByElements().toString());
+    }
+
+    @Test
+    public void findQueryPlan() throws ParseException {
+        LogicalPlan logicalPlan = new QueryConverter.Builder()
+                .sqlString("select c1 from a where x = 1 order by c1 desc").build().getLogicalPlan();
+        assertTrue(logicalPlan.hasStage(PlanStage.Kind.SORT));
+        assertFalse(logicalPlan.hasStage(PlanStage.Kind.LOOKUP));
+        assertEquals(Arrays.asList(new Document("$match", new Document("x", 1L)),
+                new Document("$sort", new Document("c1", -1)),
+                new Document("$project", new Document("_id", 0).append("c1", 1))),
+                BsonEmitter.toPipeline(logicalPlan));
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.google.common.collect.ImmutableMap;
+import org.bson.Document;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryConverterParameterTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void positionalParameters() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(
+                "select * from my_table where value = ? and count > ? and type IN (?, ?)").build();
+        assertTrue(queryConverter.compile().hasParameters());
+        CompiledQuery compiledQuery = queryConverter.bind("theValue", 5, "a", "b");
+        assertFalse(compiledQuery.hasParameters());
+        assertEquals(new Document("$and", Arrays.asList(
+                new Document("value", "theValue"),
+                new Document("count", new Document("$gt", 5)),
+                new Document("type", new Document("$in", Arrays.asList("a", "b"))))),
+                compiledQuery.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void positionalParametersWithFixedIndex() throws ParseException {
+        CompiledQuery compiledQuery = new QueryConverter.Builder().sqlString(
+                "select * from my_table where value >= ?2 and value <= ?1").build().bind(10L, 1L);
+        assertEquals(new Document("$and", Arrays.asList(
+                new Document("value", new Document("$gte", 1L)),
+                new Document("value", new Document("$lte", 10L)))),
+                compiledQuery.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void namedParameters() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(
+                "select * from my_table where value = :value or other = :value").build();
+        CompiledQuery compiledQuery = queryConverter.bind(ImmutableMap.of("value", "x"));
+        assertEquals(new Document("$or", Arrays.asList(
+                new Document("value", "x"),
+                new Document("other", "x"))),
+                compiledQuery.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void templateIsReusable() throws ParseException {
+        CompiledQuery template = new QueryConverter.Builder().sqlString(
+                "select * from my_table where value = ?").build().compile();
+        assertEquals(new Document("value", 1), template.bind(1).getQueryAsDocument().get("query"));
+        assertEquals(new Document("value", 2), template.bind(2).getQueryAsDocument().get("query"));
+        assertTrue(template.hasParameters());
+    }
+
+    @Test
+    public void parametersAreConvertedToFieldType() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(
+                "select * from my_table where num = ? and str = ? and bool = ? and other = ?")
+                .fieldNameToFieldTypeMapping(ImmutableMap.of("num", FieldType.NUMBER, "str", FieldType.STRING,
+                        "bool", FieldType.BOOLEAN))
+                .build();
+        CompiledQuery compiledQuery = queryConverter.bind("12", 12, "true", "it''s");
+        assertEquals(new Document("$and", Arrays.asList(
+                new Document("num", 12L),
+                new Document("str", "12"),
+                new Document("bool", true),
+                new Document("other", "it''s"))),
+                compiledQuery.getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void parametersInJoinAndGroupBy() throws ParseException {
+        String sql = "select t1.column1, count(*) from my_table as t1 inner join my_table2 as t2 "
+                + "on t1.column = t2.column where t1.value = ? and t2.value = ? group by t1.column1";
+        CompiledQuery compiledQuery = new QueryConverter.Builder().sqlString(sql).build().bind("a", "b");
+        assertEquals(new QueryConverter.Builder().sqlString(sql.replace("t1.value = ?", "t1.value = 'a'")
+                .replace("t2.value = ?", "t2.value = 'b'")).build().getQueryAsDocument(),
+                compiledQuery.getQueryAsDocument());
+    }
+
+    @Test
+    public void cachedTemplate() throws ParseException {
+        QueryConverterCache cache = new QueryConverterCache.Builder().build();
+        List<Object> results = Arrays.<Object>asList(
+                cache.get("select * from my_table where value = ?").bind("a").getQueryAsDocument().get("query"),
+                cache.get("select * from my_table where value = ?").bind("b").getQueryAsDocument().get("query"));
+        assertEquals(Arrays.asList(new Document("value", "a"), new Document("value", "b")), results);
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void writeTemplate() throws ParseException, IOException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(
+                "select * from my_table where value = :value").build();
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        queryConverter.write(byteArrayOutputStream);
+        assertEquals("db.my_table.find({\n"
+                + "  \"value\": {\n"
+                + "    \"$parameter\": \"value\"\n"
+                + "  }\n"
+                + "})", byteArrayOutputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void missingPositionalValue() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("no value bound for parameter ?2");
+        new QueryConverter.Builder().sqlString("select * from my_table where a = ? and b = ?").build().bind(1);
+    }
+
+    @Test
+    public void missingNamedValue() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("no value bound for parameter :b");
+        new QueryConverter.Builder().sqlString("select * from my_table where a = :a and b = :b").build()
+                .bind(Collections.<String, Object>singletonMap("a", 1));
+    }
+
+    @Test
+    public void runUnboundTemplate() throws ParseException {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("query has unbound parameters, call bind first");
+        new QueryConverter.Builder().sqlString("select * from my_table where a = ?").build().run(null);
+    }
+
+    @Test
+    public void likeParameter() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(
+                "select * from my_table where value like ?").build();
+        assertTrue(queryConverter.compile().hasParameters());
+        assertEquals(new Document("value", new Document("$regex", "^a.*$")),
+                queryConverter.bind("a%").getQueryAsDocument().get("query"));
+    }
+
+    @Test
+    public void notLikeParameter() throws ParseException {
+        Document query = (Document) new QueryConverter.Builder().sqlString(
+                "select * from my_table where value not like :value").build()
+                .bind(ImmutableMap.of("value", "b_")).getQueryAsDocument().get("query");
+        Pattern pattern = (Pattern) ((Document) query.get("value")).get("$not");
+        assertEquals("^b.{1}$", pattern.pattern());
+    }
+
+    @Test
+    public void likeParameterCanNotBeNull() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("the value of a LIKE parameter can not be null");
+        new QueryConverter.Builder().sqlString("select * from my_table where value like ?").build()
+                .bind((Object) null);
+    }
+
+    @Test
+    public void parameterInDateFunctionIsNotSupported() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("parameters are not supported in the value compared to date()");
+        new QueryConverter.Builder().sqlString("select * from my_table where date(value, 'YYYY-MM-DD') >= ?")
+                .build();
+    }
+
+    @Test
+    public void parameterInLimitIsNotSupported() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("parameters are not supported in LIMIT");
+        new QueryConverter.Builder().sqlString("select * from my_table limit ?").build();
+    }
+
+    @Test
+    public void parameterInOffsetIsNotSupported() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("parameters are not supported in OFFSET");
+        new QueryConverter.Builder().sqlString("select * from my_table limit 5 offset ?").build();
+    }
+
+    @Test
+    public void parameterAsConditionIsNotSupported() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("parameters are not supported here: ?");
+        new QueryConverter.Builder().sqlString("select * from my_table where ?").build();
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.vincentrussell.query.mongodb.sql.converter;
 
+import com.github.vincentrussell.query.mongodb.sql.converter.util.DateLiteralParser;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import org.bson.Document;
@@ -215,6 +216,17 @@ public class QueryConverterTest {
         assertEquals(document("value",document("$gt", toDate("yyyy-MM-dd", "2012-12-01"))),mongoDBQueryHolder.getQuery());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void selectAllFromTableWithSimpleWhereClauseLongOverrideWithDateNoDashesGT() throws ParseException, java.text.ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select * from my_table where value > \"20121201\"").fieldNameToFieldTypeMapping(new HashMap(){{
+            put("value",FieldType.DATE);
+        }}
+        ).build();
+        MongoDBQueryHolder mongoDBQueryHolder = queryConverter.getMongoQuery();
+        assertEquals(document("value",document("$gt", toDate("yyyyMMdd", "20121201"))),mongoDBQueryHolder.getQuery());
+    }
+
     private Date toDate(String dateFormat, String dateString) throws java.text.ParseException {
         return new SimpleDateFormat(dateFormat, Locale.ENGLISH).parse(dateString);
     }
@@ -607,6 +619,15 @@ public class QueryConverterTest {
         new QueryConverter.Builder().sqlString("select * from my_table where date(column,'natural') <= 'quarter hour ago'").build();
     }
 
+    @Test
+    public void fuzzyDateRelativeToReferenceDate() {
+        Date referenceDate = new Date(1373653861000L);
+        Date resultDate = DateLiteralParser.parseNaturalLanguageDate("3 days ago", referenceDate);
+        assertEquals(new DateTime(referenceDate).minusDays(3).toDate(), resultDate);
+        assertEquals(resultDate, DateLiteralParser.parseNaturalLanguageDate("3 days ago", referenceDate));
+        assertEquals(new Date(1373653861000L), referenceDate);
+    }
+
     @Test(expected = ParseException.class)
     public void regexMatchInvalidRegex() throws ParseException {
         new QueryConverter.Builder().sqlString("select * from my_table where regexMatch(column,'[') = true ").build();
@@ -628,6 +649,18 @@ public class QueryConverterTest {
         assertEquals(document("value",document("$exists",false)),mongoDBQueryHolder.getQuery());
     }
 
+    @Test
+    public void manyPredicates() throws ParseException {
+        StringBuilder sql = new StringBuilder("select * from my_table where value0 = 0");
+        List<Object> expected = Lists.<Object>newArrayList(document("value0", 0L));
+        for (int i = 1; i < 500; i++) {
+            sql.append(i % 2 == 0 ? " AND value" + i + " = " + i : " AND value" + i + " > '" + i + "'");
+            expected.add(i % 2 == 0 ? document("value" + i, (long) i) : document("value" + i, document("$gt", String.valueOf(i))));
+        }
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString(sql.toString()).build();
+        assertEquals(document("$and", expected), queryConverter.getMongoQuery().getQuery());
+    }
+
     @Test
     public void specialtyFunctionTest() throws ParseException {
         QueryConverter queryConverter = new QueryConverter.Builder()
@@ -1153,6 +1186,14 @@ public class QueryConverterTest {
         assertEquals((document("value", documentValuesArray("$in","theValue1","theValue2","theValue3"))),mongoDBQueryHolder.getQuery());
     }
 
+    @Test
+    public void inClauseWithDuplicatesAndFieldType() throws ParseException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select * from my_table where value IN (\"3\", 1, 2, 3, \"1\", -4)")
+                .fieldNameToFieldTypeMapping(ImmutableMap.of("value", FieldType.NUMBER)).build();
+        MongoDBQueryHolder mongoDBQueryHolder = queryConverter.getMongoQuery();
+        assertEquals(document("value", documentValuesArray("$in", 3L, 1L, 2L, -4L)), mongoDBQueryHolder.getQuery());
+    }
+
     @Test
     public void selectColumnsFromTableWithSimpleWhereWithNotInClause() throws ParseException {
         QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select column1 from my_table where value NOT IN (\"theValue1\",\"theValue2\",\"theValue3\")").build();
@@ -2949,6 +2990,36 @@ public class QueryConverterTest {
         assertEquals(document("agent_code",document("$regex","^AW.{1}.*$")),mongoDBQueryHolder.getQuery());
     }
 
+    @Test
+    public void writeEscapesSpecialCharacters() throws ParseException, IOException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("select a, b from my_table "
+                + "where value = 'x<y & it''s \"q\"' and other IN ('=', '') and empty = 'tab\tend'").build();
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        queryConverter.write(byteArrayOutputStream);
+        assertEquals("db.my_table.find({\n" +
+                "  \"$and\": [\n" +
+                "    {\n" +
+                "      \"value\": \"x\\u003cy \\u0026 it\\u0027\\u0027s \\\"q\\\"\"\n" +
+                "    },\n" +
+                "    {\n" +
+                "      \"other\": {\n" +
+                "        \"$in\": [\n" +
+                "          \"\\u003d\",\n" +
+                "          \"\"\n" +
+                "        ]\n" +
+                "      }\n" +
+                "    },\n" +
+                "    {\n" +
+                "      \"empty\": \"tab\\tend\"\n" +
+                "    }\n" +
+                "  ]\n" +
+                "} , {\n" +
+                "  \"_id\": 0,\n" +
+                "  \"a\": 1,\n" +
+                "  \"b\": 1\n" +
+                "})", byteArrayOutputStream.toString("UTF-8"));
+    }
+
     private static Document document(String key, Object... values) {
         Document document = new Document();
         if (values !=null && values.length > 1) {
@@ -0,0 +1,445 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.google.common.collect.ImmutableMap;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryConverterWriteTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void insertSelect() throws ParseException {
+        Document queryDocument = new QueryConverter.Builder().sqlString("insert into rollup select borough, "
+                + "count(*) as total from restaurants where cuisine = 'Italian' group by borough")
+                .build().getQueryAsDocument();
+        assertEquals("INSERT", queryDocument.get("commandType"));
+        assertEquals("restaurants", queryDocument.get("collection"));
+        List<Document> steps = queryDocument.getList("query", Document.class);
+        assertEquals(new Document("$match", new Document("cuisine", "Italian")), steps.get(0));
+        assertEquals(new Document("$merge", new Document("into", "rollup").append("whenMatched", "fail")),
+                steps.get(steps.size() - 1));
+    }
+
+    @Test
+    public void insertSelectWithColumnsAndMergeOptions() throws ParseException {
+        Document queryDocument = new QueryConverter.Builder().sqlString("insert into archive.rollup (name, kind) "
+                + "select borough, cuisine from restaurants")
+                .mergeOn(Arrays.asList("name", "kind")).mergeWhenMatched("replace").mergeWhenNotMatched("insert")
+                .build().getQueryAsDocument();
+        assertEquals(Arrays.asList(
+                new Document("$project", new Document("_id", 0).append("name", "$borough").append("kind", "$cuisine")),
+                new Document("$merge", new Document("into", new Document("db", "archive").append("coll", "rollup"))
+                        .append("on", Arrays.asList("name", "kind")).append("whenMatched", "replace")
+                        .append("whenNotMatched", "insert"))),
+                queryDocument.getList("query", Document.class));
+    }
+
+    @Test
+    public void createTableAsSelect() throws ParseException, IOException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("create table italian as "
+                + "select * from restaurants where cuisine = 'Italian'").build();
+        Document queryDocument = queryConverter.getQueryAsDocument();
+        assertEquals("CREATE_TABLE", queryDocument.get("commandType"));
+        assertEquals(false, queryDocument.get("replaceTable"));
+        assertEquals(Arrays.asList(new Document("$match", new Document("cuisine", "Italian")),
+                new Document("$out", "italian")), queryDocument.getList("query", Document.class));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        queryConverter.write(outputStream);
+        assertEquals("db.restaurants.aggregate([{\n"
+                + "  \"$match\": {\n"
+                + "    \"cuisine\": \"Italian\"\n"
+                + "  }\n"
+                + "},{\n"
+                + "  \"$out\": \"italian\"\n"
+                + "}])", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void createTableInAnotherDatabaseNeedsReplaceTable() throws ParseException {
+        assertEquals(new Document("$out", new Document("db", "archive").append("coll", "italian")),
+                new QueryConverter.Builder().sqlString("create table archive.italian as select * from restaurants")
+                        .replaceTable(true).build().getQueryAsDocument().getList("query", Document.class).get(0));
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("set replaceTable to write to another database");
+        new QueryConverter.Builder().sqlString("create table archive.italian as select * from restaurants").build();
+    }
+
+    @Test
+    public void runCreateTableFailsWhenTableExists() throws ParseException {
+        final List<String> written = new ArrayList<>();
+        MongoDatabase database = createTableDatabase(Arrays.asList("restaurants", "italian"), written);
+        new QueryConverter.Builder().sqlString("create table italian as select * from restaurants")
+                .replaceTable(true).build().run(database);
+        assertEquals(Collections.singletonList("toCollection"), written);
+        new QueryConverter.Builder().sqlString("create table greek as select * from restaurants").build()
+                .run(database);
+        assertEquals(Arrays.asList("toCollection", "toCollection"), written);
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("table italian already exists, set replaceTable to replace it");
+        new QueryConverter.Builder().sqlString("create table italian as select * from restaurants").build()
+                .run(database);
+    }
+
+    @Test
+    public void insertColumnsMustMatchSelectItems() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("the number of columns does not match the number of select items");
+        new QueryConverter.Builder().sqlString("insert into rollup (a, b) select borough from restaurants").build();
+    }
+
+    @Test
+    public void insertValues() throws ParseException, IOException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("insert into orders (_id, status, "
+                + "total, note) values (1, 'open', '12.5', null), (2, 'closed', -3, 'x')")
+                .fieldNameToFieldTypeMapping(ImmutableMap.of("total", FieldType.NUMBER)).build();
+        Document queryDocument = queryConverter.getQueryAsDocument();
+        assertEquals("INSERT", queryDocument.get("commandType"));
+        assertEquals("orders", queryDocument.get("collection"));
+        assertEquals(Arrays.asList(
+                new Document("_id", 1L).append("status", "open").append("total", 12.5).append("note", null),
+                new Document("_id", 2L).append("status", "closed").append("total", -3L).append("note", "x")),
+                queryDocument.get("documents"));
+        assertEquals(new Document("ordered", false), queryDocument.get("options"));
+        assertEquals(1000, queryDocument.get("batchSize"));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new QueryConverter.Builder().sqlString("insert into orders (_id, status) values (1, 'open')")
+                .orderedInserts(true).build().write(outputStream);
+        assertEquals("db.orders.insertMany([{\n"
+                + "  \"_id\": 1,\n"
+                + "  \"status\": \"open\"\n"
+                + "}] , {\n"
+                + "  \"ordered\": true\n"
+                + "})", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void insertValuesWithParameters() throws ParseException {
+        assertEquals(Arrays.asList(new Document("_id", 1).append("status", "open"),
+                new Document("_id", 2).append("status", "closed")),
+                new QueryConverter.Builder().sqlString("insert into orders (_id, status) values (?, ?), (?, ?)")
+                        .build().bind(1, "open", 2, "closed").getQueryAsDocument().get("documents"));
+    }
+
+    @Test
+    public void insertValuesNeedsColumns() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("the columns have to be listed for INSERT ... VALUES");
+        new QueryConverter.Builder().sqlString("insert into rollup values (1)").build();
+    }
+
+    @Test
+    public void insertValuesCountMustMatchColumns() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("the number of values does not match the number of columns");
+        new QueryConverter.Builder().sqlString("insert into rollup (a, b) values (1)").build();
+    }
+
+    @Test
+    public void runInsertValuesInBatches() throws ParseException {
+        final List<List<Document>> batches = Collections.synchronizedList(new ArrayList<List<Document>>());
+        final List<Boolean> ordered = Collections.synchronizedList(new ArrayList<Boolean>());
+        MongoDatabase database = insertDatabase(batches, ordered);
+        QueryConverter.Builder builder = new QueryConverter.Builder().sqlString("insert into orders (_id) "
+                + "values (1), (2), (3), (4), (5)").insertBatchSize(2);
+        CompiledQuery compiledQuery = builder.build().compile();
+        assertEquals(5L, (long) compiledQuery.run(database));
+        assertEquals(3, batches.size());
+        assertEquals(Arrays.asList(false, false, false), ordered);
+        List<Object> ids = new ArrayList<>();
+        for (List<Document> batch : batches) {
+            for (Document document : batch) {
+                ids.add(document.get("_id"));
+            }
+        }
+        assertEquals(5, ids.size());
+        assertEquals(true, ids.containsAll(Arrays.asList(1L, 2L, 3L, 4L, 5L)));
+        assertEquals(new Document("_id", 1L), compiledQuery.getQueryAsDocument()
+                .getList("documents", Document.class).get(0));
+
+        batches.clear();
+        ordered.clear();
+        assertEquals(5L, (long) builder.orderedInserts(true).build().run(database));
+        assertEquals(Arrays.asList(2, 2, 1), Arrays.asList(batches.get(0).size(), batches.get(1).size(),
+                batches.get(2).size()));
+        assertEquals(new Document("_id", 3L).append("inserted", true), batches.get(1).get(0));
+        assertEquals(Arrays.asList(true, true, true), ordered);
+    }
+
+    @Test
+    public void unorderedInsertsShareTheInsertThreads() throws ParseException {
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final MongoCollection<?> collection = proxy(MongoCollection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                threads.add(Thread.currentThread().getName());
+                return null;
+            }
+        });
+        MongoDatabase database = proxy(MongoDatabase.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                return collection;
+            }
+        });
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("insert into orders (_id) "
+                + "values (1), (2), (3), (4), (5), (6), (7), (8), (9), (10)").insertBatchSize(1).build();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(10L, (long) queryConverter.run(database));
+        }
+        assertTrue(threads.size() <= QueryConverter.INSERT_BATCHES_IN_FLIGHT);
+        for (String thread : threads) {
+            assertTrue(thread, thread.startsWith("sql-to-mongo-insert-"));
+        }
+    }
+
+    @Test
+    public void scriptReader() throws ParseException {
+        SqlScriptReader scriptReader = new QueryConverter.Builder().sqlString("insert into orders (_id, note) "
+                + "values (1, 'a;b');;\n update orders set note = 'c' where _id = 1;\n select * from orders")
+                .buildScript();
+        assertEquals("INSERT", scriptReader.next().getQueryAsDocument().get("commandType"));
+        assertEquals("UPDATE", scriptReader.next().getQueryAsDocument().get("commandType"));
+        assertEquals("SELECT", scriptReader.next().getQueryAsDocument().get("commandType"));
+        assertEquals(null, scriptReader.next());
+    }
+
+    @Test
+    public void buildOnlyConvertsOneStatement() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("only one statement is supported, use buildScript for more than one");
+        new QueryConverter.Builder().sqlString("select * from orders; select * from customers").build();
+    }
+
+    @Test
+    public void distinctNotSupported() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("distinct is not supported when writing the results to a table");
+        new QueryConverter.Builder().sqlString("create table boroughs as select distinct borough from restaurants")
+                .build();
+    }
+
+    @Test
+    public void updateWithSetAndInc() throws ParseException, IOException {
+        QueryConverter queryConverter = new QueryConverter.Builder().sqlString("update orders set status = 'closed', "
+                + "retries = retries + 1, credit = credit - 2.5 where status = 'open'").build();
+        Document queryDocument = queryConverter.getQueryAsDocument();
+        assertEquals("UPDATE", queryDocument.get("commandType"));
+        assertEquals(new Document("status", "open"), queryDocument.get("query"));
+        assertEquals(new Document("$set", new Document("status", "closed"))
+                .append("$inc", new Document("retries", 1L).append("credit", -2.5)), queryDocument.get("update"));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        queryConverter.write(outputStream);
+        assertEquals("db.orders.updateMany({\n"
+                + "  \"status\": \"open\"\n"
+                + "} , {\n"
+                + "  \"$set\": {\n"
+                + "    \"status\": \"closed\"\n"
+                + "  },\n"
+                + "  \"$inc\": {\n"
+                + "    \"retries\": 1,\n"
+                + "    \"credit\": -2.5\n"
+                + "  }\n"
+                + "})", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void updateReferencingOtherColumnsUsesPipeline() throws ParseException {
+        Document queryDocument = new QueryConverter.Builder().sqlString("update orders as o set o.total = "
+                + "o.price * o.quantity, o.retries = o.retries + 1, o.status = 'priced' where o.total is null")
+                .build().getQueryAsDocument();
+        assertEquals(Collections.singletonList(new Document("$set", new Document("total",
+                new Document("$multiply", Arrays.asList("$price", "$quantity")))
+                .append("retries", new Document("$add", Arrays.asList("$retries", new Document("$literal", 1L))))
+                .append("status", new Document("$literal", "priced")))),
+                queryDocument.get("update"));
+    }
+
+    @Test
+    public void updateWithConstantArithmeticUsesPipeline() throws ParseException {
+        assertEquals(Collections.singletonList(new Document("$set", new Document("total",
+                new Document("$add", Arrays.asList(new Document("$literal", 1L), new Document("$literal", 2L)))))),
+                new QueryConverter.Builder().sqlString("update orders set total = 1 + 2").build()
+                        .getQueryAsDocument().get("update"));
+    }
+
+    @Test
+    public void updatePipelineParametersAreLiterals() throws ParseException {
+        assertEquals(Collections.singletonList(new Document("$set", new Document("note",
+                new Document("$concat", Arrays.asList("$note", new Document("$literal", "$status")))))),
+                new QueryConverter.Builder().sqlString("update orders set note = note || ?").build()
+                        .bind("$status").getQueryAsDocument().get("update"));
+    }
+
+    @Test
+    public void updateWithParameters() throws ParseException {
+        CompiledQuery compiledQuery = new QueryConverter.Builder().sqlString("update orders set retries = retries "
+                + "+ :retries, status = :status where _id = :id").build()
+                .bind(ImmutableMap.of("retries", 1, "status", "open", "id", 5));
+        assertEquals(new Document("$set", new Document("status", "open"))
+                .append("$inc", new Document("retries", 1)),
+                new QueryConverter.Builder().sqlString("update orders set retries = retries + ?, status = ? "
+                        + "where _id = ?").build().bind(1, "open", 5).getQueryAsDocument().get("update"));
+        assertEquals(new Document("_id", 5), compiledQuery.getQueryAsDocument().get("query"));
+        assertEquals(new Document("$set", new Document("status", "open"))
+                .append("$inc", new Document("retries", 1)), compiledQuery.getQueryAsDocument().get("update"));
+    }
+
+    @Test
+    public void updateSetNull() throws ParseException {
+        assertEquals(new Document("$set", new Document("note", null)), new QueryConverter.Builder()
+                .sqlString("update orders set note = null").build().getQueryAsDocument().get("update"));
+    }
+
+    @Test
+    public void updateColumnSetTwice() throws ParseException {
+        expectedException.expect(ParseException.class);
+        expectedException.expectMessage("status is set more than once");
+        new QueryConverter.Builder().sqlString("update orders set status = 'a', status = 'b'").build();
+    }
+
+    @Test
+    public void runUpdatesWithOneBulkWritePerCollection() throws ParseException {
+        final List<String> collections = new ArrayList<>();
+        final List<List<UpdateManyModel<Document>>> bulkWrites = new ArrayList<>();
+        final MongoCollection<?> collection = proxy(MongoCollection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("bulkWrite".equals(method.getName())) {
+                    bulkWrites.add((List<UpdateManyModel<Document>>) args[0]);
+                    return BulkWriteResult.acknowledged(0, args.length * 2, 0, args.length,
+                            Collections.<BulkWriteUpsert>emptyList());
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        MongoDatabase database = proxy(MongoDatabase.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("getCollection".equals(method.getName())) {
+                    collections.add((String) args[0]);
+                    return collection;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        UpdateResult updateResult = CompiledQuery.runUpdates(Arrays.asList(
+                new QueryConverter.Builder().sqlString("update orders set status = 'a' where _id = 1").build().compile(),
+                new QueryConverter.Builder().sqlString("update customers set total = price * 2").build().compile(),
+                new QueryConverter.Builder().sqlString("update orders set status = 'b' where _id = 2").build().compile()),
+                database);
+        assertEquals(Arrays.asList("orders", "customers"), collections);
+        assertEquals(2, bulkWrites.get(0).size());
+        assertEquals(new Document("_id", 2L), bulkWrites.get(0).get(1).getFilter());
+        assertEquals(new Document("$set", new Document("status", "b")), bulkWrites.get(0).get(1).getUpdate());
+        assertEquals(1, bulkWrites.get(1).size());
+        assertEquals(1, bulkWrites.get(1).get(0).getUpdatePipeline().size());
+        assertEquals(4, updateResult.getMatchedCount());
+        assertEquals(2, updateResult.getModifiedCount());
+    }
+
+    //fake database that records the batches passed to insertMany and changes the documents, like the driver does
+    //when it adds an _id
+    private static MongoDatabase insertDatabase(final List<List<Document>> batches, final List<Boolean> ordered) {
+        final MongoCollection<?> collection = proxy(MongoCollection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("insertMany".equals(method.getName())) {
+                    for (Document document : (List<Document>) args[0]) {
+                        document.put("inserted", true);
+                    }
+                    batches.add((List<Document>) args[0]);
+                    ordered.add(((InsertManyOptions) args[1]).isOrdered());
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return proxy(MongoDatabase.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("getCollection".equals(method.getName())) {
+                    return collection;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    //fake database with the given collections that records the aggregations written to a collection
+    private static MongoDatabase createTableDatabase(final List<String> collectionNames, final List<String> written) {
+        final AggregateIterable<?> aggregate = proxy(AggregateIterable.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("toCollection".equals(method.getName())) {
+                    written.add(method.getName());
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final MongoCollection<?> collection = proxy(MongoCollection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("aggregate".equals(method.getName())) {
+                    return aggregate;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final MongoIterable<?> names = proxy(MongoIterable.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("into".equals(method.getName())) {
+                    ((List<String>) args[0]).addAll(collectionNames);
+                    return args[0];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return proxy(MongoDatabase.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("getCollection".equals(method.getName())) {
+                    return collection;
+                } else if ("listCollectionNames".equals(method.getName())) {
+                    return names;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final InvocationHandler invocationHandler) {
+        return (T) Proxy.newProxyInstance(QueryConverterWriteTest.class.getClassLoader(),
+                new Class<?>[] {type}, invocationHandler);
+    }
+}
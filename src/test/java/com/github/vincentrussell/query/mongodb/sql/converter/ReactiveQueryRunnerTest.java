@@ -0,0 +1,175 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.Success;
+import org.bson.Document;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReactiveQueryRunnerTest {
+
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void find() throws ParseException {
+        Object result = new QueryConverter.Builder().sqlString(
+                "select a from my_table where value = 1 order by a limit 5 offset 2").build()
+                .runAsync(database(null));
+        assertEquals(Arrays.asList("getCollection [my_table]",
+                "find [Document{{value=1}}]",
+                "projection [Document{{_id=0, a=1}}]",
+                "sort [Document{{a=1}}]",
+                "skip [2]",
+                "limit [5]"), calls);
+        assertTrue(result instanceof Publisher);
+    }
+
+    @Test
+    public void aggregate() throws ParseException {
+        new QueryConverter.Builder().sqlString("select a, count(*) from my_table group by a")
+                .aggregationAllowDiskUse(true).aggregationBatchSize(10).build().runAsync(database(null));
+        assertEquals(Arrays.asList("getCollection [my_table]",
+                "aggregate [[Document{{$group=Document{{_id=$a, count=Document{{$sum=1}}}}}}, "
+                        + "Document{{$project=Document{{a=$_id, count=1, _id=0}}}}]]",
+                "allowDiskUse [true]",
+                "batchSize [10]"), calls);
+    }
+
+    @Test
+    public void distinct() throws ParseException {
+        new QueryConverter.Builder().sqlString("select distinct a from my_table where b = 1").build()
+                .runAsync(database(null));
+        assertEquals(Arrays.asList("getCollection [my_table]",
+                "distinct [a, Document{{b=1}}, class java.lang.String]"), calls);
+    }
+
+    @Test
+    public void count() throws ParseException, ExecutionException, InterruptedException {
+        CompletionStage<Long> result = new QueryConverter.Builder().sqlString(
+                "select count(*) from my_table where b = 1").build().runAsync(database(5L));
+        assertEquals(Long.valueOf(5L), result.toCompletableFuture().get());
+        assertEquals(Arrays.asList("getCollection [my_table]", "count [Document{{b=1}}]"), calls);
+    }
+
+    @Test
+    public void delete() throws ParseException, ExecutionException, InterruptedException {
+        CompletionStage<Long> result = new QueryConverter.Builder().sqlString(
+                "delete from my_table where b = 1").build().runAsync(database(DeleteResult.acknowledged(3)));
+        assertEquals(Long.valueOf(3L), result.toCompletableFuture().get());
+        assertEquals(Arrays.asList("getCollection [my_table]", "deleteMany [Document{{b=1}}]"), calls);
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void countFailure() throws ParseException, ExecutionException, InterruptedException {
+        CompletionStage<Long> result = new QueryConverter.Builder().sqlString(
+                "select count(*) from my_table").build().runAsync(database(new IllegalStateException("failed")));
+        result.toCompletableFuture().get();
+    }
+
+    @Test
+    public void unorderedInsertKeepsAtMostFourBatchesInFlight() throws ParseException, ExecutionException,
+            InterruptedException {
+        final List<Subscriber<Object>> inFlight = new ArrayList<>();
+        final MongoCollection<?> collection = proxy(MongoCollection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                calls.add(method.getName() + " " + ((List<?>) args[0]).size());
+                return new Publisher<Object>() {
+                    @Override
+                    public void subscribe(final Subscriber<? super Object> subscriber) {
+                        inFlight.add((Subscriber<Object>) subscriber);
+                    }
+                };
+            }
+        });
+        MongoDatabase database = proxy(MongoDatabase.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                return collection;
+            }
+        });
+        CompletionStage<Long> result = new QueryConverter.Builder().sqlString("insert into orders (_id) "
+                + "values (1), (2), (3), (4), (5), (6), (7), (8), (9), (10)").insertBatchSize(1).build()
+                .runAsync(database);
+        int inserted = 0;
+        while (!inFlight.isEmpty()) {
+            assertTrue(inFlight.size() <= QueryConverter.INSERT_BATCHES_IN_FLIGHT);
+            assertEquals(Math.min(10 - inserted, QueryConverter.INSERT_BATCHES_IN_FLIGHT), inFlight.size());
+            subscribe(inFlight.remove(0), Success.SUCCESS);
+            inserted++;
+        }
+        assertEquals(10, inserted);
+        assertEquals(10, calls.size());
+        assertEquals(Long.valueOf(10L), result.toCompletableFuture().get());
+    }
+
+    private MongoDatabase database(final Object singleResult) {
+        return proxy(MongoDatabase.class, singleResult);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(final Class<T> clazz, final InvocationHandler invocationHandler) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{clazz}, invocationHandler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(final Class<T> clazz, final Object singleResult) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{clazz},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if ("subscribe".equals(method.getName())) {
+                            subscribe((Subscriber<Object>) args[0], singleResult);
+                            return null;
+                        }
+                        calls.add(method.getName() + " " + Arrays.toString(args));
+                        if (method.getReturnType().isInterface()) {
+                            Class<?> returnType = MongoDatabase.class.equals(clazz)
+                                    ? MongoCollection.class : method.getReturnType();
+                            return proxy(returnType, singleResult);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static void subscribe(final Subscriber<Object> subscriber, final Object singleResult) {
+        subscriber.onSubscribe(new Subscription() {
+            private boolean done;
+
+            @Override
+            public void request(final long n) {
+                if (!done) {
+                    done = true;
+                    if (singleResult instanceof Throwable) {
+                        subscriber.onError((Throwable) singleResult);
+                    } else {
+                        subscriber.onNext(singleResult);
+                        subscriber.onComplete();
+                    }
+                }
+            }
+
+            @Override
+            public void cancel() {
+                done = true;
+            }
+        });
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResultWriterTest {
+
+    private final List<Document> documents = Arrays.asList(
+            new Document("_id", 1).append("name", "first").append("date", new Date(0)),
+            new Document("_id", 2L).append("tags", Arrays.asList("a", "b")));
+
+    @Test
+    public void ndjson() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(2, ResultWriter.write(documents.iterator(), ResultWriter.Format.NDJSON, outputStream));
+        assertEquals("{\"_id\": 1, \"name\": \"first\", \"date\": {\"$date\": \"1970-01-01T00:00:00Z\"}}\n"
+                + "{\"_id\": 2, \"tags\": [\"a\", \"b\"]}\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void json() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(2, ResultWriter.write(documents.iterator(), ResultWriter.Format.JSON, outputStream));
+        assertEquals("[{\"_id\": 1, \"name\": \"first\", \"date\": {\"$date\": \"1970-01-01T00:00:00Z\"}},\n"
+                + "{\"_id\": 2, \"tags\": [\"a\", \"b\"]}]\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void jsonEmpty() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(0, ResultWriter.write(new ArrayList<Document>().iterator(), ResultWriter.Format.JSON,
+                outputStream));
+        assertEquals("[]\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void bson() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(2, ResultWriter.write(documents.iterator(), ResultWriter.Format.BSON, outputStream));
+        ByteBuffer byteBuffer = ByteBuffer.wrap(outputStream.toByteArray());
+        List<Document> result = new ArrayList<>();
+        while (byteBuffer.hasRemaining()) {
+            BsonBinaryReader reader = new BsonBinaryReader(byteBuffer);
+            result.add(new DocumentCodec().decode(reader, DecoderContext.builder().build()));
+            byteBuffer.position(reader.getBsonInput().getPosition());
+        }
+        assertEquals(documents, result);
+    }
+
+    @Test
+    public void distinctValues() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResultWriter.write(Arrays.asList("a", "b").iterator(), ResultWriter.Format.NDJSON, outputStream);
+        assertEquals("{\"value\": \"a\"}\n{\"value\": \"b\"}\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void count() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResultWriter.writeCount(5, ResultWriter.Format.NDJSON, outputStream);
+        assertEquals("{\"count\": 5}\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void formatFromName() {
+        assertEquals(ResultWriter.Format.NDJSON, ResultWriter.Format.fromName(" ndJson "));
+    }
+}
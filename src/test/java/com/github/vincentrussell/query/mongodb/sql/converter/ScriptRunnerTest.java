@@ -0,0 +1,137 @@
+package com.github.vincentrussell.query.mongodb.sql.converter;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptRunnerTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private final ByteArrayOutputStream timing = new ByteArrayOutputStream();
+
+    @Test
+    public void readsRunConcurrentlyAndWritesWaitForThem() throws ParseException, IOException {
+        final CyclicBarrier bothReads = new CyclicBarrier(2);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new ScriptRunner(2, new ScriptRunner.StatementRunner() {
+            @Override
+            public void run(final QueryConverter queryConverter, final OutputStream statementOutputStream,
+                            final boolean concurrent) throws IOException {
+                String collection = queryConverter.getMongoQuery().getCollection();
+                events.add("start " + collection);
+                if (Arrays.asList("a", "b").contains(collection)) {
+                    try {
+                        //only passes if both reads are running at the same time
+                        bothReads.await(10, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+                IOUtils.write(collection + "\n", statementOutputStream);
+                events.add("end " + collection);
+            }
+        }, new PrintStream(timing, true)).run(script("select * from b; select * from a; "
+                + "insert into c (x) values (1); select * from d"), outputStream);
+        assertEquals("b\na\nc\nd\n", outputStream.toString("UTF-8"));
+        assertEquals(Arrays.asList("start c", "end c", "start d", "end d"), events.subList(4, 8));
+        String[] timingLines = timing.toString("UTF-8").trim().split("\n");
+        assertEquals(4, timingLines.length);
+        for (String timingLine : timingLines) {
+            assertTrue(timingLine, timingLine.matches("statement [1-4] took \\d+ ms"));
+        }
+    }
+
+    @Test
+    public void failedReadStopsTheScriptBeforeTheNextWrite() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            new ScriptRunner(4, new ScriptRunner.StatementRunner() {
+                @Override
+                public void run(final QueryConverter queryConverter, final OutputStream statementOutputStream,
+                                final boolean concurrent) throws ParseException, IOException {
+                    String collection = queryConverter.getMongoQuery().getCollection();
+                    events.add(collection);
+                    if ("b".equals(collection)) {
+                        throw new ParseException("b failed");
+                    }
+                    IOUtils.write(collection + "\n", statementOutputStream);
+                }
+            }, new PrintStream(timing, true)).run(script("select * from a; select * from b; "
+                    + "delete from c where x = 1"), outputStream);
+            fail("the failed read should stop the script");
+        } catch (ParseException e) {
+            assertEquals("b failed", e.getMessage());
+        }
+        assertEquals("a\n", outputStream.toString("UTF-8"));
+        assertEquals(false, events.contains("c"));
+    }
+
+    @Test
+    public void oneAtATimeRunsOnTheCallingThread() throws ParseException, IOException {
+        final Thread caller = Thread.currentThread();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new ScriptRunner(1, new ScriptRunner.StatementRunner() {
+            @Override
+            public void run(final QueryConverter queryConverter, final OutputStream statementOutputStream,
+                            final boolean concurrent) throws IOException {
+                events.add(queryConverter.getMongoQuery().getCollection() + " " + concurrent + " "
+                        + (Thread.currentThread() == caller));
+            }
+        }, new PrintStream(timing, true)).run(script("select * from a; select * from b"), outputStream);
+        assertEquals(Arrays.asList("a false true", "b false true"), events);
+    }
+
+    @Test
+    public void concurrentResultsAreSpilledToTemporaryFilesThatAreDeleted() throws ParseException, IOException {
+        final List<File> existingParts = listParts();
+        final List<File> parts = Collections.synchronizedList(new ArrayList<File>());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new ScriptRunner(2, new ScriptRunner.StatementRunner() {
+            @Override
+            public void run(final QueryConverter queryConverter, final OutputStream statementOutputStream,
+                            final boolean concurrent) throws IOException {
+                List<File> newParts = listParts();
+                newParts.removeAll(existingParts);
+                parts.addAll(newParts);
+                IOUtils.write(queryConverter.getMongoQuery().getCollection() + "\n", statementOutputStream);
+            }
+        }, new PrintStream(timing, true)).run(script("select * from a; select * from b; select * from c"),
+                outputStream);
+        assertEquals("a\nb\nc\n", outputStream.toString("UTF-8"));
+        assertFalse(parts.isEmpty());
+        for (File part : parts) {
+            assertFalse(part.getPath(), part.exists());
+        }
+    }
+
+    private static List<File> listParts() {
+        return new ArrayList<>(Arrays.asList(new File(System.getProperty("java.io.tmpdir")).listFiles(
+                new FilenameFilter() {
+                    @Override
+                    public boolean accept(final File dir, final String name) {
+                        return name.startsWith("statement") && name.endsWith(".part");
+                    }
+                })));
+    }
+
+    private static SqlScriptReader script(final String sql) throws ParseException {
+        return new QueryConverter.Builder().sqlString(sql).buildScript();
+    }
+}